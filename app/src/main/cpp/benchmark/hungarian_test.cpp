@@ -0,0 +1,76 @@
+#include <cstdio>
+#include <vector>
+#include "hungarian.hpp"
+
+/*
+** Assignments of the Hungarian algorithm on small cost matrices with a known optimum, including the ones a greedy
+** matching gets wrong, with more rows than columns, and empty.
+**
+** hungarian-test
+*/
+
+namespace {
+
+	constexpr double GATED_COST = 1e6;
+
+	int failures = 0;
+
+	void expect(const char *name, const std::vector<double> &costs, int rows, int cols, const std::vector<int> &expected) {
+		Hungarian hungarian;
+		std::vector<int> rowMatch(7, 42);
+		hungarian.solve(costs, rows, cols, GATED_COST, rowMatch);
+		if (rowMatch == expected) {
+			std::printf("ok      %s\n", name);
+			return;
+		}
+		std::printf("FAILED  %s: got", name);
+		for (int col: rowMatch)
+			std::printf(" %d", col);
+		std::printf(", expected");
+		for (int col: expected)
+			std::printf(" %d", col);
+		std::printf("\n");
+		failures++;
+	}
+}
+
+int main() {
+	// Three tracks and two boxes. Matching the cheapest pair first gives (0, 0) then (1, 1), 101 in total, the best
+	// is (0, 1) and (1, 0) for 4, and the third track gets no box.
+	expect("more rows than columns", {
+			1, 2,
+			2, 100,
+			100, 100}, 3, 2, {1, 0, -1});
+	expect("more columns than rows", {
+			1, 2, 100,
+			2, 100, 100}, 2, 3, {1, 0});
+	expect("square", {
+			4, 1, 3,
+			2, 0, 5,
+			3, 2, 2}, 3, 3, {1, 0, 2});
+	// The second track can only get a gated box, it is left without one.
+	expect("gated pair", {
+			1, GATED_COST,
+			GATED_COST, GATED_COST}, 2, 2, {0, -1});
+	expect("single box", {3}, 1, 1, {0});
+	expect("single gated box", {GATED_COST}, 1, 1, {-1});
+	expect("no track", {}, 0, 2, {});
+	expect("no box", {}, 2, 0, {-1, -1});
+
+	// The state of the algorithm is reused from call to call, whatever the previous sizes.
+	Hungarian hungarian;
+	std::vector<int> rowMatch;
+	hungarian.solve({1, 2, 2, 100, 100, 100}, 3, 2, GATED_COST, rowMatch);
+	hungarian.solve({5, 1, 1, 5}, 2, 2, GATED_COST, rowMatch);
+	if (rowMatch != std::vector<int>{1, 0}) {
+		std::printf("FAILED  reused state\n");
+		failures++;
+	}
+
+	if (failures > 0) {
+		std::printf("FAILED: %d assignments\n", failures);
+		return 1;
+	}
+	std::printf("PASSED\n");
+	return 0;
+}
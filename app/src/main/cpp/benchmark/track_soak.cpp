@@ -0,0 +1,137 @@
+#include <algorithm>
+#include <cstdio>
+#include <cstdlib>
+#include <random>
+#include <string>
+#include <vector>
+#include <sys/resource.h>
+#include "centroidtracker.hpp"
+#include "collisionpredictor.hpp"
+#include "trackstore.hpp"
+
+/*
+** Long drive soak test of the native track lifecycle: hours of synthetic traffic go through the TrackStore,
+** the CentroidTracker and the CollisionPredictor at 30 frames per second, and the memory must stay flat.
+**
+** Cars enter the frame, drift and grow for a few seconds to a minute, then leave. Some detections are missed and
+** a few spurious boxes appear, so tracks are created, lost, recovered and deleted all along the drive.
+** The test fails when the maximum resident set size grows after the warm-up, a quarter of the run up to the first
+** simulated hour, or when the store fills up and new objects cannot be tracked.
+**
+** track-soak [--hours 4] [--seed 1]
+*/
+
+namespace {
+
+	constexpr int FRAME_WIDTH = 300;
+	constexpr int FRAME_HEIGHT = 300;
+	constexpr long long FRAME_MS = 33;
+	constexpr long long REPORT_MS = 30 * 60 * 1000;
+	constexpr int MAX_CARS = 12;
+	// Share of the run before the baseline of the resident set is taken, at most an hour.
+	constexpr double WARMUP_SHARE = 0.25;
+	constexpr long long MAX_WARMUP_MS = 3600 * 1000;
+	// Growth of the resident set tolerated after the warm-up, allocator noise.
+	constexpr long MAX_GROWTH_KB = 256;
+
+	struct Car {
+		cv::Rect2f box;
+		float vx;
+		float vy;
+		float growth;
+		long long end;
+	};
+
+	long maxResidentKb() {
+		rusage usage{};
+		getrusage(RUSAGE_SELF, &usage);
+		return usage.ru_maxrss;
+	}
+}
+
+int main(int argc, char **argv) {
+	double hours = 4;
+	unsigned seed = 1;
+	for (int i = 1; i + 1 < argc; i += 2) {
+		std::string option(argv[i]);
+		if (option == "--hours")
+			hours = std::atof(argv[i + 1]);
+		else if (option == "--seed")
+			seed = static_cast<unsigned>(std::atoi(argv[i + 1]));
+	}
+
+	TrackStore store;
+	CentroidTracker ct(store);
+	CollisionPredictor cp;
+	store.addListener(&cp);
+	static unsigned char pixels[FRAME_WIDTH * FRAME_HEIGHT];
+	cv::Mat const frame(FRAME_HEIGHT, FRAME_WIDTH, CV_8UC1, pixels);
+
+	std::mt19937 random(seed);
+	std::uniform_real_distribution<float> uniform(0, 1);
+	std::vector<Car> cars;
+	std::vector<cv::Rect2f> boxes;
+	cars.reserve(MAX_CARS);
+	boxes.reserve(MAX_CARS + 1);
+
+	long long const end = static_cast<long long>(hours * 3600 * 1000);
+	long long const warmup = std::min(MAX_WARMUP_MS, static_cast<long long>(end * WARMUP_SHARE));
+	long baseline = 0;
+	int maxTracks = 0;
+	long long alerts = 0;
+	std::printf("%8s %8s %8s %10s %8s\n", "minutes", "tracks", "next id", "max rss kB", "alerts");
+	for (long long time = 0; time <= end; time += FRAME_MS) {
+		float dt = FRAME_MS / 1000.0f;
+		for (size_t i = 0; i < cars.size();) {
+			Car &car = cars[i];
+			float grow = car.box.width * car.growth * dt;
+			car.box = cv::Rect2f(car.box.x + car.vx * dt - grow / 2, car.box.y + car.vy * dt - grow / 2,
+								 car.box.width + grow, car.box.height + grow);
+			bool outside = (car.box & cv::Rect2f(0, 0, FRAME_WIDTH, FRAME_HEIGHT)).area() <= 0;
+			if (time >= car.end || outside || car.box.width > FRAME_WIDTH) {
+				cars[i] = cars.back();
+				cars.pop_back();
+			} else {
+				++i;
+			}
+		}
+		if (cars.size() < MAX_CARS && uniform(random) < 0.02f) {
+			float size = 10 + 40 * uniform(random);
+			cars.push_back(Car{cv::Rect2f((FRAME_WIDTH - size) * uniform(random), (FRAME_HEIGHT - size) * uniform(random), size, size),
+							   40 * (uniform(random) - 0.5f), 20 * (uniform(random) - 0.5f), 0.3f * (uniform(random) - 0.3f),
+							   time + static_cast<long long>(2000 + 58000 * uniform(random))});
+		}
+
+		boxes.clear();
+		for (const Car &car: cars) {
+			if (uniform(random) >= 0.1f)
+				boxes.push_back(car.box);
+		}
+		if (uniform(random) < 0.01f)
+			boxes.emplace_back(FRAME_WIDTH * uniform(random), FRAME_HEIGHT * uniform(random), 15, 15);
+
+		ct.update(boxes, time);
+		alerts += cp.alert(store, frame, 90);
+		maxTracks = std::max(maxTracks, store.size());
+
+		if (baseline == 0 && time >= warmup)
+			baseline = maxResidentKb();
+		if (time % REPORT_MS < FRAME_MS) {
+			long rss = maxResidentKb();
+			std::printf("%8lld %8d %8d %10ld %8lld\n", time / 60000, store.size(), store.nextId(), rss, alerts);
+		}
+	}
+
+	long rss = maxResidentKb();
+	std::printf("at most %d tracks at once, max rss %ld kB\n", maxTracks, rss);
+	if (baseline > 0 && rss - baseline > MAX_GROWTH_KB) {
+		std::printf("FAILED: max rss grew by %ld kB after the warm-up of %lld minutes\n", rss - baseline, warmup / 60000);
+		return 1;
+	}
+	if (maxTracks >= TrackStore::CAPACITY) {
+		std::printf("FAILED: the store filled up\n");
+		return 1;
+	}
+	std::printf("PASSED\n");
+	return 0;
+}
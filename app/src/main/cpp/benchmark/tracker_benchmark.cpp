@@ -0,0 +1,198 @@
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <fstream>
+#include <sstream>
+#include <string>
+#include <vector>
+#include <opencv2/imgcodecs.hpp>
+#include <opencv2/imgproc.hpp>
+#include "objecttracker.hpp"
+
+/*
+** Runs every tracker backend on recorded sequences and reports their speed and accuracy.
+**
+** A sequence is a directory holding its frames as .jpg or .png files, read in name order, and
+** groundtruth.txt with the "x,y,width,height" box of the followed object on each frame, like the OTB
+** and VOT rectangle annotations. A box with a zero width or height marks a frame where the object is not visible.
+**
+** Each backend is initialised on the first frame and then only updated, as between two detections
+** on the phone. When it loses the object it is initialised again on the next visible ground truth box,
+** so that one failure does not ruin the rest of the sequence.
+**
+** With --scaling, the time to update 1 to 16 objects at once is measured on the first sequence, on one
+** thread and on the big cores as the Tracker does, the objects being copies of the first ground truth box
+** spread over the frame.
+*/
+
+namespace {
+
+	constexpr double SUCCESS_IOU = 0.5;
+	constexpr int SCALING_COUNTS[] = {1, 2, 4, 8, 16};
+
+	struct Sequence {
+		std::string name;
+		std::vector<cv::Mat> frames;
+		std::vector<cv::Rect2d> truth;
+	};
+
+	struct Score {
+		double milliseconds = 0;
+		int updates = 0;
+		double iouSum = 0;
+		int successes = 0;
+		int frames = 0;
+		int failures = 0;
+	};
+
+	double iou(const cv::Rect2d &a, const cv::Rect2d &b) {
+		double intersection = (a & b).area();
+		double sum = a.area() + b.area() - intersection;
+		return sum > 0 ? intersection / sum : 0;
+	}
+
+	bool loadSequence(const std::string &directory, Sequence &sequence) {
+		std::ifstream annotations(directory + "/groundtruth.txt");
+		if (!annotations) {
+			std::fprintf(stderr, "%s: no groundtruth.txt\n", directory.c_str());
+			return false;
+		}
+		std::string line;
+		while (std::getline(annotations, line)) {
+			for (char &c : line) {
+				if (c == ',' || c == '\t')
+					c = ' ';
+			}
+			std::istringstream values(line);
+			double x, y, width, height;
+			if (values >> x >> y >> width >> height)
+				sequence.truth.emplace_back(x, y, width, height);
+		}
+
+		std::vector<cv::String> files;
+		std::vector<cv::String> png;
+		cv::glob(directory + "/*.jpg", files, false);
+		cv::glob(directory + "/*.png", png, false);
+		files.insert(files.end(), png.begin(), png.end());
+		std::sort(files.begin(), files.end());
+		for (const cv::String &file : files) {
+			if (sequence.frames.size() >= sequence.truth.size())
+				break;
+			sequence.frames.push_back(cv::imread(file, cv::IMREAD_GRAYSCALE));
+		}
+		sequence.truth.resize(sequence.frames.size());
+		sequence.name = directory;
+		if (sequence.frames.empty()) {
+			std::fprintf(stderr, "%s: no annotated frame\n", directory.c_str());
+			return false;
+		}
+		return true;
+	}
+
+	void run(const Sequence &sequence, TrackerStrategy strategy, Score &score) {
+		std::unique_ptr<ObjectTracker> tracker;
+		cv::Rect2d box;
+
+		for (size_t i = 0; i < sequence.frames.size(); i++) {
+			const cv::Rect2d &truth = sequence.truth[i];
+			bool visible = truth.width > 0 && truth.height > 0;
+			if (!tracker) {
+				if (visible) {
+					tracker = ObjectTracker::create(strategy);
+					box = truth;
+					if (!tracker->init(sequence.frames[i], box))
+						tracker.reset();
+				}
+				continue;
+			}
+
+			auto start = std::chrono::steady_clock::now();
+			bool found = tracker->update(sequence.frames[i - 1], sequence.frames[i], box);
+			score.milliseconds += std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - start).count();
+			++score.updates;
+			if (!found) {
+				tracker.reset();
+				++score.failures;
+			}
+			if (visible) {
+				double overlap = found ? iou(box, truth) : 0;
+				score.iouSum += overlap;
+				score.successes += overlap >= SUCCESS_IOU;
+				++score.frames;
+			}
+		}
+	}
+
+	/*
+	** Milliseconds to update count trackers on every frame of the sequence, divided by the number of frames
+	*/
+	double updateTime(const Sequence &sequence, TrackerStrategy strategy, int count, int threads) {
+		const cv::Rect2d &first = sequence.truth[0];
+		const cv::Mat &frame = sequence.frames[0];
+		std::vector<std::unique_ptr<ObjectTracker>> trackers;
+		std::vector<cv::Rect2d> boxes;
+		std::vector<unsigned char> found;
+		for (int i = 0; i < count; i++) {
+			double x = std::fmod(first.x + i * first.width, std::max(1.0, frame.cols - first.width));
+			double y = std::fmod(first.y + (i / 4) * first.height, std::max(1.0, frame.rows - first.height));
+			trackers.push_back(ObjectTracker::create(strategy));
+			boxes.emplace_back(x, y, first.width, first.height);
+			trackers.back()->init(frame, boxes.back());
+		}
+
+		auto start = std::chrono::steady_clock::now();
+		for (size_t i = 1; i < sequence.frames.size(); i++)
+			updateTrackers(trackers, boxes, found, sequence.frames[i - 1], sequence.frames[i], threads);
+		double elapsed = std::chrono::duration<double, std::milli>(std::chrono::steady_clock::now() - start).count();
+		return elapsed / std::max<size_t>(1, sequence.frames.size() - 1);
+	}
+
+	void printScaling(const Sequence &sequence) {
+		int threads = bigCoreCount();
+		std::printf("\nupdate of all the objects, ms per frame, %d big cores\n", threads);
+		std::printf("%-12s %8s %10s %10s %8s\n", "tracker", "objects", "1 thread", "big cores", "speedup");
+		for (int s = 0; s < TRACKER_STRATEGY_COUNT; s++) {
+			auto strategy = static_cast<TrackerStrategy>(s);
+			for (int count : SCALING_COUNTS) {
+				double sequential = updateTime(sequence, strategy, count, 1);
+				double parallel = updateTime(sequence, strategy, count, threads);
+				std::printf("%-12s %8d %10.3f %10.3f %7.2fx\n", trackerStrategyName(strategy), count,
+							sequential, parallel, parallel > 0 ? sequential / parallel : 0);
+			}
+		}
+	}
+}
+
+int main(int argc, char **argv) {
+	bool scaling = false;
+	std::vector<Sequence> sequences;
+	for (int i = 1; i < argc; i++) {
+		if (std::string(argv[i]) == "--scaling") {
+			scaling = true;
+			continue;
+		}
+		Sequence sequence;
+		if (loadSequence(argv[i], sequence))
+			sequences.push_back(std::move(sequence));
+	}
+	if (sequences.empty()) {
+		std::fprintf(stderr, "usage: %s [--scaling] sequence_directory...\n", argv[0]);
+		return 1;
+	}
+
+	std::printf("%-12s %10s %8s %10s %9s\n", "tracker", "ms/update", "mean IoU", "success", "failures");
+	for (int s = 0; s < TRACKER_STRATEGY_COUNT; s++) {
+		auto strategy = static_cast<TrackerStrategy>(s);
+		Score score;
+		for (const Sequence &sequence : sequences)
+			run(sequence, strategy, score);
+		std::printf("%-12s %10.3f %8.3f %9.1f%% %9d\n", trackerStrategyName(strategy),
+					score.updates > 0 ? score.milliseconds / score.updates : 0,
+					score.frames > 0 ? score.iouSum / score.frames : 0,
+					score.frames > 0 ? 100.0 * score.successes / score.frames : 0,
+					score.failures);
+	}
+	if (scaling)
+		printScaling(sequences[0]);
+	return 0;
+}
@@ -0,0 +1,101 @@
+#include <cmath>
+#include <cstdio>
+#include "sizehistory.hpp"
+
+/*
+** Time to collision fitted by the size history on the widths of synthetic approaches: a constant closing speed with
+** a few wrong boxes, too few samples, and objects keeping their distance or going away.
+**
+** ttc-test
+*/
+
+namespace {
+
+	constexpr long long FRAME_MS = 100;
+	// Width in pixels of an object 1 m away.
+	constexpr double FOCAL_WIDTH = 1800;
+
+	int failures = 0;
+
+	void report(const char *name, bool passed, double ttc) {
+		if (passed) {
+			std::printf("ok      %s\n", name);
+			return;
+		}
+		std::printf("FAILED  %s: got %f\n", name, ttc);
+		failures++;
+	}
+
+	void expectNear(const char *name, double ttc, double expected, double tolerance) {
+		report(name, std::fabs(ttc - expected) <= tolerance, ttc);
+	}
+
+	void expectInfinite(const char *name, double ttc) {
+		report(name, std::isinf(ttc) && ttc > 0, ttc);
+	}
+
+	/*
+	** Widths of an object distance m away closing at speed m/s, one a frame
+	*/
+	double fit(int frames, double distance, double speed, double &last) {
+		SizeHistory history;
+		SizeHistory::Slopes slopes;
+		double ttc = 0;
+		for (int i = 0; i < frames; i++) {
+			double ahead = distance - speed * i * FRAME_MS / 1000.0;
+			history.add(FOCAL_WIDTH / ahead, i * FRAME_MS);
+			ttc = history.fitTimeToCollision(slopes);
+			last = ahead;
+		}
+		return ttc;
+	}
+}
+
+int main() {
+	double last;
+
+	// 40 m away at 10 m/s for 1.5 s. The median slope is the one of the middle of the ring, 0.75 s before the last
+	// frame, where the object is 3.25 s away.
+	double ttc = fit(SizeHistory::SIZE, 40, 10, last);
+	expectNear("constant closing speed", ttc, last / 10 + 0.75, 0.1);
+
+	// Same approach with 3 of the 16 boxes off by half their width, a wrong detection or a merged track.
+	SizeHistory history;
+	SizeHistory::Slopes slopes;
+	for (int i = 0; i < SizeHistory::SIZE; i++) {
+		double width = FOCAL_WIDTH / (40 - 10 * i * FRAME_MS / 1000.0);
+		if (i == 3 || i == 8 || i == 13)
+			width *= (i == 8) ? 0.5 : 1.5;
+		history.add(width, i * FRAME_MS);
+	}
+	expectNear("constant closing speed with outliers", history.fitTimeToCollision(slopes), 3.25, 0.15);
+
+	// The ring keeps the last 16 widths: after 2.9 s the fit follows the object 11 m away.
+	ttc = fit(30, 40, 10, last);
+	expectNear("ring of the last widths", ttc, last / 10 + 0.75, 0.1);
+
+	SizeHistory empty;
+	expectInfinite("no sample", empty.fitTimeToCollision(slopes));
+	expectInfinite("single sample", fit(1, 40, 10, last));
+	expectInfinite("fewer samples than needed", fit(4, 40, 10, last));
+
+	SizeHistory quick;
+	for (int i = 0; i < SizeHistory::SIZE; i++)
+		quick.add(FOCAL_WIDTH / (40 - 0.1 * i), i * 10);
+	expectInfinite("samples spanning too short a time", quick.fitTimeToCollision(slopes));
+
+	expectInfinite("constant distance", fit(SizeHistory::SIZE, 40, 0, last));
+	expectInfinite("going away", fit(SizeHistory::SIZE, 40, -10, last));
+
+	SizeHistory sameTime;
+	for (int i = 0; i < SizeHistory::SIZE; i++)
+		sameTime.add(FOCAL_WIDTH / (40 - i), 0);
+	expectInfinite("samples at the same time", sameTime.fitTimeToCollision(slopes));
+
+	if (failures > 0) {
+		std::printf("%d FAILED\n", failures);
+		return 1;
+	}
+	std::printf("PASSED\n");
+	return 0;
+}
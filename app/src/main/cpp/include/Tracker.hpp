@@ -2,27 +2,67 @@
 #define MYAPPLICATION2_TRACKER_HPP
 
 
+#include <memory>
 #include <opencv2/tracking.hpp>
 #include "centroidtracker.hpp"
 #include "collisionpredictor.hpp"
+#include "objecttracker.hpp"
 
 class Tracker {
 
 private:
 
+    // Declared before its users, which it outlives.
+    TrackStore                  store;
     CentroidTracker             ct;
-    cv::Ptr<cv::MultiTracker>   trackers;
+    std::vector<std::unique_ptr<ObjectTracker>> trackers;
+    // Last box of every tracker, dropped with its tracker when the object is lost.
+    std::vector<cv::Rect2d>     trackedBoxes;
+    std::vector<unsigned char>  found;
+    // Trackers are updated in parallel on at most this many threads, one per big core.
+    int                         updateThreads;
+    TrackerStrategy             strategy;
     CollisionPredictor          cp;
     bool                        dangerous;
+    // Intensity of the current and previous frames, the trackers work on grayscale. Swapped and reused from frame to frame.
+    cv::Mat                     gray;
+    cv::Mat                     previousGray;
+
+    // A detection overlapping a track at least this much is the same object, less means a new one.
+    static constexpr double     MATCH_IOU = 0.3;
+    // Below this overlap with its detection the track drifted and its tracker is initialised again.
+    static constexpr double     STABLE_IOU = 0.6;
 
     std::vector<cv::Rect2f>       getBoxesFromTracker(cv::Mat const &frame);
+    // Index of the track of every box, -1 for a new object, and its overlap with the box.
+    void                          matchTracks(std::vector<cv::Rect2f> const &boxes, std::vector<int> &trackOfBox,
+                                              std::vector<double> &overlaps) const;
 
 public:
     Tracker();
 
-    std::map<int, cv::Rect2f>     addBoxes(cv::Mat const &frame, std::vector<cv::Rect2f> const &boxes);
+    /**
+     * Backend used for the boxes given from now on, the objects already tracked keep theirs.
+     */
+    void                          setStrategy(TrackerStrategy strategy);
+
+    /**
+     * Converts a RGBA frame, as copied from an Android ARGB_8888 bitmap, into the persistent grayscale frame.
+     * No allocation happens once the first frame of a size was loaded.
+     */
+    cv::Mat const                 &loadFrame(unsigned char const *rgba, int width, int height);
+
+    /**
+     * time is the time of the frame in milliseconds, for the motion model of the objects.
+     */
+    std::map<int, cv::Rect2f>     addBoxes(cv::Mat const &frame, std::vector<cv::Rect2f> const &boxes, long long time);
+
+    std::map<int, cv::Rect2f>     updateBoxes(cv::Mat const &frame, double speed, long long time);
 
-    std::map<int, cv::Rect2f>     updateBoxes(cv::Mat const &frame, double speed);
+    /**
+     * Boxes expected at this time from the motion of the objects, for the frames the trackers skip.
+     */
+    std::map<int, cv::Rect2f>     predictBoxes(long long time);
 
     bool                          isDangerous() const;
 
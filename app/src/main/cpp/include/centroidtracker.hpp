@@ -3,30 +3,48 @@
 
 #include <map>
 #include <vector>
+#include "hungarian.hpp"
+#include "trackstore.hpp"
 
+/*
+** Matches the boxes of each frame with the tracks of the store, creating and deleting tracks as objects come and go
+*/
 class CentroidTracker {
 public:
-	CentroidTracker();
+	explicit CentroidTracker(TrackStore &store);
 	~CentroidTracker();
-	std::map<int, cv::Rect2f> update(const std::vector<cv::Rect2f> &boxes);
+	/*
+	** time is the time of the frame of the boxes in milliseconds, which feeds the motion model of the objects
+	*/
+	std::map<int, cv::Rect2f> update(const std::vector<cv::Rect2f> &boxes, long long time);
+	/*
+	** Boxes of the visible objects expected at this time from their motion, without any frame
+	*/
+	std::map<int, cv::Rect2f> predict(long long time);
 
 private:
-	void register_object(const cv::Point2d &centroid, const cv::Rect2f &box);
-	void deregister_object(const int objectID);
-	std::map<int, cv::Point2d> allObjectsDisappeared(const std::vector<cv::Rect2f> &boxes);
-	void compute_distances(const std::vector<cv::Point2d> &XA, const std::vector<cv::Point2d> &XB);
-	std::vector<int> sortRows() const;
-	std::vector<int> sortCols(const std::vector<int> rows) const;
-	void correlatePositions(const std::vector<int> &objectIDs, const std::vector<cv::Point2d> &objectCentroids,
-		const std::vector<cv::Point2d> &inputCentroids, std::vector<int> &unusedRows, std::vector<int> &unusedCols,
-		const std::vector<cv::Rect2f> &boxes);
+	void allObjectsDisappeared();
+	void compute_costs(const std::vector<cv::Point2d> &inputCentroids, const std::vector<cv::Rect2f> &boxes);
+	void correlatePositions(const std::vector<cv::Point2d> &inputCentroids, std::vector<int> &unusedRows,
+		std::vector<int> &unusedCols, const std::vector<cv::Rect2f> &boxes, long long time);
+	std::map<int, cv::Rect2f> visibleBoxes() const;
 
-	int nextObjectID = 0;
+	// Cost of the pairs too far apart to be the same object, never kept by the assignment.
+	static constexpr double GATED_COST = 1e6;
+	// Centroids further apart than this many diagonals of the larger box are not the same object.
+	static constexpr double MAX_DISTANCE = 1.5;
+
+	TrackStore &store;
 	int maxDisappeared = 60;
-	std::map<int, cv::Point2d> objects;
-	std::map<int, cv::Rect2f> lastBoxes;
-	std::map<int, int> disappeared;
-	std::vector<std::vector<double>> dists;
+	// Slot of the track of every row of the costs.
+	std::vector<int> rowSlots;
+	// Cost of every (tracked object, new box) pair, row major, reused from update to update.
+	std::vector<double> costs;
+	int rowCount = 0;
+	int colCount = 0;
+	// Column assigned to every row, -1 when none, by the Hungarian algorithm.
+	std::vector<int> rowMatch;
+	Hungarian hungarian;
 };
 
 #endif // CENTROIDTRACKER_HPP
\ No newline at end of file
@@ -1,28 +1,50 @@
 #ifndef COLLISIONPREDICTOR_HPP
 #define COLLISIONPREDICTOR_HPP
 
+#include <array>
+#include <limits>
 #include <map>
 #include <vector>
 #include <math.h>
 #include <opencv2/opencv.hpp>
+#include "sizehistory.hpp"
+#include "trackstore.hpp"
 
-class CollisionPredictor {
+/*
+** Fits the time to collision of every track from the widths it receives as a TrackListener
+*/
+class CollisionPredictor : public TrackListener {
 public:
 	CollisionPredictor();
 	~CollisionPredictor();
 
-	bool alert(const std::map<int, cv::Rect2f> &objects, cv::Mat frame, double speed);
+	void onTrackCreated(int slot, const Track &track) override;
+	void onTrackUpdated(int slot, const Track &track, long long time) override;
+
+	/*
+	** speed is the speed of the car in km/h
+	*/
+	bool alert(const TrackStore &store, const cv::Mat &frame, double speed) const;
+
+	/*
+	** Seconds before the object of the slot reaches the camera at the current closing rate, infinity when it does
+	** not get closer
+	*/
+	double timeToCollision(int slot) const;
 
 private:
-	void add_size_to_history(const int id, const double size);
-	double minimum_distance(double speed) const;
+	double alert_threshold(double speed) const;
 
-	std::map<int, std::vector<double>>	objects_size_history;
-	const int 							APX_THRESHOLD = 15;
-	const int                           MAX_DELTA = 25;
+	std::array<SizeHistory, TrackStore::CAPACITY>	objects_size_history;
+	// Time to collision last fitted on the history of each slot.
+	std::array<double, TrackStore::CAPACITY>	objects_ttc;
+	SizeHistory::Slopes					slopes;
 	const int                           APX_SPEED = 130;
 	const int 							MIN_X = 21;
 	const int 							MAX_X = 82;
+	// Time to collision below which the driver is warned, at a stop and at APX_SPEED.
+	const double                        MIN_TTC = 1.5;
+	const double                        MAX_TTC = 3.0;
 };
 
-#endif // COLLISIONPREDICTOR_HPP
+#endif // COLLISIONPREDICTOR_HPP
\ No newline at end of file
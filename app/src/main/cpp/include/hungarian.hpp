@@ -0,0 +1,28 @@
+#ifndef HUNGARIAN_HPP
+#define HUNGARIAN_HPP
+
+#include <vector>
+
+/*
+** Assignment of the rows of a cost matrix to its columns of the least total cost, with the Hungarian algorithm in
+** O(n² m). The state of the algorithm is kept from call to call, nothing is allocated once it reached the largest size.
+*/
+class Hungarian {
+public:
+	/*
+	** costs is row major with rows x cols entries. rowMatch receives the column of every row, -1 when none: every row
+	** gets one when there are at most as many rows as columns, every column otherwise. Pairs costing maxCost or more
+	** are part of the assignment but never kept.
+	*/
+	void solve(const std::vector<double> &costs, int rows, int cols, double maxCost, std::vector<int> &rowMatch);
+
+private:
+	std::vector<double> u;
+	std::vector<double> v;
+	std::vector<int> p;
+	std::vector<int> way;
+	std::vector<double> minv;
+	std::vector<char> used;
+};
+
+#endif // HUNGARIAN_HPP
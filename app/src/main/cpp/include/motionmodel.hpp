@@ -0,0 +1,35 @@
+#ifndef MOTIONMODEL_HPP
+#define MOTIONMODEL_HPP
+
+#include <opencv2/video/tracking.hpp>
+
+/*
+** Constant velocity Kalman filter of a box: its centre, its size and their rates.
+** Times are in milliseconds, the rates in pixels per second.
+*/
+class MotionModel {
+public:
+	MotionModel();
+
+	void init(const cv::Rect2f &box, long long time);
+
+	/*
+	** Moves the state to this time and returns the box expected there.
+	*/
+	cv::Rect2f predict(long long time);
+
+	/*
+	** Moves the state to the time of the measured box and corrects it with the box.
+	*/
+	void correct(const cv::Rect2f &box, long long time);
+
+private:
+	static constexpr int STATE_SIZE = 8;
+	static constexpr int MEASURE_SIZE = 4;
+
+	cv::KalmanFilter filter;
+	cv::Mat measurement;
+	long long lastTime = 0;
+};
+
+#endif // MOTIONMODEL_HPP
@@ -0,0 +1,87 @@
+#ifndef OBJECTTRACKER_HPP
+#define OBJECTTRACKER_HPP
+
+#include <memory>
+#include <vector>
+#include <opencv2/core.hpp>
+
+/*
+** Backends able to follow one object between two detections, from the cheapest to the most accurate.
+** The values are shared with sharpeye.sharpeye.tracking.TrackerStrategy.
+*/
+enum class TrackerStrategy : int {
+	MOSSE = 0,
+	KCF = 1,
+	CSRT = 2,
+	MEDIAN_FLOW = 3,
+	OPTICAL_FLOW = 4,
+};
+
+constexpr int TRACKER_STRATEGY_COUNT = 5;
+
+char const *trackerStrategyName(TrackerStrategy strategy);
+
+/*
+** Follows a single object on grayscale frames.
+*/
+class ObjectTracker {
+public:
+	virtual ~ObjectTracker() = default;
+
+	virtual bool init(const cv::Mat &frame, const cv::Rect2d &box) = 0;
+
+	/*
+	** Moves the box from the previous frame to this one, returns false when the object is lost.
+	** The previous frame is the one given to the last call of init or update.
+	*/
+	virtual bool update(const cv::Mat &previous, const cv::Mat &frame, cv::Rect2d &box) = 0;
+
+	/*
+	** Moves a tracker kept across a detection to the detected box of the frame. Returns false for the trackers which
+	** learnt a model of the object: they ignore the box and keep following their own.
+	*/
+	virtual bool relocate(const cv::Mat &frame, const cv::Rect2d &box) {
+		return false;
+	}
+
+	static std::unique_ptr<ObjectTracker> create(TrackerStrategy strategy);
+};
+
+/*
+** Pyramidal Lucas-Kanade flow of a grid of points of the box, the box follows the median motion and scale.
+** Nothing is learnt about the object, which makes it the cheapest backend but lets it drift on textureless objects.
+*/
+class OpticalFlowTracker : public ObjectTracker {
+public:
+	bool init(const cv::Mat &frame, const cv::Rect2d &box) override;
+	bool update(const cv::Mat &previous, const cv::Mat &frame, cv::Rect2d &box) override;
+	bool relocate(const cv::Mat &frame, const cv::Rect2d &box) override;
+
+private:
+	void fill_grid(const cv::Rect2d &box);
+
+	static constexpr int GRID_SIZE = 8;
+	static constexpr int MIN_POINTS = 6;
+
+	std::vector<cv::Point2f> points;
+	std::vector<cv::Point2f> nextPoints;
+	std::vector<unsigned char> status;
+	std::vector<float> errors;
+	std::vector<float> dx;
+	std::vector<float> dy;
+	std::vector<float> scales;
+};
+
+/*
+** Cores of the fastest cluster of the device, every core when they all run at the same frequency.
+*/
+int bigCoreCount();
+
+/*
+** Updates every tracker with its box, in parallel over at most threads threads.
+** found[i] tells whether trackers[i] still follows its object, the results do not depend on the scheduling.
+*/
+void updateTrackers(std::vector<std::unique_ptr<ObjectTracker>> &trackers, std::vector<cv::Rect2d> &boxes,
+					std::vector<unsigned char> &found, const cv::Mat &previous, const cv::Mat &frame, int threads);
+
+#endif // OBJECTTRACKER_HPP
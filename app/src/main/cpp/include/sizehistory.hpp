@@ -0,0 +1,38 @@
+#ifndef SIZEHISTORY_HPP
+#define SIZEHISTORY_HPP
+
+#include <array>
+
+/*
+** Last widths of an object, in a ring, and the time before it reaches the camera fitted on them
+*/
+class SizeHistory {
+public:
+	static constexpr int SIZE = 16;
+
+	// Slopes of every pair of samples of a history, scratch space of a fit shared by the histories.
+	using Slopes = std::array<double, SIZE * (SIZE - 1) / 2>;
+
+	/*
+	** Adds a width to the ring, the oldest one is overwritten once it is full. time is in ms
+	*/
+	void add(double width, long long time);
+
+	/*
+	** Seconds before the object reaches the camera at the closing rate of its widths, infinity when it does not get
+	** closer or the samples are too few or too close in time to tell
+	*/
+	double fitTimeToCollision(Slopes &slopes) const;
+
+private:
+	// Samples needed to fit the rate, and the time they must span.
+	static constexpr int MIN_SAMPLES = 5;
+	static constexpr long long MIN_SPAN_MS = 200;
+
+	std::array<double, SIZE> logWidths;
+	std::array<long long, SIZE> times;
+	int next = 0;
+	int count = 0;
+};
+
+#endif // SIZEHISTORY_HPP
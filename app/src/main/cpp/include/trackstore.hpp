@@ -0,0 +1,108 @@
+#ifndef TRACKSTORE_HPP
+#define TRACKSTORE_HPP
+
+#include <array>
+#include <vector>
+#include <opencv2/core.hpp>
+#include "motionmodel.hpp"
+
+/*
+** Object followed from frame to frame. A slot of the TrackStore holds a track while its id is not negative.
+*/
+struct Track {
+	int id = -1;
+	cv::Point2d centroid;
+	cv::Rect2f box;
+	// Updates since the object was last matched with a box, 0 while it is visible.
+	int disappeared = 0;
+	MotionModel motion;
+
+	bool alive() const {
+		return id >= 0;
+	}
+};
+
+/*
+** Consumer of the per track state, told about the life of every track. The slot of a track is its index in the
+** store, consumers can keep their own state in arrays of TrackStore::CAPACITY entries.
+*/
+class TrackListener {
+public:
+	virtual ~TrackListener() = default;
+
+	virtual void onTrackCreated(int slot, const Track &track) {
+	}
+
+	/*
+	** The track was matched with a box of the frame at this time.
+	*/
+	virtual void onTrackUpdated(int slot, const Track &track, long long time) {
+	}
+
+	/*
+	** The track was not matched for the first time since its last update.
+	*/
+	virtual void onTrackLost(int slot, const Track &track) {
+	}
+
+	/*
+	** Last event of a track, its slot is then reused by another one.
+	*/
+	virtual void onTrackDeleted(int slot, const Track &track) {
+	}
+};
+
+/*
+** Fixed capacity storage of the tracks shared by the CentroidTracker, which drives their lifecycle, and the per
+** track consumers. Nothing is allocated once the store is built, whatever the number of objects met during a drive,
+** and the ids wrap around once MAX_ID is reached, skipping the ones still in use.
+*/
+class TrackStore {
+public:
+	static constexpr int CAPACITY = 64;
+	static constexpr int MAX_ID = 1 << 20;
+
+	TrackStore();
+
+	void addListener(TrackListener *listener);
+
+	/*
+	** Returns the slot of the new track, -1 when the store is full
+	*/
+	int create(const cv::Point2d &centroid, const cv::Rect2f &box, long long time);
+	void update(int slot, const cv::Point2d &centroid, const cv::Rect2f &box, long long time);
+	/*
+	** Counts an update where the track was not matched, the track is deleted after more than maxMisses of them
+	*/
+	void miss(int slot, int maxMisses);
+	void remove(int slot);
+
+	Track &operator[](int slot) {
+		return this->tracks[slot];
+	}
+
+	const Track &operator[](int slot) const {
+		return this->tracks[slot];
+	}
+
+	int size() const {
+		return CAPACITY - static_cast<int>(this->freeSlots.size());
+	}
+
+	/*
+	** Id given to the next track
+	*/
+	int nextId() const {
+		return this->nextObjectID;
+	}
+
+private:
+	bool isUsed(int id) const;
+
+	std::array<Track, CAPACITY> tracks;
+	std::vector<int> freeSlots;
+	std::vector<TrackListener *> listeners;
+	int nextObjectID = 0;
+};
+
+#endif // TRACKSTORE_HPP
@@ -1,47 +1,121 @@
 #include <Tracker.hpp>
 
 #include "Tracker.hpp"
+#include <algorithm>
+#include <tuple>
 #include <android/log.h>
 
 
-Tracker::Tracker() : ct(), trackers(), cp(), dangerous(false) {
+Tracker::Tracker() : store(), ct(store), trackers(), trackedBoxes(), found(), updateThreads(bigCoreCount()), strategy(TrackerStrategy::MOSSE), cp(), dangerous(false) {
+    store.addListener(&cp);
+}
+
+void Tracker::setStrategy(TrackerStrategy strategy) {
+    this->strategy = strategy;
+}
+
+cv::Mat const &Tracker::loadFrame(unsigned char const *rgba, int width, int height) {
+    cv::Mat const frame(height, width, CV_8UC4, const_cast<unsigned char *>(rgba));
+    cv::swap(gray, previousGray);
+    cv::cvtColor(frame, gray, cv::COLOR_RGBA2GRAY);
+    return gray;
 }
 
 bool Tracker::isDangerous() const {
     return this->dangerous;
 }
 
-std::map<int, cv::Rect2f> Tracker::addBoxes(cv::Mat const &frame, std::vector<cv::Rect2f> const &boxes) {
-    float xMin, yMin, boxWidth, boxHeight;
+void Tracker::matchTracks(std::vector<cv::Rect2f> const &boxes, std::vector<int> &trackOfBox,
+                          std::vector<double> &overlaps) const {
+    std::vector<std::tuple<double, size_t, size_t>> pairs;
+    for (size_t b = 0; b < boxes.size(); b++) {
+        cv::Rect2d const box(boxes[b].x, boxes[b].y, boxes[b].width, boxes[b].height);
+        for (size_t t = 0; t < trackedBoxes.size(); t++) {
+            double intersection = (box & trackedBoxes[t]).area();
+            double iou = intersection / (box.area() + trackedBoxes[t].area() - intersection);
+            if (iou >= MATCH_IOU)
+                pairs.emplace_back(iou, b, t);
+        }
+    }
+    // Greedy on the overlap, the best matching pairs are taken first.
+    std::sort(pairs.begin(), pairs.end(), [](auto const &a, auto const &b) { return std::get<0>(a) > std::get<0>(b); });
+    trackOfBox.assign(boxes.size(), -1);
+    overlaps.assign(boxes.size(), 0);
+    std::vector<bool> matched(trackedBoxes.size(), false);
+    for (auto const &pair : pairs) {
+        size_t box = std::get<1>(pair);
+        size_t track = std::get<2>(pair);
+        if (trackOfBox[box] >= 0 || matched[track])
+            continue;
+        trackOfBox[box] = static_cast<int>(track);
+        overlaps[box] = std::get<0>(pair);
+        matched[track] = true;
+    }
+}
+
+std::map<int, cv::Rect2f> Tracker::addBoxes(cv::Mat const &frame, std::vector<cv::Rect2f> const &boxes, long long time) {
+    std::vector<int> trackOfBox;
+    std::vector<double> overlaps;
+    matchTracks(boxes, trackOfBox, overlaps);
 
-    trackers = cv::MultiTracker::create();
-    for (cv::Rect2f const &box: boxes) {
-        xMin = box.x;
-        yMin = box.y;
-        boxWidth = box.width;
-        boxHeight = box.height;
-        __android_log_print(ANDROID_LOG_INFO, "JNIBoxes", "box.x=%f box.y=%f box.width=%f box.height=%f", box.x,
-                            box.y, box.width, box.height);
-        trackers->add(cv::TrackerMOSSE::create(), frame, cv::Rect2d(xMin, yMin, boxWidth, boxHeight));
+    // Tracks still on their detection keep their filter, the others are seeded on the detection.
+    // The kept trackers without a filter, the optical flow, are moved to the detection of this frame.
+    // Tracks matching no detection are dropped.
+    std::vector<std::unique_ptr<ObjectTracker>> nextTrackers;
+    std::vector<cv::Rect2d> nextBoxes;
+    int seeded = 0;
+    for (size_t i = 0; i < boxes.size(); i++) {
+        cv::Rect2d const rect(boxes[i].x, boxes[i].y, boxes[i].width, boxes[i].height);
+        int track = trackOfBox[i];
+        if (track >= 0 && overlaps[i] >= STABLE_IOU) {
+            nextBoxes.push_back(trackers[track]->relocate(frame, rect) ? rect : trackedBoxes[track]);
+            nextTrackers.push_back(std::move(trackers[track]));
+            continue;
+        }
+        std::unique_ptr<ObjectTracker> tracker = ObjectTracker::create(strategy);
+        if (tracker->init(frame, rect)) {
+            nextTrackers.push_back(std::move(tracker));
+            nextBoxes.push_back(rect);
+            ++seeded;
+        }
     }
-    return ct.update(boxes);
+#ifndef NDEBUG
+    __android_log_print(ANDROID_LOG_DEBUG, "JNIBoxes", "%zu boxes, %d trackers seeded, %zu kept", boxes.size(), seeded,
+                        nextTrackers.size() - seeded);
+#endif
+    trackers = std::move(nextTrackers);
+    trackedBoxes = std::move(nextBoxes);
+    return ct.update(boxes, time);
 }
 
-std::map<int, cv::Rect2f> Tracker::updateBoxes(cv::Mat const &frame, double speed) {
+std::map<int, cv::Rect2f> Tracker::updateBoxes(cv::Mat const &frame, double speed, long long time) {
     std::vector<cv::Rect2f> boxes;
     boxes = getBoxesFromTracker(frame);
-    std::string str = "boxes="+std::to_string(boxes.size());
-    std::map<int, cv::Rect2f> objects =  ct.update(boxes);
-    this->dangerous = this->cp.alert(objects, frame, speed);
+    std::map<int, cv::Rect2f> objects =  ct.update(boxes, time);
+    this->dangerous = this->cp.alert(store, frame, speed);
     return objects;
 }
 
+std::map<int, cv::Rect2f> Tracker::predictBoxes(long long time) {
+    return ct.predict(time);
+}
+
 std::vector<cv::Rect2f> Tracker::getBoxesFromTracker(cv::Mat const &frame) {
-    trackers->update(frame);
+    updateTrackers(trackers, trackedBoxes, found, previousGray, frame, updateThreads);
+
+    // Compacted in the order of the trackers whatever the order the updates finished in.
     std::vector<cv::Rect2f> boxes;
-    for (unsigned i = 0; i < trackers->getObjects().size(); i++) {
-        cv::Rect2d object = trackers->getObjects()[i];
+    size_t kept = 0;
+    for (size_t i = 0; i < trackers.size(); i++) {
+        if (!found[i])
+            continue;
+        cv::Rect2d const object = trackedBoxes[i];
+        trackers[kept] = std::move(trackers[i]);
+        trackedBoxes[kept] = object;
+        ++kept;
         boxes.emplace_back(object.x, object.y, object.width, object.height);
     }
+    trackers.resize(kept);
+    trackedBoxes.resize(kept);
     return boxes;
 }
@@ -1,186 +1,139 @@
+#include <algorithm>
 #include <cmath>
-#include <numeric>
 #include <opencv2/opencv.hpp>
 #include "centroidtracker.hpp"
 
 //#include <android/log.h>
 
-CentroidTracker::CentroidTracker() = default;
-
-CentroidTracker::~CentroidTracker() = default;
-
-/*
-** Adds a new object to the list of tracked objects
-*/
-void CentroidTracker::register_object(const cv::Point2d &centroid, const cv::Rect2f &box) {
-	this->objects.insert(std::make_pair(this->nextObjectID, centroid));
-	this->lastBoxes.insert(std::make_pair(this->nextObjectID, box));
-	this->disappeared.insert(std::make_pair(this->nextObjectID, 0));
-	++this->nextObjectID;
+CentroidTracker::CentroidTracker(TrackStore &store) : store(store) {
+	this->rowSlots.reserve(TrackStore::CAPACITY);
 }
 
-/*
-** Removes an object from the list of tracked objects
-*/
-void CentroidTracker::deregister_object(const int objectID) {
-	this->objects.erase(objectID);
-	this->lastBoxes.erase(objectID);
-	this->disappeared.erase(objectID);
-}
+CentroidTracker::~CentroidTracker() = default;
 
 /*
-** Calculates the Euclidian distances between each centroids of the tracked objects and each centroids of the new boxes
+** Calculates the cost of matching each tracked object with each new box: the share of the boxes not overlapping
+** plus the distance between their centroids, in diagonals of the larger box. Pairs too far apart are gated.
 */
-void CentroidTracker::compute_distances(const std::vector<cv::Point2d> &XA, const std::vector<cv::Point2d> &XB) {
-	std::vector<std::vector<double>> dist(XA.size(), std::vector<double>(XB.size()));
-
-	for (int i = 0; i < XA.size(); i++) {
-		for (int j = 0; j < XB.size(); j++) {
-			dist[i][j] = sqrt( pow(XB[j].x - XA[i].x, 2) + pow(XB[j].y - XA[i].y, 2) );
+void CentroidTracker::compute_costs(const std::vector<cv::Point2d> &inputCentroids, const std::vector<cv::Rect2f> &boxes) {
+	this->rowCount = static_cast<int>(this->rowSlots.size());
+	this->colCount = static_cast<int>(boxes.size());
+	this->costs.resize(static_cast<size_t>(this->rowCount) * this->colCount);
+
+	for (int i = 0; i < this->rowCount; i++) {
+		const Track &track = this->store[this->rowSlots[i]];
+		const cv::Point2d &centroid = track.centroid;
+		const cv::Rect2f &last = track.box;
+		for (int j = 0; j < this->colCount; j++) {
+			const cv::Rect2f &box = boxes[j];
+			double diagonal = std::max(std::hypot(last.width, last.height), std::hypot(box.width, box.height));
+			double distance = std::hypot(inputCentroids[j].x - centroid.x, inputCentroids[j].y - centroid.y) / std::max(1.0, diagonal);
+			double intersection = (last & box).area();
+			double iou = intersection / std::max(1e-6, static_cast<double>(last.area() + box.area() - intersection));
+			this->costs[i * this->colCount + j] = (iou <= 0 && distance > MAX_DISTANCE) ? GATED_COST : (1 - iou) + distance;
 		}
 	}
-
-	this->dists = dist;
 }
 
 /*
-** Returns a vector of the indexes of each row, sorted by the smallest distances in each row
+** Increments the disappeared counter of each object of the list of tracked objects
 */
-std::vector<int> CentroidTracker::sortRows() const {
-	std::vector<double> mins(this->dists.size());
-	for (int i = 0; i < this->dists.size(); i++) {
-		mins[i] = *(std::min_element(this->dists[i].begin(), this->dists[i].end()));
+void CentroidTracker::allObjectsDisappeared() {
+	for (int slot = 0; slot < TrackStore::CAPACITY; slot++) {
+		if (this->store[slot].alive())
+			this->store.miss(slot, this->maxDisappeared);
 	}
-	std::vector<int> rows(mins.size());
-	std::iota(rows.begin(), rows.end(), 0);
-	auto comparator = [&mins](int a, int b){ return mins[a] < mins[b]; };
-	std::sort(rows.begin(), rows.end(), comparator);
-
-	return rows;
 }
 
 /*
-** Returns a vector of the indexes of the smallest distance in each row, sorted by the smallest value
+** Updates the centroid of the tracked objects
 */
-std::vector<int> CentroidTracker::sortCols(const std::vector<int> rows) const {
-	std::vector<int> mins(this->dists.size());
-	for (int i = 0; i < this->dists.size(); i++) {
-		mins[i] = static_cast<int>(std::distance(this->dists[i].begin(), std::min_element(this->dists[i].begin(), this->dists[i].end())));
-	}
-
-	std::vector<int> cols;
-	for (auto &row: rows) {
-		cols.push_back(mins[row]);
+void CentroidTracker::correlatePositions(
+        const std::vector<cv::Point2d> &inputCentroids,
+        std::vector<int> &unusedRows,
+        std::vector<int> &unusedCols,
+        const std::vector<cv::Rect2f> &boxes,
+        long long time) {
+
+	this->hungarian.solve(this->costs, this->rowCount, this->colCount, GATED_COST, this->rowMatch);
+	std::vector<bool> usedCols(this->colCount, false);
+	for (int row = 0; row < this->rowCount; row++) {
+		int col = this->rowMatch[row];
+		if (col < 0) {
+			unusedRows.push_back(row);
+			continue;
+		}
+		this->store.update(this->rowSlots[row], inputCentroids[col], boxes[col], time);
+		usedCols[col] = true;
 	}
-
-	return cols;
+	for (int col = 0; col < this->colCount; col++)
+		if (!usedCols[col]) unusedCols.push_back(col);
 }
 
 /*
-** Increments the disappeared counter of each object of the list of tracked objects
+** Returns the boxes of the visible objects by id
 */
-std::map<int, cv::Point2d> CentroidTracker::allObjectsDisappeared(const std::vector<cv::Rect2f> &boxes) {
-	std::vector<int> toDelete;
-	for (auto &object: this->disappeared) {
-		++(this->disappeared[object.first]);
-		if (this->disappeared[object.first] > this->maxDisappeared) {
-			toDelete.push_back(object.first);
+std::map<int, cv::Rect2f> CentroidTracker::visibleBoxes() const {
+	std::map<int, cv::Rect2f> res;
+	for (int slot = 0; slot < TrackStore::CAPACITY; slot++) {
+		const Track &track = this->store[slot];
+		if (track.alive() && track.disappeared == 0) {
+			res.insert(std::make_pair(track.id, track.box));
 		}
 	}
-	for (auto &objectID: toDelete) {
-		this->deregister_object(objectID);
-	}
-	return this->objects;
+	return res;
 }
 
 /*
-** Updates the centroid of the tracked objects
+** Predicts the boxes of the visible objects from their motion model
 */
-void CentroidTracker::correlatePositions(
-        const std::vector<int> &objectIDs,
-        const std::vector<cv::Point2d> &objectCentroids,
-        const std::vector<cv::Point2d> &inputCentroids,
-        std::vector<int> &unusedRows,
-        std::vector<int> &unusedCols,
-        const std::vector<cv::Rect2f> &boxes) {
-    
-	std::vector<int> rows = this->sortRows();
-	std::vector<int> cols = this->sortCols(rows);
-	std::vector<int> usedRows;
-	std::vector<int> usedCols;
-	int objectID;
-	auto limit = std::min(rows.size(), cols.size());
-
-	for (unsigned int i = 0; i < limit; i++) {
-		if (std::find(usedRows.begin(), usedRows.end(), rows[i]) != usedRows.end() ||
-			std::find(usedCols.begin(), usedCols.end(), cols[i]) != usedCols.end()) {
-			continue;
+std::map<int, cv::Rect2f> CentroidTracker::predict(long long time) {
+	std::map<int, cv::Rect2f> res;
+	for (int slot = 0; slot < TrackStore::CAPACITY; slot++) {
+		Track &track = this->store[slot];
+		if (track.alive() && track.disappeared == 0) {
+			res.insert(std::make_pair(track.id, track.motion.predict(time)));
 		}
-		objectID = objectIDs[rows[i]];
-		this->objects[objectID] = inputCentroids[cols[i]];
-		this->lastBoxes[objectID] = boxes[cols[i]];
-		this->disappeared[objectID] = 0;
-		usedRows.push_back(rows[i]);
-		usedCols.push_back(cols[i]);
 	}
-	for (unsigned int i = 0; i < this->dists.size(); i++)
-		if (std::find(usedRows.begin(), usedRows.end(), i) == usedRows.end()) unusedRows.push_back(i);
-	for (unsigned int i = 0; i < this->dists[0].size(); i++)
-		if (std::find(usedCols.begin(), usedCols.end(), i) == usedCols.end()) unusedCols.push_back(i);
+	return res;
 }
 
 /*
 ** Updates the centroids of the tracked objects and adds/removes objects to the list of tracked objects
 */
-std::map<int, cv::Rect2f> CentroidTracker::update(const std::vector<cv::Rect2f> &boxes) {
-	std::map<int, cv::Rect2f> res;
+std::map<int, cv::Rect2f> CentroidTracker::update(const std::vector<cv::Rect2f> &boxes, long long time) {
 	if (boxes.empty()) {
-		this->allObjectsDisappeared(boxes);
-		return res;
+		this->allObjectsDisappeared();
+		return std::map<int, cv::Rect2f>();
 	}
 
 	std::vector<cv::Point2d> inputCentroids;
 	for (auto &box: boxes)
 		inputCentroids.emplace_back(cv::Point2d(box.x + (box.width / 2.0), box.y + (box.height / 2.0)));
 
-	if (this->objects.empty()) {
-		int i = 0;
-		for (auto &centroid: inputCentroids) {
-			this->register_object(centroid, boxes[i]);
-			++i;
-		}
-	} else {
-		std::vector<int> objectIDs;
-		std::vector<cv::Point2d> objectCentroids;
-
-		for (auto &object: this->objects) {
-			objectIDs.push_back(object.first);
-			objectCentroids.push_back(object.second);
-		}
+	this->rowSlots.clear();
+	for (int slot = 0; slot < TrackStore::CAPACITY; slot++) {
+		if (this->store[slot].alive())
+			this->rowSlots.push_back(slot);
+	}
 
-		this->compute_distances(objectCentroids, inputCentroids);
+	if (this->rowSlots.empty()) {
+		for (size_t i = 0; i < boxes.size(); i++)
+			this->store.create(inputCentroids[i], boxes[i], time);
+	} else {
+		this->compute_costs(inputCentroids, boxes);
 		std::vector<int> unusedRows;
 		std::vector<int> unusedCols;
-		this->correlatePositions(objectIDs, objectCentroids, inputCentroids, unusedRows, unusedCols, boxes);
+		this->correlatePositions(inputCentroids, unusedRows, unusedCols, boxes, time);
 
-		int objectID;
 		for (auto &row: unusedRows) {
-            objectID = objectIDs[row];
-            ++(this->disappeared[objectID]);
-            if (this->disappeared[objectID] > this->maxDisappeared) {
-                this->deregister_object(objectID);
-            }
+			this->store.miss(this->rowSlots[row], this->maxDisappeared);
 		}
+		// New objects are dropped while the store is full.
 		for (auto &col: unusedCols) {
-            this->register_object(inputCentroids[col], boxes[col]);
-        }
-
-	}
-
-	for (auto &[objectID, box]: this->lastBoxes) {
-		if (this->disappeared[objectID] == 0) {
-			res.insert(std::make_pair(objectID, box));
+			this->store.create(inputCentroids[col], boxes[col], time);
 		}
 	}
-	return res;
-}
\ No newline at end of file
+
+	return this->visibleBoxes();
+}
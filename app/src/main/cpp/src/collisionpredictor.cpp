@@ -1,39 +1,54 @@
 #include "collisionpredictor.hpp"
 
-CollisionPredictor::CollisionPredictor() = default;
+CollisionPredictor::CollisionPredictor() {
+	this->objects_ttc.fill(std::numeric_limits<double>::infinity());
+}
 
 CollisionPredictor::~CollisionPredictor() = default;
 
-void CollisionPredictor::add_size_to_history(const int id, const double size) {
-	this->objects_size_history[id].push_back(size);
+/*
+** The faster the car, the longer it takes to stop and the earlier the driver is warned
+*/
+double CollisionPredictor::alert_threshold(double speed) const {
+	double ratio = std::min(1.0, std::max(0.0, speed / this->APX_SPEED));
+	return this->MIN_TTC + (this->MAX_TTC - this->MIN_TTC) * ratio;
 }
 
-double CollisionPredictor::minimum_distance(double speed) const {
-	if (speed < 10) {
-		return 0;
-	}
+void CollisionPredictor::onTrackCreated(const int slot, const Track &track) {
+	this->objects_size_history[slot] = SizeHistory();
+	this->objects_ttc[slot] = std::numeric_limits<double>::infinity();
+}
 
-	return this->APX_THRESHOLD + this->MAX_DELTA * (1 - (speed / this->APX_SPEED));
+void CollisionPredictor::onTrackUpdated(const int slot, const Track &track, const long long time) {
+	if (track.box.width <= 0)
+		return;
+	SizeHistory &history = this->objects_size_history[slot];
+	history.add(track.box.width, time);
+	this->objects_ttc[slot] = history.fitTimeToCollision(this->slopes);
+}
+
+double CollisionPredictor::timeToCollision(const int slot) const {
+	return this->objects_ttc[slot];
 }
 
 /*
-** Return true if a collision is likely to happen
+** Return true if a collision is likely to happen: an object in front of the car would be reached sooner than
+** the driver can react at this speed
 */
-bool CollisionPredictor::alert(const std::map<int, cv::Rect2f> &objects, cv::Mat frame, double speed) {
-    int framewidth = frame.cols;
-	double apx_distance;
+bool CollisionPredictor::alert(const TrackStore &store, const cv::Mat &frame, double speed) const {
+	int framewidth = frame.cols;
 	int mid_x;
 
-	for (auto &[objectID, box]: objects) {
-		if (box.width > (0.9 * framewidth))
+	if (speed < 10)
+		return false;
+	for (int slot = 0; slot < TrackStore::CAPACITY; slot++) {
+		const Track &track = store[slot];
+		const cv::Rect2f &box = track.box;
+		if (!track.alive() || track.disappeared > 0 || box.width > (0.9 * framewidth))
 			continue;
 
 		mid_x = (int)(((box.x + box.width / 2) * 100) / framewidth);
-		apx_distance = ((box.width * 100.0) / framewidth);
-
-		this->add_size_to_history(objectID, apx_distance);
-
-		if (apx_distance > this->minimum_distance(speed) && mid_x > this->MIN_X && mid_x < this->MAX_X)
+		if (this->objects_ttc[slot] < this->alert_threshold(speed) && mid_x > this->MIN_X && mid_x < this->MAX_X)
 			return true;
 	}
 	return false;
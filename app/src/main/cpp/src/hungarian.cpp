@@ -0,0 +1,68 @@
+#include <limits>
+#include "hungarian.hpp"
+
+/*
+** The algorithm needs at most as many rows as columns, it runs on the transposed matrix when there are more rows
+*/
+void Hungarian::solve(const std::vector<double> &costs, int rows, int cols, double maxCost, std::vector<int> &rowMatch) {
+	bool transposed = rows > cols;
+	int n = transposed ? cols : rows;
+	int m = transposed ? rows : cols;
+	auto cost = [&](int row, int col) {
+		return transposed ? costs[col * cols + row] : costs[row * cols + col];
+	};
+
+	this->u.assign(n + 1, 0);
+	this->v.assign(m + 1, 0);
+	this->p.assign(m + 1, 0);
+	this->way.assign(m + 1, 0);
+	for (int i = 1; i <= n; i++) {
+		this->p[0] = i;
+		int j0 = 0;
+		this->minv.assign(m + 1, std::numeric_limits<double>::infinity());
+		this->used.assign(m + 1, false);
+		do {
+			this->used[j0] = true;
+			int i0 = this->p[j0];
+			int j1 = 0;
+			double delta = std::numeric_limits<double>::infinity();
+			for (int j = 1; j <= m; j++) {
+				if (this->used[j])
+					continue;
+				double current = cost(i0 - 1, j - 1) - this->u[i0] - this->v[j];
+				if (current < this->minv[j]) {
+					this->minv[j] = current;
+					this->way[j] = j0;
+				}
+				if (this->minv[j] < delta) {
+					delta = this->minv[j];
+					j1 = j;
+				}
+			}
+			for (int j = 0; j <= m; j++) {
+				if (this->used[j]) {
+					this->u[this->p[j]] += delta;
+					this->v[j] -= delta;
+				} else {
+					this->minv[j] -= delta;
+				}
+			}
+			j0 = j1;
+		} while (this->p[j0] != 0);
+		do {
+			int j1 = this->way[j0];
+			this->p[j0] = this->p[j1];
+			j0 = j1;
+		} while (j0 != 0);
+	}
+
+	rowMatch.assign(rows, -1);
+	for (int j = 1; j <= m; j++) {
+		if (this->p[j] == 0)
+			continue;
+		int row = transposed ? j - 1 : this->p[j] - 1;
+		int col = transposed ? this->p[j] - 1 : j - 1;
+		if (costs[row * cols + col] < maxCost)
+			rowMatch[row] = col;
+	}
+}
@@ -0,0 +1,61 @@
+#include <algorithm>
+#include "motionmodel.hpp"
+
+namespace {
+	// Variance of the rates changing between two frames, in (pixels per second)² per second.
+	constexpr float ACCELERATION_NOISE = 400;
+	// Variance of the measured boxes, in pixels².
+	constexpr float MEASUREMENT_NOISE = 4;
+	// Variance of the unknown rates of a new box.
+	constexpr float INITIAL_RATE_VARIANCE = 10000;
+}
+
+/*
+** The state is (x, y, width, height, vx, vy, vwidth, vheight), (x, y) being the centre of the box
+*/
+MotionModel::MotionModel() : filter(STATE_SIZE, MEASURE_SIZE, 0, CV_32F), measurement(MEASURE_SIZE, 1, CV_32F) {
+	cv::setIdentity(this->filter.transitionMatrix);
+	cv::setIdentity(this->filter.measurementMatrix);
+	cv::setIdentity(this->filter.measurementNoiseCov, cv::Scalar::all(MEASUREMENT_NOISE));
+}
+
+void MotionModel::init(const cv::Rect2f &box, long long time) {
+	this->filter.statePost = cv::Mat::zeros(STATE_SIZE, 1, CV_32F);
+	this->filter.statePost.at<float>(0) = box.x + box.width / 2;
+	this->filter.statePost.at<float>(1) = box.y + box.height / 2;
+	this->filter.statePost.at<float>(2) = box.width;
+	this->filter.statePost.at<float>(3) = box.height;
+	cv::setIdentity(this->filter.errorCovPost, cv::Scalar::all(MEASUREMENT_NOISE));
+	for (int i = MEASURE_SIZE; i < STATE_SIZE; i++)
+		this->filter.errorCovPost.at<float>(i, i) = INITIAL_RATE_VARIANCE;
+	this->lastTime = time;
+}
+
+cv::Rect2f MotionModel::predict(long long time) {
+	float dt = std::max(0LL, time - this->lastTime) / 1000.0f;
+	this->lastTime = std::max(this->lastTime, time);
+	this->filter.processNoiseCov.setTo(0);
+	for (int i = 0; i < MEASURE_SIZE; i++) {
+		this->filter.transitionMatrix.at<float>(i, i + MEASURE_SIZE) = dt;
+		// Discrete white noise acceleration, see "Estimation with Applications to Tracking and Navigation".
+		this->filter.processNoiseCov.at<float>(i, i) = ACCELERATION_NOISE * dt * dt * dt / 3;
+		this->filter.processNoiseCov.at<float>(i, i + MEASURE_SIZE) = ACCELERATION_NOISE * dt * dt / 2;
+		this->filter.processNoiseCov.at<float>(i + MEASURE_SIZE, i) = ACCELERATION_NOISE * dt * dt / 2;
+		this->filter.processNoiseCov.at<float>(i + MEASURE_SIZE, i + MEASURE_SIZE) = ACCELERATION_NOISE * dt;
+	}
+	// predict also copies the prediction to the corrected state, for the next prediction without correction.
+	const cv::Mat &state = this->filter.predict();
+
+	float width = std::max(1.0f, state.at<float>(2));
+	float height = std::max(1.0f, state.at<float>(3));
+	return cv::Rect2f(state.at<float>(0) - width / 2, state.at<float>(1) - height / 2, width, height);
+}
+
+void MotionModel::correct(const cv::Rect2f &box, long long time) {
+	this->predict(time);
+	this->measurement.at<float>(0) = box.x + box.width / 2;
+	this->measurement.at<float>(1) = box.y + box.height / 2;
+	this->measurement.at<float>(2) = box.width;
+	this->measurement.at<float>(3) = box.height;
+	this->filter.correct(this->measurement);
+}
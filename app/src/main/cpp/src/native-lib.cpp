@@ -2,88 +2,164 @@
 #include "Tracker.hpp"
 
 #include <android/log.h>
+#include <algorithm>
 
-extern "C" JNIEXPORT jlong JNICALL
-Java_sharpeye_sharpeye_tracking_Tracker_createTracker(JNIEnv *env, jobject obj) {
-    return reinterpret_cast<jlong>(new Tracker());
-}
+/*
+ * Boxes cross JNI as flat (x, y, width, height) floats in a direct FloatBuffer owned by the Java
+ * Tracker, with the object ids in an int[] of the same capacity. Nothing is allocated on the Java
+ * heap and no class or method is looked up per call: the natives are registered once in JNI_OnLoad.
+ * The frame comes as the RGBA pixels of the bitmap in a direct ByteBuffer, also owned by the Java Tracker.
+ */
 
-extern "C" JNIEXPORT void JNICALL
-Java_sharpeye_sharpeye_tracking_Tracker_deleteTracker(JNIEnv *env, jobject obj, jlong ptr) {
-    auto *tracker = reinterpret_cast<Tracker*>(ptr);
-    delete tracker;
-}
+namespace {
+
+    constexpr int BOX_FLOATS = 4;
+
+    void readBoxes(JNIEnv *env, jobject buffer, jint count, std::vector<cv::Rect2f> &boxes) {
+        auto const *in = static_cast<float const *>(env->GetDirectBufferAddress(buffer));
+        auto capacity = static_cast<jint>(env->GetDirectBufferCapacity(buffer) / BOX_FLOATS);
 
-std::vector<cv::Rect2f> arrayListToRectVector(JNIEnv *env, jobject const &javaBoxes) {
-
-    std::vector<cv::Rect2f> boxes;
-    jclass arrayListClass = env->FindClass("java/util/ArrayList");
-    jmethodID getMethod = env->GetMethodID(arrayListClass, "get", "(I)Ljava/lang/Object;");
-    jmethodID sizeMethod = env->GetMethodID(arrayListClass, "size", "()I");
-    jclass rectClass = env->FindClass("sharpeye/sharpeye/tracking/Tracker$Rect2f");
-    jfieldID rectX = env->GetFieldID(rectClass, "x", "F");
-    jfieldID rectY = env->GetFieldID(rectClass, "y", "F");
-    jfieldID rectWidth = env->GetFieldID(rectClass, "width", "F");
-    jfieldID rectHeight = env->GetFieldID(rectClass, "height", "F");
-    int size = static_cast<int>(env->CallIntMethod(javaBoxes, sizeMethod));
-    for (int i = 0; i < size; ++i) {
-        jobject rectObject = env->CallObjectMethod(javaBoxes, getMethod, i);
-        float x = env->GetFloatField(rectObject, rectX);
-        float y = env->GetFloatField(rectObject, rectY);
-        float width = env->GetFloatField(rectObject, rectWidth);
-        float height = env->GetFloatField(rectObject, rectHeight);
-        boxes.emplace_back(x, y, width, height);
+        boxes.clear();
+        if (in == nullptr)
+            return;
+        count = std::min(count, capacity);
+        boxes.reserve(static_cast<size_t>(count));
+        for (jint i = 0; i < count; ++i) {
+            boxes.emplace_back(in[i * BOX_FLOATS], in[i * BOX_FLOATS + 1],
+                               in[i * BOX_FLOATS + 2], in[i * BOX_FLOATS + 3]);
+        }
     }
-    env->DeleteLocalRef(arrayListClass);
-    env->DeleteLocalRef(rectClass);
-    return boxes;
-}
 
-jobject rectMapToHashMap(JNIEnv *env, std::map<int, cv::Rect2f> const &boxes) {
-    jclass hashMapClass = env->FindClass("java/util/HashMap");
-    jmethodID hashMapConstructor = env->GetMethodID(hashMapClass, "<init>", "()V");
-    jobject hashMapObject = env->NewObject(hashMapClass, hashMapConstructor, "");
-    jmethodID putMethod = env->GetMethodID(hashMapClass, "put", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;");
-    jclass integerClass = env->FindClass("java/lang/Integer");
-    jmethodID integerConstructor = env->GetMethodID(integerClass, "<init>", "(I)V");
-    jclass rectClass = env->FindClass("sharpeye/sharpeye/tracking/Tracker$Rect2f");
-    jmethodID rectConstructor = env->GetMethodID(rectClass, "<init>", "(FFFF)V");
-    for (auto const &it : boxes) {
-        jobject integerObject = env->NewObject(integerClass, integerConstructor, it.first);
-        jobject rectObject = env->NewObject(rectClass, rectConstructor,
-                                            it.second.x, it.second.y,
-                                            it.second.width, it.second.height);
-        env->CallObjectMethod(hashMapObject, putMethod, integerObject, rectObject);
+    /**
+     * Writes as many objects as the buffer and the id array can hold.
+     * @return the number of objects written
+     */
+    jint writeBoxes(JNIEnv *env, std::map<int, cv::Rect2f> const &objects, jobject buffer, jintArray ids) {
+        auto *out = static_cast<float *>(env->GetDirectBufferAddress(buffer));
+        if (out == nullptr)
+            return 0;
+        jint capacity = std::min(static_cast<jint>(env->GetDirectBufferCapacity(buffer) / BOX_FLOATS),
+                                 env->GetArrayLength(ids));
+        if (static_cast<size_t>(capacity) < objects.size()) {
+            __android_log_print(ANDROID_LOG_WARN, "JNIBoxes", "%zu tracked objects, only %d returned",
+                                objects.size(), capacity);
+        }
+
+        auto *idsOut = static_cast<jint *>(env->GetPrimitiveArrayCritical(ids, nullptr));
+        if (idsOut == nullptr)
+            return 0;
+        jint count = 0;
+        for (auto const &it : objects) {
+            if (count >= capacity)
+                break;
+            idsOut[count] = it.first;
+            out[count * BOX_FLOATS] = it.second.x;
+            out[count * BOX_FLOATS + 1] = it.second.y;
+            out[count * BOX_FLOATS + 2] = it.second.width;
+            out[count * BOX_FLOATS + 3] = it.second.height;
+            ++count;
+        }
+        env->ReleasePrimitiveArrayCritical(ids, idsOut, 0);
+        return count;
     }
-    env->DeleteLocalRef(hashMapClass);
-    env->DeleteLocalRef(integerClass);
-    env->DeleteLocalRef(rectClass);
-    return hashMapObject;
-}
 
-extern "C" JNIEXPORT jobject JNICALL
-Java_sharpeye_sharpeye_tracking_Tracker_addBoxes(JNIEnv *env, jobject obj,
-        jlong trackerAddr, jlong frameAddr, jobject javaBoxes) {
-    auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
-    auto *frame = reinterpret_cast<cv::Mat*>(frameAddr);
-    std::vector<cv::Rect2f> boxes = arrayListToRectVector(env, javaBoxes);
-    std::map<int, cv::Rect2f> boxesAndIDs = tracker->addBoxes(*frame, boxes);
-    jobject hashMap = rectMapToHashMap(env, boxesAndIDs);
-    return hashMap;
-}
+    /**
+     * @return the grayscale frame of the tracker, or nullptr if the buffer cannot hold a width x height RGBA frame
+     */
+    cv::Mat const *loadFrame(JNIEnv *env, Tracker *tracker, jobject frameBuffer, jint width, jint height) {
+        auto const *rgba = static_cast<unsigned char const *>(env->GetDirectBufferAddress(frameBuffer));
+        if (rgba == nullptr || env->GetDirectBufferCapacity(frameBuffer) < static_cast<jlong>(width) * height * 4) {
+            __android_log_print(ANDROID_LOG_ERROR, "JNIBoxes", "Invalid frame buffer for %dx%d", width, height);
+            return nullptr;
+        }
+        return &tracker->loadFrame(rgba, width, height);
+    }
+
+    jlong JNICALL createTracker(JNIEnv *env, jobject obj) {
+        return reinterpret_cast<jlong>(new Tracker());
+    }
+
+    void JNICALL deleteTracker(JNIEnv *env, jobject obj, jlong ptr) {
+        auto *tracker = reinterpret_cast<Tracker*>(ptr);
+        delete tracker;
+    }
+
+    jint JNICALL addBoxes(JNIEnv *env, jobject obj, jlong trackerAddr, jobject frameBuffer, jint width, jint height,
+                          jlong time, jobject boxBuffer, jint count, jintArray ids) {
+        auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
+        cv::Mat const *frame = loadFrame(env, tracker, frameBuffer, width, height);
+        if (frame == nullptr)
+            return 0;
+        std::vector<cv::Rect2f> boxes;
+        readBoxes(env, boxBuffer, count, boxes);
+        std::map<int, cv::Rect2f> boxesAndIDs = tracker->addBoxes(*frame, boxes, time);
+        return writeBoxes(env, boxesAndIDs, boxBuffer, ids);
+    }
+
+    jint JNICALL updateBoxes(JNIEnv *env, jobject obj, jlong trackerAddr, jobject frameBuffer, jint width, jint height,
+                             jdouble speed, jlong time, jobject boxBuffer, jintArray ids) {
+        auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
+        cv::Mat const *frame = loadFrame(env, tracker, frameBuffer, width, height);
+        if (frame == nullptr)
+            return 0;
+        std::map<int, cv::Rect2f> boxes = tracker->updateBoxes(*frame, speed, time);
+        return writeBoxes(env, boxes, boxBuffer, ids);
+    }
+
+    jint JNICALL predictBoxes(JNIEnv *env, jobject obj, jlong trackerAddr, jlong time, jobject boxBuffer, jintArray ids) {
+        auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
+        std::map<int, cv::Rect2f> boxes = tracker->predictBoxes(time);
+        return writeBoxes(env, boxes, boxBuffer, ids);
+    }
+
+    void JNICALL setStrategy(JNIEnv *env, jobject obj, jlong trackerAddr, jint strategy) {
+        auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
+        if (strategy < 0 || strategy >= TRACKER_STRATEGY_COUNT) {
+            __android_log_print(ANDROID_LOG_WARN, "JNIBoxes", "Unknown tracker strategy %d", strategy);
+            return;
+        }
+        tracker->setStrategy(static_cast<TrackerStrategy>(strategy));
+    }
+
+    jboolean JNICALL isDangerous(JNIEnv *env, jobject obj, jlong trackerAddr) {
+        auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
+        return static_cast<jboolean>(tracker->isDangerous());
+    }
+
+    JNINativeMethod const trackerMethods[] = {
+            {const_cast<char *>("createTracker"), const_cast<char *>("()J"),
+                    reinterpret_cast<void *>(createTracker)},
+            {const_cast<char *>("deleteTracker"), const_cast<char *>("(J)V"),
+                    reinterpret_cast<void *>(deleteTracker)},
+            {const_cast<char *>("addBoxes"), const_cast<char *>("(JLjava/nio/ByteBuffer;IIJLjava/nio/FloatBuffer;I[I)I"),
+                    reinterpret_cast<void *>(addBoxes)},
+            {const_cast<char *>("updateBoxes"), const_cast<char *>("(JLjava/nio/ByteBuffer;IIDJLjava/nio/FloatBuffer;[I)I"),
+                    reinterpret_cast<void *>(updateBoxes)},
+            {const_cast<char *>("predictBoxes"), const_cast<char *>("(JJLjava/nio/FloatBuffer;[I)I"),
+                    reinterpret_cast<void *>(predictBoxes)},
+            {const_cast<char *>("setStrategy"), const_cast<char *>("(JI)V"),
+                    reinterpret_cast<void *>(setStrategy)},
+            {const_cast<char *>("isDangerous"), const_cast<char *>("(J)Z"),
+                    reinterpret_cast<void *>(isDangerous)},
+    };
 
-extern "C" JNIEXPORT jobject JNICALL
-Java_sharpeye_sharpeye_tracking_Tracker_updateBoxes(JNIEnv *env, jobject obj,
-        jlong trackerAddr, jlong frameAddr, jdouble speed) {
-    auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
-    auto *frame = reinterpret_cast<cv::Mat*>(frameAddr);
-    std::map<int, cv::Rect2f> boxes = tracker->updateBoxes(*frame, speed);
-    jobject hashMap = rectMapToHashMap(env, boxes);
-    return hashMap;
 }
 
-extern "C" JNIEXPORT jboolean JNICALL
-Java_sharpeye_sharpeye_tracking_Tracker_isDangerous(JNIEnv *env, jobject obj, jlong trackerAddr) {
-    auto *tracker = reinterpret_cast<Tracker*>(trackerAddr);
-    return static_cast<jboolean>(tracker->isDangerous());
-}
\ No newline at end of file
+extern "C" JNIEXPORT jint JNICALL
+JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env = nullptr;
+    if (vm->GetEnv(reinterpret_cast<void **>(&env), JNI_VERSION_1_6) != JNI_OK)
+        return JNI_ERR;
+
+    jclass trackerClass = env->FindClass("sharpeye/sharpeye/tracking/Tracker");
+    if (trackerClass == nullptr)
+        return JNI_ERR;
+    jint result = env->RegisterNatives(trackerClass, trackerMethods,
+                                       sizeof(trackerMethods) / sizeof(trackerMethods[0]));
+    env->DeleteLocalRef(trackerClass);
+    if (result != JNI_OK) {
+        __android_log_print(ANDROID_LOG_ERROR, "JNIBoxes", "Cannot register the tracker natives");
+        return JNI_ERR;
+    }
+    return JNI_VERSION_1_6;
+}
@@ -0,0 +1,167 @@
+#include <algorithm>
+#include <cmath>
+#include <fstream>
+#include <string>
+#include <opencv2/tracking.hpp>
+#include <opencv2/video/tracking.hpp>
+#include "objecttracker.hpp"
+
+namespace {
+
+	/*
+	** Wraps the trackers of the OpenCV tracking module, they all accept grayscale frames.
+	*/
+	class OpenCVObjectTracker : public ObjectTracker {
+	public:
+		explicit OpenCVObjectTracker(cv::Ptr<cv::Tracker> _tracker) : tracker(std::move(_tracker)) {
+		}
+
+		bool init(const cv::Mat &frame, const cv::Rect2d &box) override {
+			return this->tracker->init(frame, box);
+		}
+
+		bool update(const cv::Mat &, const cv::Mat &frame, cv::Rect2d &box) override {
+			return this->tracker->update(frame, box);
+		}
+
+	private:
+		cv::Ptr<cv::Tracker> tracker;
+	};
+
+	/*
+	** Maximum frequency of a core in kHz, 0 when the system does not tell
+	*/
+	long maxFrequency(int core) {
+		std::ifstream file("/sys/devices/system/cpu/cpu" + std::to_string(core) + "/cpufreq/cpuinfo_max_freq");
+		long frequency = 0;
+		if (!(file >> frequency))
+			return 0;
+		return frequency;
+	}
+
+	float median(std::vector<float> &values) {
+		auto middle = values.begin() + values.size() / 2;
+		std::nth_element(values.begin(), middle, values.end());
+		return *middle;
+	}
+}
+
+char const *trackerStrategyName(TrackerStrategy strategy) {
+	switch (strategy) {
+		case TrackerStrategy::MOSSE:
+			return "MOSSE";
+		case TrackerStrategy::KCF:
+			return "KCF";
+		case TrackerStrategy::CSRT:
+			return "CSRT";
+		case TrackerStrategy::MEDIAN_FLOW:
+			return "MedianFlow";
+		case TrackerStrategy::OPTICAL_FLOW:
+			return "OpticalFlow";
+	}
+	return "Unknown";
+}
+
+std::unique_ptr<ObjectTracker> ObjectTracker::create(TrackerStrategy strategy) {
+	switch (strategy) {
+		case TrackerStrategy::KCF:
+			return std::unique_ptr<ObjectTracker>(new OpenCVObjectTracker(cv::TrackerKCF::create()));
+		case TrackerStrategy::CSRT:
+			return std::unique_ptr<ObjectTracker>(new OpenCVObjectTracker(cv::TrackerCSRT::create()));
+		case TrackerStrategy::MEDIAN_FLOW:
+			return std::unique_ptr<ObjectTracker>(new OpenCVObjectTracker(cv::TrackerMedianFlow::create()));
+		case TrackerStrategy::OPTICAL_FLOW:
+			return std::unique_ptr<ObjectTracker>(new OpticalFlowTracker());
+		case TrackerStrategy::MOSSE:
+		default:
+			return std::unique_ptr<ObjectTracker>(new OpenCVObjectTracker(cv::TrackerMOSSE::create()));
+	}
+}
+
+int bigCoreCount() {
+	int cores = cv::getNumberOfCPUs();
+	std::vector<long> frequencies;
+	for (int i = 0; i < cores; i++)
+		frequencies.push_back(maxFrequency(i));
+	long highest = *std::max_element(frequencies.begin(), frequencies.end());
+	if (highest <= 0)
+		return cores;
+	return static_cast<int>(std::count(frequencies.begin(), frequencies.end(), highest));
+}
+
+void updateTrackers(std::vector<std::unique_ptr<ObjectTracker>> &trackers, std::vector<cv::Rect2d> &boxes,
+					std::vector<unsigned char> &found, const cv::Mat &previous, const cv::Mat &frame, int threads) {
+	found.assign(trackers.size(), 0);
+	auto update = [&](const cv::Range &range) {
+		for (int i = range.start; i < range.end; i++)
+			found[i] = trackers[i]->update(previous, frame, boxes[i]);
+	};
+	int stripes = std::min(static_cast<int>(trackers.size()), threads);
+	if (stripes <= 1) {
+		update(cv::Range(0, static_cast<int>(trackers.size())));
+		return;
+	}
+	// Each stripe only touches the trackers and boxes of its range.
+	cv::parallel_for_(cv::Range(0, static_cast<int>(trackers.size())), update, stripes);
+}
+
+/*
+** Spreads the points over the box, away from its borders which are mostly background
+*/
+void OpticalFlowTracker::fill_grid(const cv::Rect2d &box) {
+	this->points.clear();
+	for (int j = 0; j < GRID_SIZE; j++) {
+		for (int i = 0; i < GRID_SIZE; i++) {
+			this->points.emplace_back(box.x + box.width * (i + 1) / (GRID_SIZE + 1),
+									  box.y + box.height * (j + 1) / (GRID_SIZE + 1));
+		}
+	}
+}
+
+bool OpticalFlowTracker::init(const cv::Mat &frame, const cv::Rect2d &box) {
+	if (box.width < 1 || box.height < 1)
+		return false;
+	fill_grid(box);
+	return true;
+}
+
+/*
+** The points only follow the box, they are seeded again on the detection as a new tracker would be
+*/
+bool OpticalFlowTracker::relocate(const cv::Mat &frame, const cv::Rect2d &box) {
+	return init(frame, box);
+}
+
+bool OpticalFlowTracker::update(const cv::Mat &previous, const cv::Mat &frame, cv::Rect2d &box) {
+	if (previous.empty() || previous.size() != frame.size())
+		return false;
+	cv::calcOpticalFlowPyrLK(previous, frame, this->points, this->nextPoints, this->status, this->errors,
+							 cv::Size(15, 15), 2);
+
+	cv::Point2f const center(static_cast<float>(box.x + box.width / 2), static_cast<float>(box.y + box.height / 2));
+	this->dx.clear();
+	this->dy.clear();
+	this->scales.clear();
+	for (size_t i = 0; i < this->points.size(); i++) {
+		if (!this->status[i])
+			continue;
+		this->dx.push_back(this->nextPoints[i].x - this->points[i].x);
+		this->dy.push_back(this->nextPoints[i].y - this->points[i].y);
+		float before = static_cast<float>(cv::norm(this->points[i] - center));
+		if (before > 1)
+			this->scales.push_back(static_cast<float>(cv::norm(this->nextPoints[i] - center - cv::Point2f(this->dx.back(), this->dy.back()))) / before);
+	}
+	if (this->dx.size() < MIN_POINTS)
+		return false;
+
+	float moveX = median(this->dx);
+	float moveY = median(this->dy);
+	float scale = this->scales.empty() ? 1 : median(this->scales);
+	double width = box.width * scale;
+	double height = box.height * scale;
+	box = cv::Rect2d(center.x + moveX - width / 2, center.y + moveY - height / 2, width, height);
+	if ((box & cv::Rect2d(0, 0, frame.cols, frame.rows)).area() <= 0)
+		return false;
+	fill_grid(box);
+	return true;
+}
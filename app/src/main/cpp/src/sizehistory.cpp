@@ -0,0 +1,43 @@
+#include <algorithm>
+#include <cmath>
+#include <limits>
+#include "sizehistory.hpp"
+
+void SizeHistory::add(const double width, const long long time) {
+	this->logWidths[this->next] = std::log(width);
+	this->times[this->next] = time;
+	this->next = (this->next + 1) % SIZE;
+	this->count = std::min(this->count + 1, SIZE);
+}
+
+/*
+** The width of an object getting closer grows as 1 / distance, so the log of the width grows at the rate
+** closing speed / distance, the inverse of the time to collision. That rate is the Theil-Sen slope of the log
+** widths over time, the median of the slopes of every pair of samples, which ignores a few wrong boxes.
+*/
+double SizeHistory::fitTimeToCollision(Slopes &slopes) const {
+	if (this->count < MIN_SAMPLES)
+		return std::numeric_limits<double>::infinity();
+
+	size_t pairs = 0;
+	long long first = std::numeric_limits<long long>::max();
+	long long last = std::numeric_limits<long long>::min();
+	for (int i = 0; i < this->count; i++) {
+		first = std::min(first, this->times[i]);
+		last = std::max(last, this->times[i]);
+		for (int j = i + 1; j < this->count; j++) {
+			long long dt = this->times[j] - this->times[i];
+			if (dt != 0)
+				slopes[pairs++] = (this->logWidths[j] - this->logWidths[i]) * 1000.0 / dt;
+		}
+	}
+	if (last - first < MIN_SPAN_MS || pairs == 0)
+		return std::numeric_limits<double>::infinity();
+
+	auto middle = slopes.begin() + pairs / 2;
+	std::nth_element(slopes.begin(), middle, slopes.begin() + pairs);
+	double rate = *middle;
+	if (rate <= 0)
+		return std::numeric_limits<double>::infinity();
+	return 1 / rate;
+}
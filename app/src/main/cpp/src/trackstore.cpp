@@ -0,0 +1,74 @@
+#include "trackstore.hpp"
+
+TrackStore::TrackStore() {
+	this->freeSlots.reserve(CAPACITY);
+	// Popped from the back, the lowest slots are used first.
+	for (int slot = CAPACITY - 1; slot >= 0; slot--)
+		this->freeSlots.push_back(slot);
+}
+
+void TrackStore::addListener(TrackListener *listener) {
+	this->listeners.push_back(listener);
+}
+
+bool TrackStore::isUsed(const int id) const {
+	for (const Track &track: this->tracks) {
+		if (track.id == id)
+			return true;
+	}
+	return false;
+}
+
+int TrackStore::create(const cv::Point2d &centroid, const cv::Rect2f &box, long long time) {
+	if (this->freeSlots.empty())
+		return -1;
+	int slot = this->freeSlots.back();
+	this->freeSlots.pop_back();
+
+	while (this->isUsed(this->nextObjectID))
+		this->nextObjectID = (this->nextObjectID + 1) % MAX_ID;
+	Track &track = this->tracks[slot];
+	track.id = this->nextObjectID;
+	this->nextObjectID = (this->nextObjectID + 1) % MAX_ID;
+	track.centroid = centroid;
+	track.box = box;
+	track.disappeared = 0;
+	track.motion.init(box, time);
+
+	for (TrackListener *listener: this->listeners)
+		listener->onTrackCreated(slot, track);
+	for (TrackListener *listener: this->listeners)
+		listener->onTrackUpdated(slot, track, time);
+	return slot;
+}
+
+void TrackStore::update(int slot, const cv::Point2d &centroid, const cv::Rect2f &box, long long time) {
+	Track &track = this->tracks[slot];
+	track.centroid = centroid;
+	track.box = box;
+	track.disappeared = 0;
+	track.motion.correct(box, time);
+	for (TrackListener *listener: this->listeners)
+		listener->onTrackUpdated(slot, track, time);
+}
+
+void TrackStore::miss(int slot, int maxMisses) {
+	Track &track = this->tracks[slot];
+	++track.disappeared;
+	if (track.disappeared == 1) {
+		for (TrackListener *listener: this->listeners)
+			listener->onTrackLost(slot, track);
+	}
+	if (track.disappeared > maxMisses)
+		this->remove(slot);
+}
+
+void TrackStore::remove(int slot) {
+	Track &track = this->tracks[slot];
+	if (!track.alive())
+		return;
+	for (TrackListener *listener: this->listeners)
+		listener->onTrackDeleted(slot, track);
+	track.id = -1;
+	this->freeSlots.push_back(slot);
+}
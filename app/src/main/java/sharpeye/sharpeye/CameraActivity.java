@@ -34,11 +34,14 @@ import android.widget.*;
 import com.crashlytics.android.Crashlytics;
 import io.fabric.sdk.android.Fabric;
 import sharpeye.sharpeye.data.SharedPreferencesHelper;
-import sharpeye.sharpeye.utils.ImageUtils;
+import sharpeye.sharpeye.metrics.PipelineMetrics;
 import sharpeye.sharpeye.utils.Logger;
 import sharpeye.sharpeye.tflite.FrameBuffer;
+import sharpeye.sharpeye.tflite.FramePool;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 
 public abstract class CameraActivity extends AppCompatActivity
     implements OnImageAvailableListener, NavigationView.OnNavigationItemSelectedListener, View.OnClickListener {
@@ -53,29 +56,24 @@ public abstract class CameraActivity extends AppCompatActivity
 
   private boolean debug = false;
 
-  private Handler handler;
-  private HandlerThread handlerThread;
-  private boolean isProcessingFrame = false;
-  private byte[][] yuvBytes = new byte[3][];
-  private int[] rgbBytes = null;
-  private int[] rgbBytesBuffer = null;
-  private int yRowStride;
+  // Slots needed on top of the history and of the frames held by processFrame:
+  // the detection frame of the history and the one being copied.
+  private static final int FRAME_POOL_EXTRA_SLOTS = 2;
+  private FramePool framePool = null;
+  private final PipelineMetrics metrics = PipelineMetrics.getInstance();
 
   protected int previewWidth = 0;
   protected int previewHeight = 0;
 
-  private Runnable postInferenceCallback;
-  private Runnable imageConverter;
-
   protected static Size DESIRED_PREVIEW_SIZE = new Size(640, 480);
 
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
   private BottomSheetBehavior sheetBehavior;
 
-  protected TextView frameValueTextView, cropValueTextView, inferenceTimeTextView;
+  protected TextView frameValueTextView, cropValueTextView, inferenceTimeTextView, metricsTextView;
   protected ImageView bottomSheetArrowImageView;
-  private TextView threadsTextView;
+  private TextView threadsTextView, signThreadsTextView;
 
   protected FrameBuffer frameBuffer;
 
@@ -121,6 +119,9 @@ public abstract class CameraActivity extends AppCompatActivity
     threadsTextView = findViewById(R.id.threads);
     ImageView plusImageView = findViewById(R.id.plus);
     ImageView minusImageView = findViewById(R.id.minus);
+    signThreadsTextView = findViewById(R.id.sign_threads);
+    ImageView signPlusImageView = findViewById(R.id.sign_plus);
+    ImageView signMinusImageView = findViewById(R.id.sign_minus);
     bottomSheetLayout = findViewById(R.id.bottom_sheet_layout);
     gestureLayout = findViewById(R.id.gesture_layout);
     sheetBehavior = BottomSheetBehavior.from(bottomSheetLayout);
@@ -173,79 +174,49 @@ public abstract class CameraActivity extends AppCompatActivity
     frameValueTextView = findViewById(R.id.frame_info);
     cropValueTextView = findViewById(R.id.crop_info);
     inferenceTimeTextView = findViewById(R.id.inference_info);
+    metricsTextView = findViewById(R.id.metrics_info);
 
     plusImageView.setOnClickListener(this);
     minusImageView.setOnClickListener(this);
+    signPlusImageView.setOnClickListener(this);
+    signMinusImageView.setOnClickListener(this);
     bottomSheetLayout.setVisibility(((debug) ? View.VISIBLE : View.INVISIBLE));
   }
 
-  protected int[] getRgbBytes() {
-    imageConverter.run();
-    return rgbBytes;
-  }
-
   public boolean imageAvailableProcess(final Image image) {
     if (image == null) {
       return false;
     }
 
-    final Plane[] planes = image.getPlanes();
-    fillBytes(planes, yuvBytes);
-    yRowStride = planes[0].getRowStride();
-    final int uvRowStride = planes[1].getRowStride();
-    final int uvPixelStride = planes[1].getPixelStride();
-    image.close();
+    final long frameTime = System.currentTimeMillis();
+    final boolean buffering = frameBuffer.isBufferingDue(frameTime);
+    metrics.increment(PipelineMetrics.Counter.FRAMES_RECEIVED);
 
-    ImageUtils.convertYUV420ToARGB8888(
-            yuvBytes[0],
-            yuvBytes[1],
-            yuvBytes[2],
+    final FramePool.Slot slot = framePool.acquire();
+    if (slot == null) {
+      LOGGER.w("Frame pool exhausted, dropping frame");
+      metrics.increment(PipelineMetrics.Counter.DROPPED_POOL_EXHAUSTED);
+      image.close();
+      return false;
+    }
+
+    final Plane[] planes = image.getPlanes();
+    fillBytes(planes, slot);
+    slot.setLayout(
             previewWidth,
             previewHeight,
-            yRowStride,
-            uvRowStride,
-            uvPixelStride,
-            rgbBytesBuffer);
-
-    long frameTime = System.currentTimeMillis();
-    frameBuffer.addFrame(rgbBytesBuffer.clone(), frameTime);
+            planes[0].getRowStride(),
+            planes[1].getRowStride(),
+            planes[1].getPixelStride());
+    slot.timestamp = frameTime;
+    image.close();
 
-    if (isProcessingFrame) {
-      return false;
+    if (buffering) {
+      frameBuffer.addFrame(slot);
     }
-    isProcessingFrame = true;
+
     Trace.beginSection("imageAvailable");
-    runInBackground(new Runnable() {
-      @Override
-      public void run() {
-        imageConverter =
-                new Runnable() {
-                  @Override
-                  public void run() {
-                    ImageUtils.convertYUV420ToARGB8888(
-                            yuvBytes[0],
-                            yuvBytes[1],
-                            yuvBytes[2],
-                            previewWidth,
-                            previewHeight,
-                            yRowStride,
-                            uvRowStride,
-                            uvPixelStride,
-                            rgbBytes);
-                            frameBuffer.setDetectionFrame(rgbBytes.clone(), System.currentTimeMillis());
-                  }
-                };
-
-        postInferenceCallback =
-                new Runnable() {
-                  @Override
-                  public void run() {
-                    isProcessingFrame = false;
-                  }
-                };
-        processImage();
-      }
-    });
+    processFrame(slot);
 
     return true;
   }
@@ -259,12 +230,8 @@ public abstract class CameraActivity extends AppCompatActivity
     if (previewWidth == 0 || previewHeight == 0) {
       return;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
-    }
-
-    if (rgbBytesBuffer == null) {
-      rgbBytesBuffer = new int[previewWidth * previewHeight];
+    if (framePool == null) {
+      framePool = new FramePool(frameBuffer.getCapacity() + FRAME_POOL_EXTRA_SLOTS + getFramesInFlight());
     }
     try {
       final Image image = reader.acquireLatestImage();
@@ -299,16 +266,15 @@ public abstract class CameraActivity extends AppCompatActivity
       navigationView.setItemTextColor(getColorStateList(R.color.colorText));
     }
     super.onResume();
-
-    handlerThread = new HandlerThread("inference");
-    handlerThread.start();
-    handler = new Handler(handlerThread.getLooper());
   }
 
   @Override
   public synchronized void onPause() {
     LOGGER.d("onPause " + this);
 
+    if (debug) {
+      exportMetrics();
+    }
     super.onPause();
   }
 
@@ -326,23 +292,9 @@ public abstract class CameraActivity extends AppCompatActivity
       //finish();
     }
 
-    handlerThread.quitSafely();
-    try {
-      handlerThread.join();
-      handlerThread = null;
-      handler = null;
-    } catch (final InterruptedException e) {
-      LOGGER.e(e, "Exception!");
-    }
     super.onDestroy();
   }
 
-  protected synchronized void runInBackground(final Runnable r) {
-    if (handler != null) {
-      handler.post(r);
-    }
-  }
-
   @Override
   public void onRequestPermissionsResult(
           final int requestCode, final String[] permissions, final int[] grantResults) {
@@ -436,16 +388,11 @@ public abstract class CameraActivity extends AppCompatActivity
     Log.e("CameraActivity", "PreviewTexturePlaced");
   }
 
-  protected void fillBytes(final Plane[] planes, final byte[][] yuvBytes) {
+  protected void fillBytes(final Plane[] planes, final FramePool.Slot slot) {
     // Because of the variable row stride it's not possible to know in
     // advance the actual necessary dimensions of the yuv planes.
     for (int i = 0; i < planes.length; ++i) {
-      final ByteBuffer buffer = planes[i].getBuffer();
-      if (yuvBytes[i] == null) {
-        LOGGER.d("Initializing buffer %d at size %d", i, buffer.capacity());
-        yuvBytes[i] = new byte[buffer.capacity()];
-      }
-      buffer.get(yuvBytes[i]);
+      slot.copyPlane(i, planes[i].getBuffer());
     }
   }
 
@@ -473,12 +420,6 @@ public abstract class CameraActivity extends AppCompatActivity
     return super.onKeyDown(keyCode, event);
   }
 
-  protected void readyForNextImage() {
-    if (postInferenceCallback != null) {
-      postInferenceCallback.run();
-    }
-  }
-
   protected int getScreenOrientation() {
     switch (getWindowManager().getDefaultDisplay().getRotation()) {
       case Surface.ROTATION_270:
@@ -495,24 +436,32 @@ public abstract class CameraActivity extends AppCompatActivity
   @Override
   public void onClick(View v) {
     if (v.getId() == R.id.plus) {
-      String threads = threadsTextView.getText().toString().trim();
-      int numThreads = Integer.parseInt(threads);
-      if (numThreads >= 9) return;
-      numThreads++;
-      threadsTextView.setText(String.valueOf(numThreads));
-      setNumThreads(numThreads);
+      setNumThreads(changeThreads(threadsTextView, 1));
     } else if (v.getId() == R.id.minus) {
-      String threads = threadsTextView.getText().toString().trim();
-      int numThreads = Integer.parseInt(threads);
-      if (numThreads == 1) {
-        return;
-      }
-      numThreads--;
-      threadsTextView.setText(String.valueOf(numThreads));
-      setNumThreads(numThreads);
+      setNumThreads(changeThreads(threadsTextView, -1));
+    } else if (v.getId() == R.id.sign_plus) {
+      setSignNumThreads(changeThreads(signThreadsTextView, 1));
+    } else if (v.getId() == R.id.sign_minus) {
+      setSignNumThreads(changeThreads(signThreadsTextView, -1));
     }
   }
 
+  /**
+   * Adds delta to the thread count shown by a view, between 1 and 9.
+   * @return the new thread count
+   */
+  private int changeThreads(TextView view, int delta) {
+    int numThreads = Integer.parseInt(view.getText().toString().trim());
+    numThreads = Math.max(1, Math.min(9, numThreads + delta));
+    view.setText(String.valueOf(numThreads));
+    return (numThreads);
+  }
+
+  protected void showThreads(int dangerThreads, int signThreads) {
+    threadsTextView.setText(String.valueOf(dangerThreads));
+    signThreadsTextView.setText(String.valueOf(signThreads));
+  }
+
   protected void showFrameInfo(String frameInfo) {
     frameValueTextView.setText(frameInfo);
   }
@@ -525,6 +474,24 @@ public abstract class CameraActivity extends AppCompatActivity
     inferenceTimeTextView.setText(inferenceTime);
   }
 
+  protected void showMetrics(String metrics) {
+    metricsTextView.setText(metrics);
+  }
+
+  /**
+   * Saves the pipeline metrics since the last export as JSON in the app external files directory,
+   * for offline analysis.
+   */
+  private void exportMetrics() {
+    final File file = new File(getExternalFilesDir(null), "metrics_" + System.currentTimeMillis() + ".json");
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      out.write(metrics.snapshotAndReset().toJson().getBytes("UTF-8"));
+      LOGGER.i("Pipeline metrics saved to %s", file.getAbsolutePath());
+    } catch (final IOException e) {
+      LOGGER.e(e, "Could not save the pipeline metrics");
+    }
+  }
+
   @Override
   public void onBackPressed() {
     DrawerLayout drawer = findViewById(R.id.drawer_layout);
@@ -603,11 +570,24 @@ public abstract class CameraActivity extends AppCompatActivity
     return true;
   }
 
-  protected abstract void processImage();
+  /**
+   * Hands a camera frame over for detection, called from the camera thread.
+   * The callee owns the reference of the slot and must release it once done with the frame.
+   */
+  protected abstract void processFrame(FramePool.Slot slot);
+
+  /**
+   * @return the slots processFrame can hold at once
+   */
+  protected int getFramesInFlight() {
+    return (1);
+  }
 
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
   protected abstract int getLayoutId();
   protected abstract Size getDesiredPreviewFrameSize();
 
   protected abstract void setNumThreads(int numThreads);
+
+  protected abstract void setSignNumThreads(int numThreads);
 }
@@ -0,0 +1,265 @@
+package sharpeye.sharpeye.Detection;
+
+import android.content.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import sharpeye.sharpeye.metrics.PipelineMetrics;
+import sharpeye.sharpeye.tflite.FramePool;
+import sharpeye.sharpeye.utils.Logger;
+
+/**
+ * Runs the Detector as stages on their own threads:
+ * conversion -> danger inference -> sign inference -> tracking and fusion.
+ * In parallel mode the danger and sign inferences of a frame run at the same time on their own
+ * executors instead, and the frame goes on to the fusion once both are done.
+ *
+ * Stages are connected by Mailboxes, so while the sign model works on a frame the danger model
+ * already works on the next one and the conversion on the one after. When a stage is slower than
+ * the previous one, the frame waiting for it is replaced by the newer one and dropped.
+ * The camera thread only hands over its slot and never waits.
+ *
+ * The sign inference always runs on the same thread, the only one touching the FrameBuffer lookups
+ * as its consumer, and the fusion stage is the only one touching the tracker.
+ */
+public class DetectionPipeline {
+    private static final Logger LOGGER = new Logger();
+
+    // One job per stage, more would only wait in the mailboxes.
+    private static final int JOB_COUNT = 4;
+    // Frame slots the pipeline can hold at once: one per job, the one waiting for the conversion
+    // and the one taken by the conversion while it waits for a free job.
+    public static final int FRAMES_IN_FLIGHT = JOB_COUNT + 2;
+    private static final long STOP_TIMEOUT_MS = 2000;
+
+    /** The work of every stage on a job, done by the Detector. */
+    interface Stages {
+        /** Allocates a job, before the pipeline starts. */
+        FrameJob createJob();
+
+        void convert(FrameJob job);
+
+        /** A detection frame was replaced by a newer one before the end of the pipeline. */
+        void onDetectionDropped();
+
+        void detectDangers(Context context, FrameJob job);
+
+        void detectSigns(Context context, FrameJob job);
+
+        void fuse(Context context, FrameJob job, Detector.DetectorListener listener);
+    }
+
+    private interface Step {
+        void run() throws InterruptedException;
+    }
+
+    private interface JobStep {
+        void run(FrameJob job) throws InterruptedException;
+    }
+
+    private final Stages detector;
+    private final Context context;
+    private final Detector.DetectorListener listener;
+    private final boolean parallel;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+
+    private final List<FrameJob> jobs = new ArrayList<>(JOB_COUNT);
+    private final BlockingQueue<FrameJob> freeJobs = new ArrayBlockingQueue<>(JOB_COUNT);
+    private final Mailbox<FramePool.Slot> conversionInput = new Mailbox<>();
+    private final Mailbox<FrameJob> inferenceInput = new Mailbox<>();
+    private final Mailbox<FrameJob> signInput = new Mailbox<>();
+    private final Mailbox<FrameJob> fusionInput = new Mailbox<>();
+    private final List<Thread> threads = new ArrayList<>();
+    // Only used in parallel mode, one thread each so that an interpreter never runs twice at once.
+    private ExecutorService dangerExecutor = null;
+    private ExecutorService signExecutor = null;
+    private volatile boolean running = false;
+
+    /**
+     * @param _parallel true to run the danger and sign inferences of a frame at the same time
+     */
+    public DetectionPipeline(Detector _detector, Context _context, Detector.DetectorListener _listener, boolean _parallel) {
+        this((Stages) _detector, _context, _listener, _parallel);
+    }
+
+    DetectionPipeline(Stages _detector, Context _context, Detector.DetectorListener _listener, boolean _parallel) {
+        detector = _detector;
+        context = _context;
+        listener = _listener;
+        parallel = _parallel;
+        for (int i = 0; i < JOB_COUNT; ++i) {
+            FrameJob job = detector.createJob();
+            jobs.add(job);
+            freeJobs.add(job);
+        }
+    }
+
+    public void start() {
+        running = true;
+        startStage("conversion", this::convert);
+        if (parallel) {
+            dangerExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "detection-danger"));
+            signExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "detection-sign"));
+            startStage("inference", () -> forward(inferenceInput, fusionInput, this::detectInParallel));
+        } else {
+            startStage("danger", () -> forward(inferenceInput, signInput, job -> detector.detectDangers(context, job)));
+            startStage("sign", () -> forward(signInput, fusionInput, this::detectSigns));
+        }
+        startStage("fusion", this::fuse);
+    }
+
+    /**
+     * Stops every stage and waits for the frames being processed.
+     * The slots still held by the pipeline are released.
+     */
+    public void stop() {
+        running = false;
+        recycleSlot(conversionInput.close(), false);
+        recycle(inferenceInput.close(), false);
+        recycle(signInput.close(), false);
+        recycle(fusionInput.close(), false);
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                LOGGER.e(e, "Interrupted while stopping the detection pipeline");
+                Thread.currentThread().interrupt();
+            }
+        }
+        threads.clear();
+        // The inferences still running must be done before the slots of their jobs are released.
+        shutdown(dangerExecutor);
+        shutdown(signExecutor);
+        dangerExecutor = null;
+        signExecutor = null;
+        // A sign inference still running past the timeout releases its slot itself, whichever is first.
+        for (FrameJob job : jobs) {
+            job.releaseSlot();
+        }
+    }
+
+    /**
+     * Hands a frame over to the pipeline, called from the camera thread.
+     * The pipeline takes the reference of the caller on the slot.
+     */
+    public void submit(FramePool.Slot slot) {
+        FramePool.Slot replaced = conversionInput.offer(slot);
+        recycleSlot(replaced, replaced != slot);
+    }
+
+    private void startStage(String name, Step step) {
+        Thread thread = new Thread(() -> {
+            try {
+                while (running) {
+                    step.run();
+                }
+            } catch (final InterruptedException e) {
+                LOGGER.d("Detection stage " + name + " stopped");
+            }
+        }, "detection-" + name);
+        threads.add(thread);
+        thread.start();
+    }
+
+    private void convert() throws InterruptedException {
+        FramePool.Slot slot = conversionInput.take();
+        if (slot == null)
+            return;
+        FrameJob job;
+        try {
+            job = freeJobs.take();
+        } catch (final InterruptedException e) {
+            slot.release();
+            throw e;
+        }
+        job.start(slot);
+        detector.convert(job);
+        send(job, inferenceInput);
+    }
+
+    private void detectSigns(FrameJob job) {
+        detector.detectSigns(context, job);
+        job.releaseSlot();
+    }
+
+    /** Runs both model families on the job and waits for them. */
+    private void detectInParallel(FrameJob job) throws InterruptedException {
+        Future<?> danger = dangerExecutor.submit(() -> detector.detectDangers(context, job));
+        Future<?> sign = signExecutor.submit(() -> detectSigns(job));
+        try {
+            danger.get();
+            sign.get();
+        } catch (final ExecutionException e) {
+            throw new RuntimeException("Detection failed", e.getCause());
+        }
+    }
+
+    private void forward(Mailbox<FrameJob> input, Mailbox<FrameJob> output, JobStep step) throws InterruptedException {
+        FrameJob job = input.take();
+        if (job == null)
+            return;
+        step.run(job);
+        send(job, output);
+    }
+
+    private void fuse() throws InterruptedException {
+        FrameJob job = fusionInput.take();
+        if (job == null)
+            return;
+        detector.fuse(context, job, listener);
+        metrics.increment(PipelineMetrics.Counter.FRAMES_PROCESSED);
+        recycle(job, false);
+    }
+
+    private void shutdown(ExecutorService executor) {
+        if (executor == null)
+            return;
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                LOGGER.w("Detection executor still running after %d ms", STOP_TIMEOUT_MS);
+            }
+        } catch (final InterruptedException e) {
+            LOGGER.e(e, "Interrupted while stopping the detection pipeline");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(FrameJob job, Mailbox<FrameJob> output) {
+        FrameJob replaced = output.offer(job);
+        recycle(replaced, replaced != job);
+    }
+
+    private void recycleSlot(FramePool.Slot slot, boolean dropped) {
+        if (slot == null)
+            return;
+        slot.release();
+        if (dropped) {
+            metrics.increment(PipelineMetrics.Counter.DROPPED_BUSY);
+        }
+    }
+
+    private void recycle(FrameJob job, boolean dropped) {
+        if (job == null)
+            return;
+        job.releaseSlot();
+        if (dropped) {
+            metrics.increment(PipelineMetrics.Counter.DROPPED_BUSY);
+            if (job.detection) {
+                detector.onDetectionDropped();
+            }
+        }
+        freeJobs.offer(job);
+    }
+}
@@ -0,0 +1,80 @@
+package sharpeye.sharpeye.Detection;
+
+/**
+ * Chooses how often the models run, the tracker follows the objects on the frames in between.
+ *
+ * The interval between two detections starts at BASE_INTERVAL_MS and gets shorter when the car
+ * goes faster, when the scene moves, when more objects are tracked and when the tracker loses them.
+ * Stopped in front of a still scene the models only run every MAX_INTERVAL_MS.
+ *
+ * The fusion stage reports the tracking state with updateTracking, the conversion stage asks
+ * isDetectionDue for every frame.
+ */
+public class DetectionScheduler {
+
+    public static final long MIN_INTERVAL_MS = 66;
+    public static final long BASE_INTERVAL_MS = 200;
+    public static final long MAX_INTERVAL_MS = 1000;
+
+    // Speed in km/h at which the base interval is used, the interval is inversely proportional to the speed.
+    private static final double REFERENCE_SPEED = 50;
+    // Below this speed the interval stops growing, stopped or in a traffic jam: a still scene then reaches the maximum.
+    private static final double SLOW_SPEED = REFERENCE_SPEED * BASE_INTERVAL_MS / MAX_INTERVAL_MS;
+    // A motion score of 1 / MOTION_GAIN halves the interval.
+    private static final float MOTION_GAIN = 25;
+    // Every tracked object shortens the interval by this fraction of the base.
+    private static final float TRACK_WEIGHT = 0.1f;
+    // With a tracker confidence of 0 the interval is multiplied by this.
+    private static final float LOST_TRACKS_SCALE = 0.5f;
+
+    private volatile double speed = -1;
+    private volatile int trackCount = 0;
+    private volatile float trackerConfidence = 1;
+    // Start of the last detection, negative to run the models on the next frame.
+    private volatile long lastDetection = -1;
+
+    /**
+     * @param _speed speed of the car in km/h, negative when unknown
+     * @param _trackCount objects followed by the tracker
+     * @param _trackerConfidence share of the detected objects the tracker still follows, between 0 and 1
+     */
+    public void updateTracking(double _speed, int _trackCount, float _trackerConfidence) {
+        speed = _speed;
+        trackCount = _trackCount;
+        trackerConfidence = Math.max(0, Math.min(1, _trackerConfidence));
+    }
+
+    /**
+     * @param motion mean difference between this frame and the previous one, between 0 and 1
+     * @return the interval between two detections for this state, within the bounds
+     */
+    public long getInterval(float motion) {
+        double scale = 1;
+        if (speed >= 0) {
+            scale *= REFERENCE_SPEED / Math.max(SLOW_SPEED, speed);
+        }
+        scale /= 1 + Math.max(0, motion) * MOTION_GAIN;
+        scale /= 1 + trackCount * TRACK_WEIGHT;
+        scale *= LOST_TRACKS_SCALE + (1 - LOST_TRACKS_SCALE) * trackerConfidence;
+        long interval = Math.round(BASE_INTERVAL_MS * scale);
+        return (Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, interval)));
+    }
+
+    /**
+     * Tells whether the models run on the frame, called once per frame by a single thread.
+     * @param now time of the frame in milliseconds
+     * @param motion motion score of the frame, see getInterval
+     */
+    public boolean isDetectionDue(long now, float motion) {
+        if (lastDetection >= 0 && now - lastDetection < getInterval(motion)) {
+            return (false);
+        }
+        lastDetection = now;
+        return (true);
+    }
+
+    /** The models run on the next frame, whatever the state. */
+    public void reset() {
+        lastDetection = -1;
+    }
+}
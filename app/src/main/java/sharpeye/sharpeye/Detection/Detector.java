@@ -16,10 +16,12 @@ import android.widget.Toast;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import sharpeye.sharpeye.data.SharedPreferencesHelper;
+import sharpeye.sharpeye.metrics.PipelineMetrics;
 import sharpeye.sharpeye.objects_logic.ObjectsProcessing;
 import sharpeye.sharpeye.processors.GPSProcessor;
 import sharpeye.sharpeye.processors.HeadUpSignProcessor;
@@ -27,15 +29,20 @@ import sharpeye.sharpeye.processors.ProcessorsManager;
 import sharpeye.sharpeye.signs.Sign;
 import sharpeye.sharpeye.signs.SignList;
 import sharpeye.sharpeye.tflite.Classifier;
+import sharpeye.sharpeye.tflite.Detections;
 import sharpeye.sharpeye.tflite.FrameBuffer;
+import sharpeye.sharpeye.tflite.FramePool;
 import sharpeye.sharpeye.tflite.SignDetector;
+import sharpeye.sharpeye.tflite.SignPrefilter;
+import sharpeye.sharpeye.tflite.SignWindowPlanner;
 import sharpeye.sharpeye.tflite.TFLiteObjectDetectionAPIModel;
 import sharpeye.sharpeye.tracking.Tracker;
+import sharpeye.sharpeye.tracking.TrackerStrategy;
 import sharpeye.sharpeye.utils.CurrentState;
 import sharpeye.sharpeye.utils.ImageUtils;
 import sharpeye.sharpeye.utils.Logger;
 
-public class Detector {
+public class Detector implements DetectionPipeline.Stages {
 
     private static final Logger LOGGER = new Logger();
 
@@ -50,12 +57,30 @@ public class Detector {
 
     private static final boolean SAVE_PREVIEW_BITMAP = false;
 
-    private boolean initializedTracking = false;
+    // On devices with this many cores or fewer, the trackers only look at one frame out of LOW_END_TRACKING_STRIDE,
+    // the objects follow their predicted motion on the others.
+    private static final int LOW_END_MAX_CORES = 4;
+    private static final int LOW_END_TRACKING_STRIDE = 2;
+
+    // Labels of the danger model whose boxes give the vanishing point of the road.
+    private static final List<String> VEHICLES = Arrays.asList("car", "bus", "truck", "motorcycle");
 
     private Tracker tracker;
     private ObjectsProcessing objectsProcessing;
 
-    private long lastRecognition = 0;
+    private final DetectionScheduler scheduler = new DetectionScheduler();
+    private final MotionEstimator motionEstimator = new MotionEstimator();
+    // Thread counts requested from the debug sheet, applied by the stage of each model before its next inference.
+    private volatile int pendingDangerThreads = 0;
+    private volatile int pendingSignThreads = 0;
+    private ThreadBudget threadBudget;
+    private boolean parallel = true;
+    private int trackingStride = 1;
+    // Frames since the trackers last looked at a frame, only touched by the fusion stage.
+    private int framesSinceTrackerUpdate = 0;
+    // Fusion stage scratch space for the vanishing point.
+    private final List<RectF> vehicleBoxes = new ArrayList<>();
+    private final float[] vanishingPoint = new float[2];
 
     private Classifier dangerDetector;
     private SignDetector signClassifier;
@@ -66,9 +91,9 @@ public class Detector {
     private Matrix frameToCropTransform;
     private Matrix cropToFrameTransform;
 
+    // Scratch bitmaps of the sign verification, the frames of the pipeline have their own in FrameJob.
     private Bitmap rgbOrientedBitmap = null;
     private Bitmap rgbFrameBitmap = null;
-    private Bitmap croppedBitmap = null;
 
     private CurrentState currentState;
 
@@ -77,6 +102,7 @@ public class Detector {
 
 
     private Size previewSize;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
 
     public Detector(Context context, FrameBuffer _frameBuffer) {
         currentState = new CurrentState();
@@ -130,22 +156,54 @@ public class Detector {
         processorsManager.clean();
     }
 
-    public void setNumThread(int numThread) {
-        dangerDetector.setNumThreads(numThread);
+    public void setDangerNumThreads(int numThreads) {
+        pendingDangerThreads = numThreads;
+    }
+
+    public void setSignNumThreads(int numThreads) {
+        pendingSignThreads = numThreads;
+    }
+
+    /** @return true when the danger and sign models run at the same time on each frame */
+    public boolean isParallel() {
+        return (parallel);
+    }
+
+    public ThreadBudget getThreadBudget() {
+        return (threadBudget);
     }
 
     public void onPreviewSizeChosen(Context context, Size size, int rotation, int orientation) {
         previewSize = size;
         signList = new SignList(context);
         int cropSize = TF_OD_API_INPUT_SIZE;
+        parallel = SharedPreferencesHelper.INSTANCE.getSharedPreferencesBoolean(context, "parallel_models", true);
+        threadBudget = ThreadBudget.resolve(Runtime.getRuntime().availableProcessors(), parallel,
+                SharedPreferencesHelper.INSTANCE.getSharedPreferenceInt(context, "danger_threads", ThreadBudget.AUTOMATIC),
+                SharedPreferencesHelper.INSTANCE.getSharedPreferenceInt(context, "sign_threads", ThreadBudget.AUTOMATIC));
+        LOGGER.i("Models run %s, %s", parallel ? "in parallel" : "one after the other", threadBudget);
+        TrackerStrategy trackerStrategy = TrackerStrategy.fromPreference(
+                SharedPreferencesHelper.INSTANCE.getSharedPreferencesString(context, "tracker_strategy", TrackerStrategy.AUTOMATIC),
+                Runtime.getRuntime().availableProcessors());
+        tracker.setStrategy(trackerStrategy);
+        trackingStride = Runtime.getRuntime().availableProcessors() <= LOW_END_MAX_CORES ? LOW_END_TRACKING_STRIDE : 1;
+        framesSinceTrackerUpdate = 0;
+        LOGGER.i("Objects tracked with %s on 1 frame out of %d", trackerStrategy, trackingStride);
+        pendingDangerThreads = 0;
+        pendingSignThreads = 0;
+        motionEstimator.reset();
+        scheduler.reset();
         try {
-            signClassifier = new SignDetector(context, frameBuffer);
+            signClassifier = new SignDetector(context, frameBuffer, threadBudget.sign);
+            signClassifier.setPrefilterTarget(SignPrefilter.Target.fromPreference(
+                    SharedPreferencesHelper.INSTANCE.getSharedPreferencesString(context, "sign_prefilter", SignPrefilter.Target.BALANCED.name())));
             dangerDetector = TFLiteObjectDetectionAPIModel.create(
                     context.getAssets(),
                     TF_OD_API_MODEL_FILE_DANGER,
                     TF_OD_API_LABELS_FILE_DANGER,
                     TF_OD_API_INPUT_SIZE,
-                    TF_OD_API_IS_QUANTIZED);
+                    TF_OD_API_IS_QUANTIZED,
+                    threadBudget.danger);
         } catch (final IOException e) {
             e.printStackTrace();
             LOGGER.e(e, "Exception initializing classifier!");
@@ -161,7 +219,6 @@ public class Detector {
         LOGGER.i("Initializing at size %dx%d", size.getWidth(), size.getHeight());
         rgbFrameBitmap = Bitmap.createBitmap(size.getWidth(), size.getHeight(), Bitmap.Config.ARGB_8888);
         rgbOrientedBitmap = Bitmap.createBitmap(size.getHeight(), size.getWidth(), Bitmap.Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Bitmap.Config.ARGB_8888);
 
 
         final boolean maintainAspectRatio = MAINTAIN_ASPECT;
@@ -182,82 +239,129 @@ public class Detector {
         signClassifier.setBitmapProcessVariables(rgbFrameBitmap, rgbOrientedBitmap, rotationTransform, size.getWidth(), size.getHeight());
     }
 
-    public void detect(Context context, int[] rgbBytes, DetectorListener detectorListener) {
-        //------------------processorsManager------------------
-        currentState = processorsManager.process(currentState);
-        //-----------------------------------------------
-
-        rgbFrameBitmap.setPixels(rgbBytes, 0, previewSize.getWidth(), 0, 0, previewSize.getWidth(), previewSize.getHeight());
+    /** Allocates the bitmaps of a pipeline job, once the preview size is known. */
+    @Override
+    public FrameJob createJob() {
+        return (new FrameJob(previewSize.getWidth(), previewSize.getHeight(), TF_OD_API_INPUT_SIZE));
+    }
 
-        final Canvas canvas1 = new Canvas(croppedBitmap);
-        canvas1.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
-        final Canvas canvas2 = new Canvas(rgbOrientedBitmap);
-        canvas2.drawBitmap(rgbFrameBitmap, rotationTransform, null);
+    /**
+     * Conversion stage: converts the frame of the job to ARGB, draws the model crop and the oriented frame,
+     * and decides whether the models run on it or the tracker only follows the previous results.
+     */
+    @Override
+    public void convert(FrameJob job) {
+        job.startTime = SystemClock.uptimeMillis();
+        job.startNanos = PipelineMetrics.start();
+        job.getSlot().toArgb(job.rgbBytes);
+        long stageStart = metrics.record(PipelineMetrics.Stage.CONVERSION, job.startNanos);
+
+        job.rgbFrameBitmap.setPixels(job.rgbBytes, 0, previewSize.getWidth(), 0, 0, previewSize.getWidth(), previewSize.getHeight());
+        final Canvas canvas1 = new Canvas(job.croppedBitmap);
+        canvas1.drawBitmap(job.rgbFrameBitmap, frameToCropTransform, null);
+        final Canvas canvas2 = new Canvas(job.orientedBitmap);
+        canvas2.drawBitmap(job.rgbFrameBitmap, rotationTransform, null);
         if (SAVE_PREVIEW_BITMAP) {
-            ImageUtils.saveBitmap(croppedBitmap);
+            ImageUtils.saveBitmap(job.croppedBitmap);
         }
-        final long startTime = SystemClock.uptimeMillis();
-        final List<Classifier.Recognition> results;
-        List<Classifier.Recognition> dangerResults = null;
-        final List<Classifier.Recognition> fullResults = new ArrayList<>();
-        boolean tracking = false;
-        boolean signConfirmation = false;
-        results = new ArrayList<>();
+        metrics.record(PipelineMetrics.Stage.CROP, stageStart);
+
+        final FramePool.Slot slot = job.getSlot();
+        final float motion = motionEstimator.update(slot.planes[0], slot.width, slot.height, slot.yRowStride);
+        job.detection = scheduler.isDetectionDue(job.startTime, motion);
+    }
+
+    /** A detection frame was replaced by a newer one before the end of the pipeline, the next frame takes its place. */
+    @Override
+    public void onDetectionDropped() {
+        scheduler.reset();
+    }
+
+    /** Danger stage: runs the car and person model on the detection frames. */
+    @Override
+    public void detectDangers(Context context, FrameJob job) {
+        int numThreads = pendingDangerThreads;
+        if (numThreads > 0) {
+            pendingDangerThreads = 0;
+            dangerDetector.setNumThreads(numThreads);
+        }
+        if (!job.detection || !SharedPreferencesHelper.INSTANCE.getSharedPreferencesBoolean(context,"danger_on",false))
+            return;
+        final long stageStart = PipelineMetrics.start();
+        Detections detections = dangerDetector.detectImage(job.croppedBitmap);
+        RecognitionFilter.filterDangers(detections, 0, MINIMUM_CONFIDENCE_TF_OD_API, job.dangerResults);
+        metrics.record(PipelineMetrics.Stage.DANGER_DETECTOR, stageStart);
+    }
+
+    /**
+     * Sign stage: verifies the pending signs on every frame and looks for new ones on the detection frames.
+     * This stage is the consumer of the FrameBuffer.
+     */
+    @Override
+    public void detectSigns(Context context, FrameJob job) {
+        int numThreads = pendingSignThreads;
+        if (numThreads > 0) {
+            pendingSignThreads = 0;
+            signClassifier.setNumThreads(numThreads);
+        }
+        frameBuffer.setDetectionFrame(job.getSlot());
+        List<Classifier.Recognition> tmp;
         if (signClassifier.isDetectingSign()) {
-            List<Classifier.Recognition> tmp = signClassifier.verifySign(rgbOrientedBitmap, MINIMUM_CONFIDENCE_TF_OD_API);
-            for (Classifier.Recognition val: tmp) {
-                if (val.getLocation().right >= 0 &&
-                        val.getLocation().left >= 0 && val.getLocation().bottom >= 0 && val.getLocation().top >= 0 &&
-                        val.getLocation().right < 5000 && val.getLocation().left < 5000 && val.getLocation().bottom < 5000 &&
-                        val.getLocation().top < 5000) {
-                    results.add(val);
-                    signConfirmation = true;
-                }
+            final long stageStart = PipelineMetrics.start();
+            tmp = signClassifier.verifySign(job.orientedBitmap, MINIMUM_CONFIDENCE_TF_OD_API);
+            if (RecognitionFilter.filterSigns(tmp, job.signResults) > 0) {
+                job.signConfirmation = true;
             }
+            metrics.record(PipelineMetrics.Stage.SIGN_VERIFICATION, stageStart);
         }
-        if (!initializedTracking || (startTime - lastRecognition) >= 200) {
-            List<Classifier.Recognition> tmp;
-            if (SharedPreferencesHelper.INSTANCE.getSharedPreferencesBoolean(context,"signs_on",false)) {
-                tmp = signClassifier.detectSign(rgbOrientedBitmap, MINIMUM_CONFIDENCE_TF_OD_API);
-                for (Classifier.Recognition val : tmp) {
-                    if (val.getLocation().right >= 0 &&
-                            val.getLocation().left >= 0 && val.getLocation().bottom >= 0 && val.getLocation().top >= 0 &&
-                            val.getLocation().right < 5000 && val.getLocation().left < 5000 && val.getLocation().bottom < 5000 &&
-                            val.getLocation().top < 5000) {
-                        results.add(val);
-                    }
-                }
-            }
-            dangerResults = new ArrayList<>();
-            if (SharedPreferencesHelper.INSTANCE.getSharedPreferencesBoolean(context,"danger_on",false)) {
-                tmp = dangerDetector.recognizeImage(croppedBitmap);
-                for (Classifier.Recognition val : tmp) {
-                    if ((val.getTitle().equals("person") || val.getTitle().equals("car")) &&
-                            val.getConfidence() >= MINIMUM_CONFIDENCE_TF_OD_API && val.getLocation().right >= 0 &&
-                            val.getLocation().left >= 0 && val.getLocation().bottom >= 0 && val.getLocation().top >= 0 &&
-                            val.getLocation().right < 500 && val.getLocation().left < 500 && val.getLocation().bottom < 500 &&
-                            val.getLocation().top < 500) {
-                        dangerResults.add(val);
-                    }
-                }
-            }
+        if (job.detection && SharedPreferencesHelper.INSTANCE.getSharedPreferencesBoolean(context,"signs_on",false)) {
+            tmp = signClassifier.detectSign(job.orientedBitmap, MINIMUM_CONFIDENCE_TF_OD_API);
+            RecognitionFilter.filterSigns(tmp, job.signResults);
+        }
+    }
+
+    /**
+     * Fusion stage: feeds the tracker with the results of the detection frames or updates it on the others,
+     * then maps every result to the preview frame and reports them.
+     */
+    @Override
+    public void fuse(Context context, FrameJob job, DetectorListener detectorListener) {
+        //------------------processorsManager------------------
+        currentState = processorsManager.process(currentState);
+        //-----------------------------------------------
 
-            fullResults.addAll(results);
-            fullResults.addAll(dangerResults);
-            tracker.track(croppedBitmap, dangerResults);
-            initializedTracking = true;
-            lastRecognition = SystemClock.uptimeMillis();
+        long stageStart = PipelineMetrics.start();
+        final List<Classifier.Recognition> results = new ArrayList<>(job.signResults);
+        List<Classifier.Recognition> dangerResults = null;
+        boolean tracking = false;
+        if (job.detection) {
+            dangerResults = job.dangerResults;
+            tracker.track(job.croppedBitmap, dangerResults, job.startTime);
+            framesSinceTrackerUpdate = 0;
+            metrics.record(PipelineMetrics.Stage.TRACKER_UPDATE, stageStart);
+        } else if (++framesSinceTrackerUpdate < trackingStride) {
+            results.addAll(tracker.predict(job.startTime));
+            metrics.record(PipelineMetrics.Stage.TRACKER_PREDICTION, stageStart);
+            tracking = true;
         } else {
+            framesSinceTrackerUpdate = 0;
             double speed = currentState.isSpeed() ? currentState.getSpeed() : 0;
-            results.addAll(tracker.update(croppedBitmap, speed));
+            results.addAll(tracker.update(job.croppedBitmap, speed, job.startTime));
+            stageStart = metrics.record(PipelineMetrics.Stage.TRACKER_UPDATE, stageStart);
             if (SharedPreferencesHelper.INSTANCE.getSharedPreferencesBoolean(context,"collision_on",false)) {
                 tracker.alertIfDangerous(speed);
+                metrics.record(PipelineMetrics.Stage.COLLISION_CHECK, stageStart);
             }
             tracking = true;
         }
-        final long lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
-
-        Bitmap cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+        scheduler.updateTracking(currentState.isSpeed() ? currentState.getSpeed() : -1,
+                tracker.getTrackedCount(), tracker.getConfidence());
+        updateVanishingPoint(job.detection ? dangerResults : results);
+        final boolean signConfirmation = job.signConfirmation;
+        final long lastProcessingTimeMs = SystemClock.uptimeMillis() - job.startTime;
+        metrics.record(PipelineMetrics.Stage.DETECTION, job.startNanos);
+
+        Bitmap cropCopyBitmap = Bitmap.createBitmap(job.croppedBitmap);
         final Canvas canvas = new Canvas(cropCopyBitmap);
         final Paint paint = new Paint();
         paint.setColor(Color.RED);
@@ -269,13 +373,14 @@ public class Detector {
         final List<Classifier.Recognition> mappedRecognitions =
                 new LinkedList<>();
 
-        for (final Classifier.Recognition result : results) {
-            final RectF location = result.getLocation();
-            if (location != null && result.getConfidence() >= minimumConfidence) {
+        for (final Classifier.Recognition crop : results) {
+            final RectF location = crop.getLocation();
+            if (location != null && crop.getConfidence() >= minimumConfidence) {
                 canvas.drawRect(location, paint);
 
+                // A copy for the preview, the results of the tracker and the sign stage keep their crop boxes.
                 cropToFrameTransform.mapRect(location);
-                result.setLocation(location);
+                final Classifier.Recognition result = crop.withLocation(location);
                 mappedRecognitions.add(result);
                 try {
                     if (objectsProcessing != null && (!tracking || signConfirmation)) {
@@ -289,13 +394,13 @@ public class Detector {
             }
         }
         if (dangerResults != null) {
-            for (final Classifier.Recognition result : dangerResults) {
-                final RectF location = result.getLocation();
-                if (location != null && result.getConfidence() >= minimumConfidence) {
+            for (final Classifier.Recognition crop : dangerResults) {
+                final RectF location = crop.getLocation();
+                if (location != null && crop.getConfidence() >= minimumConfidence) {
                     canvas.drawRect(location, paint);
 
                     cropToFrameTransform.mapRect(location);
-                    result.setLocation(location);
+                    final Classifier.Recognition result = crop.withLocation(location);
                     mappedRecognitions.add(result);
                     try {
                         if (objectsProcessing != null) {
@@ -310,6 +415,21 @@ public class Detector {
         detectorListener.detectionCallback(lastProcessingTimeMs, cropCopyBitmap, mappedRecognitions);
     }
 
+    /** Gives the sign search the vanishing point of the vehicles, the boxes are in the model crop. */
+    private void updateVanishingPoint(List<Classifier.Recognition> objects) {
+        vehicleBoxes.clear();
+        for (Classifier.Recognition object : objects) {
+            if (object.getLocation() != null && VEHICLES.contains(object.getTitle())) {
+                vehicleBoxes.add(object.getLocation());
+            }
+        }
+        if (SignWindowPlanner.estimateVanishingPoint(vehicleBoxes, vanishingPoint)) {
+            cropToFrameTransform.mapPoints(vanishingPoint);
+            rotationTransform.mapPoints(vanishingPoint);
+            signClassifier.setVanishingPoint(vanishingPoint[0], vanishingPoint[1]);
+        }
+    }
+
     public interface DetectorListener {
         void detectionCallback(long processingTime, Bitmap cropBitmap, List<Classifier.Recognition> recognitionList);
     }
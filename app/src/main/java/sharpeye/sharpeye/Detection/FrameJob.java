@@ -0,0 +1,69 @@
+package sharpeye.sharpeye.Detection;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import sharpeye.sharpeye.tflite.Classifier;
+import sharpeye.sharpeye.tflite.FramePool;
+
+/**
+ * Everything a frame needs on its way through the DetectionPipeline.
+ * Jobs are preallocated and recycled, each one owns its bitmaps so that two stages
+ * never draw into the same pixels while they work on different frames.
+ */
+public class FrameJob {
+
+    // Retained by the job until the sign stage is done with the frame, or until the pipeline stops.
+    private final AtomicReference<FramePool.Slot> slot = new AtomicReference<>();
+    long timestamp;
+    // Start of the conversion, in uptime milliseconds and for the pipeline metrics.
+    long startTime;
+    long startNanos;
+    // True when the models run on this frame, false when the tracker only follows the previous results.
+    boolean detection;
+    boolean signConfirmation;
+
+    final int[] rgbBytes;
+    final Bitmap rgbFrameBitmap;
+    final Bitmap croppedBitmap;
+    final Bitmap orientedBitmap;
+
+    final List<Classifier.Recognition> signResults = new ArrayList<>();
+    final List<Classifier.Recognition> dangerResults = new ArrayList<>();
+
+    FrameJob(int width, int height, int cropSize) {
+        this(new int[width * height], Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888),
+                Bitmap.createBitmap(height, width, Bitmap.Config.ARGB_8888), Bitmap.createBitmap(cropSize, cropSize, Bitmap.Config.ARGB_8888));
+    }
+
+    FrameJob(int[] _rgbBytes, Bitmap _rgbFrameBitmap, Bitmap _orientedBitmap, Bitmap _croppedBitmap) {
+        rgbBytes = _rgbBytes;
+        rgbFrameBitmap = _rgbFrameBitmap;
+        orientedBitmap = _orientedBitmap;
+        croppedBitmap = _croppedBitmap;
+    }
+
+    void start(FramePool.Slot _slot) {
+        slot.set(_slot);
+        timestamp = _slot.timestamp;
+        detection = false;
+        signConfirmation = false;
+        signResults.clear();
+        dangerResults.clear();
+    }
+
+    FramePool.Slot getSlot() {
+        return (slot.get());
+    }
+
+    /** Releases the slot once, the sign stage and the pipeline stop may both try it. */
+    void releaseSlot() {
+        FramePool.Slot released = slot.getAndSet(null);
+        if (released != null) {
+            released.release();
+        }
+    }
+}
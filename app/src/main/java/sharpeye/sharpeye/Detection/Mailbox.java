@@ -0,0 +1,54 @@
+package sharpeye.sharpeye.Detection;
+
+/**
+ * Bounded queue of a single element between two stages of the DetectionPipeline.
+ * The producer never waits: offering a new item replaces the one the consumer did not take yet,
+ * so a slow stage always works on the latest frame instead of a backlog of old ones.
+ */
+public class Mailbox<T> {
+
+    private T item = null;
+    private boolean closed = false;
+
+    /**
+     * @return the item replaced by this one, which the caller must recycle, or null.
+     * Once the mailbox is closed the offered item itself is returned.
+     */
+    public synchronized T offer(T newItem) {
+        if (closed) {
+            return (newItem);
+        }
+        T replaced = item;
+        item = newItem;
+        notifyAll();
+        return (replaced);
+    }
+
+    /**
+     * Waits for the next item.
+     * @return the item, or null once the mailbox is closed
+     */
+    public synchronized T take() throws InterruptedException {
+        while (item == null && !closed) {
+            wait();
+        }
+        if (closed) {
+            return (null);
+        }
+        T taken = item;
+        item = null;
+        return (taken);
+    }
+
+    /**
+     * Wakes up the consumer and refuses any further item.
+     * @return the item that was still waiting, which the caller must recycle, or null
+     */
+    public synchronized T close() {
+        closed = true;
+        T remaining = item;
+        item = null;
+        notifyAll();
+        return (remaining);
+    }
+}
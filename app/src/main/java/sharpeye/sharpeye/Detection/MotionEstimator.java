@@ -0,0 +1,41 @@
+package sharpeye.sharpeye.Detection;
+
+/**
+ * Measures how much the scene changes from one frame to the next, from a coarse grid of luma samples.
+ * Sampling a few hundred pixels is enough to tell a still scene from a moving one and costs nothing
+ * next to the conversion of the frame.
+ */
+public class MotionEstimator {
+
+    private static final int GRID_WIDTH = 32;
+    private static final int GRID_HEIGHT = 24;
+
+    private final int[] previous = new int[GRID_WIDTH * GRID_HEIGHT];
+    private boolean hasPrevious = false;
+
+    /**
+     * @param luma Y plane of the frame
+     * @return mean absolute difference with the previous frame, between 0 and 1, 0 for the first frame
+     */
+    public float update(byte[] luma, int width, int height, int rowStride) {
+        long difference = 0;
+        for (int j = 0; j < GRID_HEIGHT; ++j) {
+            int row = (j * height / GRID_HEIGHT + height / (2 * GRID_HEIGHT)) * rowStride;
+            for (int i = 0; i < GRID_WIDTH; ++i) {
+                int value = luma[row + i * width / GRID_WIDTH + width / (2 * GRID_WIDTH)] & 0xFF;
+                int index = j * GRID_WIDTH + i;
+                difference += Math.abs(value - previous[index]);
+                previous[index] = value;
+            }
+        }
+        if (!hasPrevious) {
+            hasPrevious = true;
+            return (0);
+        }
+        return (difference / (255f * GRID_WIDTH * GRID_HEIGHT));
+    }
+
+    public void reset() {
+        hasPrevious = false;
+    }
+}
@@ -0,0 +1,85 @@
+package sharpeye.sharpeye.Detection;
+
+import android.graphics.RectF;
+
+import java.util.List;
+
+import sharpeye.sharpeye.tflite.Classifier;
+import sharpeye.sharpeye.tflite.Detections;
+
+/**
+ * Filtering of the raw recognitions before they reach the tracker and the overlay.
+ */
+public final class RecognitionFilter {
+
+    // Locations past these bounds are garbage boxes from the models.
+    public static final float SIGN_LOCATION_LIMIT = 5000;
+    public static final float DANGER_LOCATION_LIMIT = 500;
+
+    private RecognitionFilter() {}
+
+    /** @return true if every side of the location lies in [0, limit[ */
+    public static boolean isInside(RectF location, float limit) {
+        return (isInside(location.left, location.top, location.right, location.bottom, limit));
+    }
+
+    private static boolean isInside(float left, float top, float right, float bottom, float limit) {
+        return (right >= 0 && left >= 0 && bottom >= 0 && top >= 0 &&
+                right < limit && left < limit && bottom < limit && top < limit);
+    }
+
+    public static boolean isDanger(Classifier.Recognition recognition) {
+        return (isDanger(recognition.getTitle()));
+    }
+
+    private static boolean isDanger(String title) {
+        return (title.equals("person") || title.equals("car"));
+    }
+
+    /**
+     * Appends the signs with a valid location to out.
+     * @return the number of signs appended
+     */
+    public static int filterSigns(List<Classifier.Recognition> recognitions, List<Classifier.Recognition> out) {
+        int count = 0;
+        for (Classifier.Recognition val : recognitions) {
+            if (isInside(val.getLocation(), SIGN_LOCATION_LIMIT)) {
+                out.add(val);
+                ++count;
+            }
+        }
+        return (count);
+    }
+
+    /**
+     * Appends the persons and cars confident enough and with a valid location to out.
+     * @return the number of dangers appended
+     */
+    public static int filterDangers(List<Classifier.Recognition> recognitions, float minimumConfidence, List<Classifier.Recognition> out) {
+        int count = 0;
+        for (Classifier.Recognition val : recognitions) {
+            if (isDanger(val) && val.getConfidence() >= minimumConfidence && isInside(val.getLocation(), DANGER_LOCATION_LIMIT)) {
+                out.add(val);
+                ++count;
+            }
+        }
+        return (count);
+    }
+
+    /**
+     * Same as filterDangers on the detections of one image, only the dangers kept are copied to a Recognition.
+     * @return the number of dangers appended
+     */
+    public static int filterDangers(Detections detections, int image, float minimumConfidence, List<Classifier.Recognition> out) {
+        int count = 0;
+        for (int i = 0; i < detections.getDetectionCount(); ++i) {
+            if (detections.getScore(image, i) >= minimumConfidence && isDanger(detections.getTitle(image, i))
+                    && isInside(detections.getLeft(image, i), detections.getTop(image, i),
+                    detections.getRight(image, i), detections.getBottom(image, i), DANGER_LOCATION_LIMIT)) {
+                out.add(detections.toRecognition(image, i));
+                ++count;
+            }
+        }
+        return (count);
+    }
+}
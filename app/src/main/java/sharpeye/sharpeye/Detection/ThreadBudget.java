@@ -0,0 +1,53 @@
+package sharpeye.sharpeye.Detection;
+
+/**
+ * Number of threads given to the interpreters of each model family.
+ * When the danger and sign models run in parallel they share the cores instead of each asking for all of them.
+ */
+public class ThreadBudget {
+
+    // Let the budget be chosen from the number of cores.
+    public static final int AUTOMATIC = 0;
+    public static final int MAX_THREADS = 9;
+    // The interpreters barely get faster past 4 threads.
+    private static final int MAX_AUTOMATIC_THREADS = 4;
+
+    public final int danger;
+    public final int sign;
+
+    ThreadBudget(int _danger, int _sign) {
+        danger = _danger;
+        sign = _sign;
+    }
+
+    /**
+     * @param cores available processors
+     * @param parallel true when both model families run at the same time
+     * @param dangerThreads threads requested for the danger model, or AUTOMATIC
+     * @param signThreads threads requested for the sign models, or AUTOMATIC
+     */
+    public static ThreadBudget resolve(int cores, boolean parallel, int dangerThreads, int signThreads) {
+        int available = Math.max(1, cores);
+        int automaticDanger;
+        int automaticSign;
+        if (parallel) {
+            automaticDanger = Math.max(1, available / 2);
+            automaticSign = Math.max(1, available - automaticDanger);
+        } else {
+            automaticDanger = available;
+            automaticSign = available;
+        }
+        return (new ThreadBudget(
+                clamp(dangerThreads == AUTOMATIC ? Math.min(automaticDanger, MAX_AUTOMATIC_THREADS) : dangerThreads),
+                clamp(signThreads == AUTOMATIC ? Math.min(automaticSign, MAX_AUTOMATIC_THREADS) : signThreads)));
+    }
+
+    private static int clamp(int threads) {
+        return (Math.max(1, Math.min(MAX_THREADS, threads)));
+    }
+
+    @Override
+    public String toString() {
+        return ("danger " + danger + " threads, sign " + sign + " threads");
+    }
+}
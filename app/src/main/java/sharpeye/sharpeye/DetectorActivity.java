@@ -12,15 +12,19 @@ import android.support.annotation.RequiresApi;
 import android.util.Size;
 import android.widget.Toast;
 
+import sharpeye.sharpeye.Detection.DetectionPipeline;
 import sharpeye.sharpeye.Detection.Detector;
+import sharpeye.sharpeye.Detection.ThreadBudget;
 import sharpeye.sharpeye.data.BooleanKeyValueDBHelper;
 import sharpeye.sharpeye.customview.OverlayView;
 import sharpeye.sharpeye.data.SharedPreferencesHelper;
+import sharpeye.sharpeye.metrics.PipelineMetrics;
 import sharpeye.sharpeye.popups.BatteryPopupHandler;
 import sharpeye.sharpeye.popups.PopupHandler;
 import sharpeye.sharpeye.processors.HeadUpSignProcessor;
 import sharpeye.sharpeye.utils.Logger;
 import sharpeye.sharpeye.tflite.Classifier;
+import sharpeye.sharpeye.tflite.FramePool;
 import sharpeye.sharpeye.tracking.MultiBoxTracker;
 
 import java.util.List;
@@ -31,15 +35,18 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     private long timestamp = 0;
 
-    private MultiBoxTracker multiBoxTracker;
+    // The pipeline metrics of the debug bottom sheet are refreshed once per second.
+    private static final long METRICS_DISPLAY_INTERVAL_MS = 1000;
+    private long lastMetricsDisplay = 0;
 
-    protected boolean computingDetection = false;
+    private MultiBoxTracker multiBoxTracker;
 
     private BatteryPopupHandler batteryPopupHandler;
 
 
     private Detector detector;
-
+    // Created once the preview size is known, written by the UI thread and read by the camera thread.
+    private volatile DetectionPipeline pipeline;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -86,6 +93,7 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     @Override
     public synchronized void onPause() {
+        stopPipeline();
         super.onPause();
         detector.pause();
     }
@@ -99,7 +107,8 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     @Override
     public void onPreviewSizeChosen(final Size size, final int rotation) {
-
+        // The models and bitmaps of the detector are replaced, nothing may run on them meanwhile.
+        stopPipeline();
         multiBoxTracker = new MultiBoxTracker(this);
         previewWidth = size.getWidth();
         previewHeight = size.getHeight();
@@ -114,50 +123,79 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
         }
         trackingOverlay.addCallback(
                 canvas -> {
+                    final long start = PipelineMetrics.start();
                     multiBoxTracker.draw(canvas);
                     if (isDebug()) {
                         multiBoxTracker.drawDebug(canvas);
                     }
+                    PipelineMetrics.getInstance().record(PipelineMetrics.Stage.OVERLAY_DRAW, start);
                 });
 
         int sensorOrientation = rotation - getScreenOrientation();
         multiBoxTracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+        DetectionPipeline newPipeline = new DetectionPipeline(detector, getApplicationContext(), new Detector.DetectorListener() {
+            @Override
+            public void detectionCallback(long processingTime, Bitmap cropBitmap, List<Classifier.Recognition> recognitionList) {
+                onDetection(processingTime, cropBitmap, recognitionList);
+            }
+        }, detector.isParallel());
+        newPipeline.start();
+        pipeline = newPipeline;
+        final ThreadBudget threadBudget = detector.getThreadBudget();
+        runOnUiThread(() -> showThreads(threadBudget.danger, threadBudget.sign));
+    }
+
+    private void stopPipeline() {
+        DetectionPipeline oldPipeline = pipeline;
+        pipeline = null;
+        if (oldPipeline != null) {
+            oldPipeline.stop();
+        }
     }
 
     OverlayView trackingOverlay;
 
     @Override
-    protected void processImage() {
-
-        ++timestamp;
-        final long currTimestamp = timestamp;
-        trackingOverlay.postInvalidate();
-
-        // No mutex needed as this method is not reentrant.
-        if (computingDetection) {
-            readyForNextImage();
+    protected void processFrame(FramePool.Slot slot) {
+        final DetectionPipeline current = pipeline;
+        if (current == null) {
+            slot.release();
             return;
         }
-        computingDetection = true;
-        LOGGER.i("Preparing image " + currTimestamp + " for detection in bg thread.");
-        int[] rgbBytes = getRgbBytes();
-        readyForNextImage();
-        detector.detect(getApplicationContext(), rgbBytes, new Detector.DetectorListener() {
-            @Override
-            public void detectionCallback(long processingTime, Bitmap cropBitmap, List<Classifier.Recognition> recognitionList) {
-                multiBoxTracker.trackResults(recognitionList, currTimestamp);
-                runOnUiThread(
-                        () -> {
-                            showFrameInfo(previewWidth + "x" + previewHeight);
-                            showCropInfo(cropBitmap.getWidth() + "x" + cropBitmap.getHeight());
-                            showInference(processingTime + "ms");
-                        });
-            }
-        });
         trackingOverlay.postInvalidate();
+        current.submit(slot);
+    }
 
-        computingDetection = false;
+    @Override
+    protected int getFramesInFlight() {
+        return (DetectionPipeline.FRAMES_IN_FLIGHT);
+    }
 
+    /** Called from the fusion stage of the pipeline, in frame order. */
+    private void onDetection(long processingTime, Bitmap cropBitmap, List<Classifier.Recognition> recognitionList) {
+        ++timestamp;
+        multiBoxTracker.trackResults(recognitionList, timestamp);
+        final String metrics = isMetricsDisplayDue() ? PipelineMetrics.getInstance().snapshot().toDebugString() : null;
+        runOnUiThread(
+                () -> {
+                    showFrameInfo(previewWidth + "x" + previewHeight);
+                    showCropInfo(cropBitmap.getWidth() + "x" + cropBitmap.getHeight());
+                    showInference(processingTime + "ms");
+                    if (metrics != null) {
+                        showMetrics(metrics);
+                    }
+                });
+        trackingOverlay.postInvalidate();
+    }
+
+    private boolean isMetricsDisplayDue() {
+        final long now = System.currentTimeMillis();
+        if (!isDebug() || now - lastMetricsDisplay < METRICS_DISPLAY_INTERVAL_MS) {
+            return false;
+        }
+        lastMetricsDisplay = now;
+        return true;
     }
 
     @Override
@@ -172,13 +210,17 @@ public class DetectorActivity extends CameraActivity implements OnImageAvailable
 
     @Override
     protected void setNumThreads(final int numThreads) {
-        runInBackground(new Runnable() {
-            @Override
-            public void run() {
-                if (detector != null) {
-                    detector.setNumThread(numThreads);
-                }
-            }
-        });
+        SharedPreferencesHelper.INSTANCE.setSharedPreferenceInt(getApplicationContext(), "danger_threads", numThreads);
+        if (detector != null) {
+            detector.setDangerNumThreads(numThreads);
+        }
+    }
+
+    @Override
+    protected void setSignNumThreads(final int numThreads) {
+        SharedPreferencesHelper.INSTANCE.setSharedPreferenceInt(getApplicationContext(), "sign_threads", numThreads);
+        if (detector != null) {
+            detector.setSignNumThreads(numThreads);
+        }
     }
 }
\ No newline at end of file
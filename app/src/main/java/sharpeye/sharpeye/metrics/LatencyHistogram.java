@@ -0,0 +1,115 @@
+package sharpeye.sharpeye.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, safe to record from any thread.
+ * Buckets are log-linear: every power of two is split into 16 linear sub-buckets,
+ * so a percentile is off by at most 1/16th (6.25%) of its value, with a fixed memory footprint.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    // Largest power of two tracked, values above 2^44 ns (about 5 hours) land in the last bucket.
+    private static final int MAX_SHIFT = 40;
+    private static final int BUCKET_COUNT = (MAX_SHIFT + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int indexOf(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        if (shift > MAX_SHIFT) {
+            return (BUCKET_COUNT - 1);
+        }
+        return (shift * SUB_BUCKET_COUNT + (int) (value >>> shift));
+    }
+
+    /** @return the highest value counted in the bucket */
+    static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return (index);
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index - shift * SUB_BUCKET_COUNT;
+        return (((subBucket + 1) << shift) - 1);
+    }
+
+    public void record(long nanos) {
+        counts.incrementAndGet(indexOf(nanos));
+        total.addAndGet(nanos);
+        long currentMax = max.get();
+        while (nanos > currentMax && !max.compareAndSet(currentMax, nanos)) {
+            currentMax = max.get();
+        }
+    }
+
+    /**
+     * Copies the histogram, while other threads keep recording.
+     * @param reset starts a new interval: every sample is then in exactly one snapshot
+     */
+    public HistogramSnapshot snapshot(boolean reset) {
+        long[] copy = new long[BUCKET_COUNT];
+        long count = 0;
+
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+            count += copy[i];
+        }
+        long sum = reset ? total.getAndSet(0) : total.get();
+        long maximum = reset ? max.getAndSet(0) : max.get();
+        return (new HistogramSnapshot(copy, count, sum, maximum));
+    }
+
+    /** Immutable copy of a histogram. */
+    public static class HistogramSnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        HistogramSnapshot(long[] _counts, long _count, long _sum, long _max) {
+            counts = _counts;
+            count = _count;
+            sum = _sum;
+            max = _max;
+        }
+
+        public long getCount() {
+            return (count);
+        }
+
+        public long getMax() {
+            return (max);
+        }
+
+        public long getMean() {
+            return (count == 0 ? 0 : sum / count);
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the latency in nanoseconds under which this percentage of the samples are, 0 without samples
+         */
+        public long getPercentile(double percentile) {
+            if (count == 0) {
+                return (0);
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return (Math.min(highestValueAt(i), max));
+                }
+            }
+            return (max);
+        }
+    }
+}
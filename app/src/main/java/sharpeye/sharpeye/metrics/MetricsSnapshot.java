@@ -0,0 +1,88 @@
+package sharpeye.sharpeye.metrics;
+
+import java.util.Locale;
+
+/**
+ * Immutable copy of the PipelineMetrics, formatted for the debug UI or exported as JSON for offline analysis.
+ */
+public class MetricsSnapshot {
+
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final long start;
+    private final long end;
+    private final LatencyHistogram.HistogramSnapshot[] stages;
+    private final long[] counters;
+
+    MetricsSnapshot(long _start, long _end, LatencyHistogram.HistogramSnapshot[] _stages, long[] _counters) {
+        start = _start;
+        end = _end;
+        stages = _stages;
+        counters = _counters;
+    }
+
+    public LatencyHistogram.HistogramSnapshot get(PipelineMetrics.Stage stage) {
+        return (stages[stage.ordinal()]);
+    }
+
+    public long get(PipelineMetrics.Counter counter) {
+        return (counters[counter.ordinal()]);
+    }
+
+    /** @return milliseconds covered by the snapshot */
+    public long getDuration() {
+        return (end - start);
+    }
+
+    private static double toMs(long nanos) {
+        return (nanos / 1e6);
+    }
+
+    /** One line per stage seen: p50 / p99 in milliseconds, then the dropped frames. */
+    public String toDebugString() {
+        StringBuilder builder = new StringBuilder();
+
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            LatencyHistogram.HistogramSnapshot histogram = get(stage);
+            if (histogram.getCount() == 0)
+                continue;
+            builder.append(String.format(Locale.US, "%s %.1f / %.1f ms%n", stage.name().toLowerCase(Locale.US),
+                    toMs(histogram.getPercentile(50)), toMs(histogram.getPercentile(99))));
+        }
+        if (get(PipelineMetrics.Counter.SIGN_WINDOWS_CHECKED) > 0 || get(PipelineMetrics.Counter.SIGN_FRAMES_SKIPPED) > 0) {
+            builder.append(String.format(Locale.US, "sign windows rejected %d / %d, frames skipped %d%n",
+                    get(PipelineMetrics.Counter.SIGN_WINDOWS_REJECTED), get(PipelineMetrics.Counter.SIGN_WINDOWS_CHECKED),
+                    get(PipelineMetrics.Counter.SIGN_FRAMES_SKIPPED)));
+        }
+        builder.append(String.format(Locale.US, "dropped %d busy, %d pool / %d frames",
+                get(PipelineMetrics.Counter.DROPPED_BUSY), get(PipelineMetrics.Counter.DROPPED_POOL_EXHAUSTED),
+                get(PipelineMetrics.Counter.FRAMES_RECEIVED)));
+        return (builder.toString());
+    }
+
+    public String toJson() {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("{\"start\":").append(start).append(",\"end\":").append(end).append(",\"stages\":{");
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            LatencyHistogram.HistogramSnapshot histogram = get(stage);
+            if (stage.ordinal() > 0)
+                builder.append(',');
+            builder.append('"').append(stage.name().toLowerCase(Locale.US)).append("\":{\"count\":").append(histogram.getCount())
+                    .append(",\"mean_ns\":").append(histogram.getMean())
+                    .append(",\"max_ns\":").append(histogram.getMax());
+            for (double percentile : PERCENTILES) {
+                builder.append(",\"p").append((int) percentile).append("_ns\":").append(histogram.getPercentile(percentile));
+            }
+            builder.append('}');
+        }
+        builder.append("},\"counters\":{");
+        for (PipelineMetrics.Counter counter : PipelineMetrics.Counter.values()) {
+            if (counter.ordinal() > 0)
+                builder.append(',');
+            builder.append('"').append(counter.name().toLowerCase(Locale.US)).append("\":").append(get(counter));
+        }
+        builder.append("}}");
+        return (builder.toString());
+    }
+}
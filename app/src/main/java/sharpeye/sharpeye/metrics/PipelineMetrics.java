@@ -0,0 +1,108 @@
+package sharpeye.sharpeye.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Always-on latency histograms of the detection pipeline stages and frame counters,
+ * shared by the camera, inference and UI threads. Recording never locks nor allocates.
+ */
+public class PipelineMetrics {
+
+    public enum Stage {
+        CONVERSION,
+        CROP,
+        SIGN_WINDOWS,
+        PYRAMID,
+        SIGN_PREFILTER,
+        GENERAL_DETECTOR,
+        DIFFERENTIATOR,
+        SIGN_VERIFICATION,
+        DANGER_DETECTOR,
+        TRACKER_UPDATE,
+        TRACKER_PREDICTION,
+        COLLISION_CHECK,
+        OVERLAY_DRAW,
+        DETECTION
+    }
+
+    public enum Counter {
+        FRAMES_RECEIVED,
+        FRAMES_PROCESSED,
+        // The inference thread was still busy with a previous frame.
+        DROPPED_BUSY,
+        // Every frame slot was still referenced.
+        DROPPED_POOL_EXHAUSTED,
+        // Sign windows given to the pre-filter, and the ones it kept from the general detector.
+        SIGN_WINDOWS_CHECKED,
+        SIGN_WINDOWS_REJECTED,
+        // Detection frames without any sign window worth a search.
+        SIGN_FRAMES_SKIPPED
+    }
+
+    private static final PipelineMetrics instance = new PipelineMetrics();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+    private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+    private volatile long intervalStart = System.currentTimeMillis();
+
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public static PipelineMetrics getInstance() {
+        return (instance);
+    }
+
+    /** @return the start time to give to record */
+    public static long start() {
+        return (System.nanoTime());
+    }
+
+    /**
+     * Records the time elapsed since start for the stage.
+     * @return the current time, to be used as the start of the next stage
+     */
+    public long record(Stage stage, long start) {
+        long now = System.nanoTime();
+        histograms[stage.ordinal()].record(now - start);
+        return (now);
+    }
+
+    public void increment(Counter counter) {
+        counters.incrementAndGet(counter.ordinal());
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return (histograms[stage.ordinal()]);
+    }
+
+    /** Copies every histogram and counter since the last reset. */
+    public MetricsSnapshot snapshot() {
+        return (snapshot(false));
+    }
+
+    /** Copies every histogram and counter and starts a new interval. */
+    public MetricsSnapshot snapshotAndReset() {
+        return (snapshot(true));
+    }
+
+    private MetricsSnapshot snapshot(boolean reset) {
+        long end = System.currentTimeMillis();
+        LatencyHistogram.HistogramSnapshot[] stages = new LatencyHistogram.HistogramSnapshot[histograms.length];
+        long[] counts = new long[counters.length()];
+
+        for (int i = 0; i < histograms.length; ++i) {
+            stages[i] = histograms[i].snapshot(reset);
+        }
+        for (int i = 0; i < counts.length; ++i) {
+            counts[i] = reset ? counters.getAndSet(i, 0) : counters.get(i);
+        }
+        MetricsSnapshot snapshot = new MetricsSnapshot(intervalStart, end, stages, counts);
+        if (reset) {
+            intervalStart = end;
+        }
+        return (snapshot);
+    }
+}
@@ -11,6 +11,44 @@ import java.util.List;
 public interface Classifier {
     List<Recognition> recognizeImage(Bitmap bitmap);
 
+    /**
+     * Recognizes several images of the model input size with as few interpreter invocations as possible.
+     * @param bitmaps the images, all of the model input size
+     * @return one list of recognitions per image, in the same order
+     */
+    List<List<Recognition>> recognizeImages(List<Bitmap> bitmaps);
+
+    /**
+     * Recognizes regions of an ARGB frame, each region is cropped and resized straight into the model input.
+     * @param pixels the ARGB frame, row by row
+     * @param width the frame width
+     * @param height the frame height
+     * @param regions the regions in frame coordinates, of any size
+     * @return one list of recognitions per region, in model input coordinates, in the same order
+     */
+    List<List<Recognition>> recognizeRegions(int[] pixels, int width, int height, List<RectF> regions);
+
+    /**
+     * Same as recognizeImage without allocating any result.
+     * @return the detections of the image, only valid until the next call to this classifier
+     */
+    Detections detectImage(Bitmap bitmap);
+
+    /**
+     * Same as recognizeRegions without allocating any result.
+     * @return the detections of every region, in model input coordinates, only valid until the next call to this classifier
+     */
+    Detections detectRegions(int[] pixels, int width, int height, List<RectF> regions);
+
+    /**
+     * Same as detectRegions for regions of an image holding several frames, such as an ImagePyramid.
+     * @param pixels the ARGB image, row by row
+     * @param stride the image width, the distance between two rows
+     * @param regions the regions in image coordinates
+     * @param bounds for every region, the frame of the image it is read from, black outside of it
+     */
+    Detections detectRegions(int[] pixels, int stride, List<RectF> regions, List<RectF> bounds);
+
     void enableStatLogging(final boolean debug);
 
     String getStatString();
@@ -72,6 +110,22 @@ public interface Classifier {
             this.location = location;
         }
 
+        /** Moves the recognition without allocating, its location is updated in place. */
+        public void setLocation(float left, float top, float right, float bottom) {
+            if (location == null) {
+                location = new RectF(left, top, right, bottom);
+            } else {
+                location.set(left, top, right, bottom);
+            }
+        }
+
+        /** @return a copy of this recognition at another location, with the same tracking id */
+        public Recognition withLocation(final RectF location) {
+            final Recognition copy = new Recognition(id, title, confidence, location);
+            copy.opencvID = opencvID;
+            return copy;
+        }
+
         public int getOpencvID() {
             return opencvID;
         }
@@ -0,0 +1,117 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Flat, reusable view over the outputs of a detection model for a request of one or more images.
+ * Boxes, scores and classes live in primitive arrays owned by the classifier, so reading them
+ * allocates nothing. The content is only valid until the next call to the classifier that returned it:
+ * callers keeping results should copy them, or use toRecognition.
+ */
+public class Detections {
+
+    // SSD Mobilenet V1 Model assumes class 0 is background class
+    // in label file and class labels start from 1 to number_of_classes+1,
+    // while outputClasses correspond to class index from 0 to number_of_classes
+    private static final int LABEL_OFFSET = 1;
+
+    private final List<String> labels;
+    private final int detectionsPerImage;
+    private final String[] ids;
+    private int imageCount = 0;
+    // left, top, right, bottom in model input coordinates
+    private float[] boxes;
+    private float[] scores;
+    private int[] classes;
+
+    Detections(List<String> _labels, int _detectionsPerImage) {
+        labels = _labels;
+        detectionsPerImage = _detectionsPerImage;
+        ids = new String[detectionsPerImage];
+        for (int i = 0; i < detectionsPerImage; ++i) {
+            ids[i] = "" + i;
+        }
+        boxes = new float[0];
+        scores = new float[0];
+        classes = new int[0];
+    }
+
+    /** Empties the container for a request of this many images, growing the arrays if needed. */
+    void reset(int images) {
+        int size = images * detectionsPerImage;
+        if (scores.length < size) {
+            boxes = new float[size * 4];
+            scores = new float[size];
+            classes = new int[size];
+        }
+        imageCount = images;
+    }
+
+    void set(int image, int index, float left, float top, float right, float bottom, float score, int outputClass) {
+        int flat = image * detectionsPerImage + index;
+        boxes[flat * 4] = left;
+        boxes[flat * 4 + 1] = top;
+        boxes[flat * 4 + 2] = right;
+        boxes[flat * 4 + 3] = bottom;
+        scores[flat] = score;
+        classes[flat] = outputClass;
+    }
+
+    public int getImageCount() {
+        return (imageCount);
+    }
+
+    public int getDetectionCount() {
+        return (detectionsPerImage);
+    }
+
+    public float getScore(int image, int index) {
+        return (scores[image * detectionsPerImage + index]);
+    }
+
+    public String getTitle(int image, int index) {
+        return (labels.get(classes[image * detectionsPerImage + index] + LABEL_OFFSET));
+    }
+
+    public float getLeft(int image, int index) {
+        return (boxes[(image * detectionsPerImage + index) * 4]);
+    }
+
+    public float getTop(int image, int index) {
+        return (boxes[(image * detectionsPerImage + index) * 4 + 1]);
+    }
+
+    public float getRight(int image, int index) {
+        return (boxes[(image * detectionsPerImage + index) * 4 + 2]);
+    }
+
+    public float getBottom(int image, int index) {
+        return (boxes[(image * detectionsPerImage + index) * 4 + 3]);
+    }
+
+    /**
+     * Copies the location of a detection into a caller-owned rectangle.
+     * @return out
+     */
+    public RectF getLocation(int image, int index, RectF out) {
+        out.set(getLeft(image, index), getTop(image, index), getRight(image, index), getBottom(image, index));
+        return (out);
+    }
+
+    /** Creates a Recognition that stays valid after the next classifier call. */
+    public Classifier.Recognition toRecognition(int image, int index) {
+        return (new Classifier.Recognition(ids[index], getTitle(image, index), getScore(image, index),
+                getLocation(image, index, new RectF())));
+    }
+
+    public List<Classifier.Recognition> toRecognitions(int image) {
+        final List<Classifier.Recognition> recognitions = new ArrayList<>(detectionsPerImage);
+        for (int i = 0; i < detectionsPerImage; ++i) {
+            recognitions.add(toRecognition(image, i));
+        }
+        return (recognitions);
+    }
+}
@@ -1,46 +1,138 @@
 package sharpeye.sharpeye.tflite;
 
-import android.util.Log;
-
-import java.util.ArrayList;
-import java.util.List;
-
+/**
+ * History of the camera frames, one every BUFFERING_INTERVAL_MS, used to verify potential signs.
+ * Frames are stored in a fixed-capacity ring ordered by timestamp and lookups are binary searches.
+ *
+ * The ring is a lock-free single producer / single consumer queue: the camera thread is the only one
+ * calling isBufferingDue and addFrame, every other method belongs to the inference thread
+ * (the sign stage of the DetectionPipeline).
+ * The camera thread never waits for the inference thread, if the ring is full the new frame is dropped.
+ * The frames between head and tail can only be removed by the inference thread itself, so a lookup
+ * always sees a consistent snapshot. Besides the deletions of the sign verification, the inference thread
+ * releases every frame older than the history on each detection frame, so that the ring never stays full
+ * of stale frames, whether the signs are searched or not.
+ */
 public class FrameBuffer {
 
     private final static int BUFFERING_INTERVAL_MS = 100;
-
-    private long lastBufferedImageTime = 0;
+    // Frames kept at most, 3.2 seconds of history at the buffering interval.
+    public final static int DEFAULT_CAPACITY = 32;
+    // The frames surrounding a detection are never deleted by deleteUntil.
+    private final static int MINIMUM_KEPT_FRAMES = 2;
 
     public class Frame {
-        public int[] bytes;
         public long timestamp;
+        FramePool.Slot slot;
+
+        Frame() {
+        }
 
-        public Frame(int[] _bytes, long _timestamp) {
-            bytes = _bytes;
-            timestamp = _timestamp;
+        void set(FramePool.Slot _slot) {
+            slot = _slot;
+            timestamp = _slot.timestamp;
+        }
+
+        void clear() {
+            slot.release();
+            slot = null;
+        }
+
+        /**
+         * Converts the buffered YUV frame to ARGB, only frames that are actually inspected pay for it.
+         * @param out array of at least width * height pixels
+         * @return out
+         */
+        public int[] toArgb(int[] out) {
+            return (slot.toArgb(out));
         }
     }
 
-    List<Frame> frames;
-    Frame detectionFrame;
+    private final Frame[] ring;
+    // Age of the oldest frame kept past a new detection frame, half of the ring so that the camera thread keeps buffering.
+    private final long historyMs;
+    // Position of the oldest frame, only written by the inference thread.
+    private volatile long head = 0;
+    // Position after the newest frame, only written by the camera thread.
+    private volatile long tail = 0;
+
+    // Camera thread state
+    private long lastBufferedImageTime = 0;
+    private volatile long bufferedCount = 0;
+    private volatile long droppedCount = 0;
+
+    private volatile int peakSize = 0;
+
+    // Inference thread state
+    final Frame detectionFrame;
     long previousTimestamp = 0;
     boolean deleteLocked = false;
+    private volatile long deletedCount = 0;
 
     public FrameBuffer() {
-        frames = new ArrayList<>();
+        this(DEFAULT_CAPACITY);
     }
 
-    public void addFrame(int[] bytes, long timestamp) {
-        if (timestamp - lastBufferedImageTime < BUFFERING_INTERVAL_MS) {
-            return;
+    public FrameBuffer(int capacity) {
+        if (capacity <= MINIMUM_KEPT_FRAMES) {
+            throw new IllegalArgumentException("FrameBuffer capacity must be greater than " + MINIMUM_KEPT_FRAMES);
+        }
+        ring = new Frame[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            ring[i] = new Frame();
+        }
+        detectionFrame = new Frame();
+        historyMs = (long) BUFFERING_INTERVAL_MS * capacity / 2;
+    }
+
+    private Frame frameAt(long position) {
+        return (ring[(int)(position % ring.length)]);
+    }
+
+    /**
+     * Tells whether a frame taken at this timestamp would be kept by addFrame,
+     * so the caller can skip copying frames that are never buffered.
+     * Camera thread only.
+     */
+    public boolean isBufferingDue(long timestamp) {
+        return (timestamp - lastBufferedImageTime >= BUFFERING_INTERVAL_MS && tail - head < ring.length);
+    }
+
+    /**
+     * Keeps a reference on the slot if it is due for buffering and the ring is not full.
+     * Camera thread only.
+     * @return true if the slot was buffered
+     */
+    public boolean addFrame(FramePool.Slot slot) {
+        if (slot.timestamp - lastBufferedImageTime < BUFFERING_INTERVAL_MS) {
+            return (false);
         }
 
-        lastBufferedImageTime = timestamp;
-        frames.add(new Frame(bytes, timestamp));
+        lastBufferedImageTime = slot.timestamp;
+        long position = tail;
+        if (position - head >= ring.length) {
+            ++droppedCount;
+            return (false);
+        }
+        frameAt(position).set(slot.retain());
+        // Publishes the frame to the inference thread.
+        tail = position + 1;
+        ++bufferedCount;
+        if (position + 1 - head > peakSize)
+            peakSize = (int)(position + 1 - head);
+        return (true);
     }
 
-    public void setDetectionFrame(int[] bytes, long timestamp) {
-        detectionFrame = new Frame(bytes, timestamp);
+    /**
+     * Sets the frame being processed by the inference thread, and releases the frames older than the history
+     * even when the deletions are locked: a sign pending for that long is too old to be verified anyway.
+     */
+    public void setDetectionFrame(FramePool.Slot slot) {
+        FramePool.Slot previous = detectionFrame.slot;
+        detectionFrame.set(slot.retain());
+        if (previous != null)
+            previous.release();
+        deleteUntil(slot.timestamp - historyMs);
     }
 
     public void saveTimeStamp() {
@@ -53,49 +145,105 @@ public class FrameBuffer {
     }
 
     public void deleteUntil(long timestamp) {
-        for (int i = 0; i < frames.size(); ++i) {
-            if (frames.get(i).timestamp <= timestamp && frames.size() > 2) {
-                frames.remove(i);
-                --i;
-            } else if (frames.get(i).timestamp > timestamp)
-                break;
+        long first = head;
+        long last = tail;
+
+        while (last - first > MINIMUM_KEPT_FRAMES && frameAt(first).timestamp <= timestamp) {
+            frameAt(first).clear();
+            ++first;
         }
+        deletedCount += first - head;
+        // Gives the entries back to the camera thread.
+        head = first;
     }
 
     public void deleteUntilPreviousDetection() {
         if (deleteLocked || previousTimestamp == 0)
             return;
 
-        long timestamp = previousTimestamp;
-
-        for (int i = 0; i < frames.size(); ++i) {
-            if (frames.get(i).timestamp <= timestamp && frames.size() > 2) {
-                frames.remove(i);
-                --i;
-            } else if (frames.get(i).timestamp > timestamp)
-                break;
-        }
+        deleteUntil(previousTimestamp);
     }
 
     public Frame getDetectionFrame() {
         return (detectionFrame);
     }
 
-    public Frame getPreviousBufferedFrame(long relativeTimestamp) {
-        for (int i = 0; i < frames.size(); ++i) {
-            if (i + 1 < frames.size() && frames.get(i + 1).timestamp >= relativeTimestamp)
-                return (frames.get(i));
+    /**
+     * @return the position of the first buffered frame whose timestamp is greater than (or equal to,
+     * if inclusive) the given timestamp, or last if there is none
+     */
+    private long search(long first, long last, long timestamp, boolean inclusive) {
+        long low = first;
+        long high = last;
+
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            long current = frameAt(middle).timestamp;
+            if (current < timestamp || (!inclusive && current == timestamp))
+                low = middle + 1;
+            else
+                high = middle;
         }
+        return (low);
+    }
 
-        return (null);
+    /**
+     * @return the last frame buffered before the given timestamp, provided a later frame exists
+     */
+    public Frame getPreviousBufferedFrame(long relativeTimestamp) {
+        long first = head;
+        long last = tail;
+        long position = Math.max(search(first, last, relativeTimestamp, true), first + 1);
+
+        return (position < last ? frameAt(position - 1) : null);
     }
 
+    /**
+     * @return the first frame buffered after the given timestamp, excluding the oldest frame
+     */
     public Frame getNextBufferedFrame(long relativeTimestamp) {
-        for (int i = 0; i < frames.size(); ++i) {
-            if (i + 1 < frames.size() && frames.get(i + 1).timestamp > relativeTimestamp)
-                return (frames.get(i + 1));
-        }
+        long first = head;
+        long last = tail;
+        long position = Math.max(search(first, last, relativeTimestamp, false), first + 1);
+
+        return (position < last ? frameAt(position) : null);
+    }
+
+    public int getSize() {
+        return ((int)(tail - head));
+    }
+
+    public int getCapacity() {
+        return (ring.length);
+    }
+
+    /**
+     * @return the largest history buffered
+     */
+    public int getPeakSize() {
+        return (peakSize);
+    }
+
+    public long getBufferedCount() {
+        return (bufferedCount);
+    }
+
+    /**
+     * @return the number of frames the camera thread dropped because the ring was full
+     */
+    public long getDroppedCount() {
+        return (droppedCount);
+    }
+
+    /**
+     * @return the number of frames released once their detection was processed
+     */
+    public long getDeletedCount() {
+        return (deletedCount);
+    }
 
-        return (null);
+    public String getStatString() {
+        return ("frames=" + getSize() + "/" + ring.length + " peak=" + peakSize + " buffered=" + bufferedCount
+                + " dropped=" + droppedCount + " deleted=" + deletedCount);
     }
 }
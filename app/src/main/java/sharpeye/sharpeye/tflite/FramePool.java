@@ -0,0 +1,119 @@
+package sharpeye.sharpeye.tflite;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sharpeye.sharpeye.utils.YUVConverter;
+
+/**
+ * Fixed ring of preallocated camera frames shared by the FrameBuffer history and the detection path.
+ * Frames are kept in their YUV_420_888 form and only converted to ARGB by the code that consumes them.
+ * Every holder of a slot owns one reference, the slot becomes free again once all of them released it.
+ */
+public class FramePool {
+
+    public class Slot {
+        public final byte[][] planes = new byte[3][];
+        public int width;
+        public int height;
+        public int yRowStride;
+        public int uvRowStride;
+        public int uvPixelStride;
+        public long timestamp;
+        private final AtomicInteger references = new AtomicInteger(0);
+
+        /**
+         * Copies one camera plane into the slot, the plane array is only allocated the first time
+         * since the camera keeps the same plane sizes for a given preview size.
+         */
+        public void copyPlane(int index, ByteBuffer buffer) {
+            int size = buffer.remaining();
+            if (planes[index] == null || planes[index].length < size) {
+                planes[index] = new byte[size];
+            }
+            buffer.get(planes[index], 0, size);
+        }
+
+        public void setLayout(int _width, int _height, int _yRowStride, int _uvRowStride, int _uvPixelStride) {
+            width = _width;
+            height = _height;
+            yRowStride = _yRowStride;
+            uvRowStride = _uvRowStride;
+            uvPixelStride = _uvPixelStride;
+        }
+
+        /**
+         * Materializes the frame as ARGB.
+         * @param out array of at least width * height pixels
+         * @return out
+         */
+        public int[] toArgb(int[] out) {
+            YUVConverter.convertYUV420ToARGB8888(
+                    planes[0],
+                    planes[1],
+                    planes[2],
+                    width,
+                    height,
+                    yRowStride,
+                    uvRowStride,
+                    uvPixelStride,
+                    out);
+            return (out);
+        }
+
+        public Slot retain() {
+            references.incrementAndGet();
+            return (this);
+        }
+
+        public void release() {
+            if (references.decrementAndGet() < 0) {
+                references.set(0);
+                throw new IllegalStateException("Frame slot released more times than retained");
+            }
+        }
+
+        public boolean isFree() {
+            return (references.get() == 0);
+        }
+    }
+
+    private final Slot[] slots;
+    private int next = 0;
+
+    public FramePool(int capacity) {
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; ++i) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Borrows the next free slot of the ring, already retained once for the caller.
+     * Must only be called from the camera thread.
+     * @return the slot, or null if every slot is still referenced
+     */
+    public Slot acquire() {
+        for (int i = 0; i < slots.length; ++i) {
+            int index = (next + i) % slots.length;
+            if (slots[index].references.compareAndSet(0, 1)) {
+                next = (index + 1) % slots.length;
+                return (slots[index]);
+            }
+        }
+        return (null);
+    }
+
+    public int getCapacity() {
+        return (slots.length);
+    }
+
+    public int getFreeCount() {
+        int free = 0;
+        for (Slot slot : slots) {
+            if (slot.isFree())
+                ++free;
+        }
+        return (free);
+    }
+}
@@ -0,0 +1,170 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes model inputs straight from an ARGB frame: a region of the frame is cropped, resized with
+ * bilinear sampling and quantized (or normalized) in a single pass over the output pixels,
+ * without any intermediate Bitmap.
+ */
+public class ImagePreprocessor {
+
+    // Fixed point precision of the interpolation weights.
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private final int inputSize;
+    private final boolean quantized;
+    private final float mean;
+    private final float std;
+
+    // Pre-allocated buffers, the left and right pixels sampled by every column, -1 outside of the frame.
+    private final int[] columns;
+    private final int[] nextColumns;
+    private final int[] columnWeights;
+    private final byte[] rowBytes;
+
+    public ImagePreprocessor(int _inputSize, boolean _quantized, float _mean, float _std) {
+        inputSize = _inputSize;
+        quantized = _quantized;
+        mean = _mean;
+        std = _std;
+        columns = new int[inputSize];
+        nextColumns = new int[inputSize];
+        columnWeights = new int[inputSize];
+        rowBytes = new byte[inputSize * 3];
+    }
+
+    public int getInputSize() {
+        return (inputSize);
+    }
+
+    /**
+     * Writes an image already at the input size, at the buffer's current position.
+     * @param pixels inputSize * inputSize ARGB pixels
+     */
+    public void writePixels(int[] pixels, ByteBuffer out) {
+        writeRegion(pixels, inputSize, inputSize, 0, 0, inputSize, inputSize, out);
+    }
+
+    /**
+     * Writes a region of the frame resized to the input size, at the buffer's current position.
+     * Pixels of the region lying outside of the frame are black, the ones on its border are
+     * interpolated with the border pixels repeated.
+     * @param pixels the ARGB frame, row by row
+     * @param width the frame width
+     * @param height the frame height
+     */
+    public void writeRegion(int[] pixels, int width, int height,
+                            float left, float top, float right, float bottom, ByteBuffer out) {
+        writeRegion(pixels, 0, width, width, height, left, top, right, bottom, out);
+    }
+
+    /**
+     * Same as writeRegion for a region of an image holding several frames, such as an ImagePyramid.
+     * @param pixels the ARGB image, row by row
+     * @param stride the image width, the distance between two rows
+     * @param bounds the frame of the image the region is read from, the region is in image coordinates
+     */
+    public void writeRegion(int[] pixels, int stride, RectF bounds,
+                            float left, float top, float right, float bottom, ByteBuffer out) {
+        writeRegion(pixels, (int) bounds.top * stride + (int) bounds.left, stride, (int) bounds.width(), (int) bounds.height(),
+                left - bounds.left, top - bounds.top, right - bounds.left, bottom - bounds.top, out);
+    }
+
+    /**
+     * Same as writeRegion for a frame lying in a larger image, the region is in frame coordinates.
+     * @param offset index of the first pixel of the frame in the image
+     * @param stride the image width, the distance between two rows
+     */
+    public void writeRegion(int[] pixels, int offset, int stride, int width, int height,
+                            float left, float top, float right, float bottom, ByteBuffer out) {
+        float scaleX = (right - left) / inputSize;
+        float scaleY = (bottom - top) / inputSize;
+
+        if (scaleX == 1.0f && scaleY == 1.0f && left == (int) left && top == (int) top) {
+            copyRegion(pixels, offset, stride, width, height, (int) left, (int) top, out);
+            return;
+        }
+
+        for (int x = 0; x < inputSize; ++x) {
+            float sourceX = left + (x + 0.5f) * scaleX - 0.5f;
+            int column = (int) Math.floor(sourceX);
+            boolean inside = sourceX >= -0.5f && sourceX <= width - 0.5f;
+            columns[x] = inside ? Math.max(0, column) : -1;
+            nextColumns[x] = inside ? Math.min(width - 1, column + 1) : -1;
+            columnWeights[x] = (int) ((sourceX - column) * WEIGHT_ONE);
+        }
+
+        for (int y = 0; y < inputSize; ++y) {
+            float sourceY = top + (y + 0.5f) * scaleY - 0.5f;
+            int row = (int) Math.floor(sourceY);
+            int rowWeight = (int) ((sourceY - row) * WEIGHT_ONE);
+            boolean rowInside = sourceY >= -0.5f && sourceY <= height - 0.5f;
+            int topOffset = offset + Math.max(0, row) * stride;
+            int bottomOffset = offset + Math.min(height - 1, row + 1) * stride;
+
+            for (int x = 0; x < inputSize; ++x) {
+                int column = columns[x];
+                int nextColumn = nextColumns[x];
+                int columnWeight = columnWeights[x];
+                boolean inside = rowInside && column >= 0;
+
+                int topLeft = inside ? pixels[topOffset + column] : 0;
+                int topRight = inside ? pixels[topOffset + nextColumn] : 0;
+                int bottomLeft = inside ? pixels[bottomOffset + column] : 0;
+                int bottomRight = inside ? pixels[bottomOffset + nextColumn] : 0;
+
+                putPixel(x,
+                        interpolate(topLeft, topRight, bottomLeft, bottomRight, 16, columnWeight, rowWeight),
+                        interpolate(topLeft, topRight, bottomLeft, bottomRight, 8, columnWeight, rowWeight),
+                        interpolate(topLeft, topRight, bottomLeft, bottomRight, 0, columnWeight, rowWeight),
+                        out);
+            }
+            flushRow(out);
+        }
+    }
+
+    private void copyRegion(int[] pixels, int offset, int stride, int width, int height, int left, int top, ByteBuffer out) {
+        for (int y = 0; y < inputSize; ++y) {
+            int row = top + y;
+            boolean rowInside = row >= 0 && row < height;
+
+            for (int x = 0; x < inputSize; ++x) {
+                int column = left + x;
+                int pixelValue = rowInside && column >= 0 && column < width ? pixels[offset + row * stride + column] : 0;
+
+                putPixel(x, (pixelValue >> 16) & 0xFF, (pixelValue >> 8) & 0xFF, pixelValue & 0xFF, out);
+            }
+            flushRow(out);
+        }
+    }
+
+    private static int interpolate(int topLeft, int topRight, int bottomLeft, int bottomRight,
+                                   int shift, int columnWeight, int rowWeight) {
+        int topValue = ((topLeft >> shift) & 0xFF) * (WEIGHT_ONE - columnWeight) + ((topRight >> shift) & 0xFF) * columnWeight;
+        int bottomValue = ((bottomLeft >> shift) & 0xFF) * (WEIGHT_ONE - columnWeight) + ((bottomRight >> shift) & 0xFF) * columnWeight;
+
+        return ((topValue * (WEIGHT_ONE - rowWeight) + bottomValue * rowWeight) >> (2 * WEIGHT_BITS));
+    }
+
+    private void putPixel(int x, int red, int green, int blue, ByteBuffer out) {
+        if (quantized) {
+            rowBytes[x * 3] = (byte) red;
+            rowBytes[x * 3 + 1] = (byte) green;
+            rowBytes[x * 3 + 2] = (byte) blue;
+        } else {
+            out.putFloat((red - mean) / std);
+            out.putFloat((green - mean) / std);
+            out.putFloat((blue - mean) / std);
+        }
+    }
+
+    private void flushRow(ByteBuffer out) {
+        if (quantized) {
+            out.put(rowBytes);
+        }
+    }
+}
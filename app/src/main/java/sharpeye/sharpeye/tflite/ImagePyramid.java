@@ -0,0 +1,204 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+/**
+ * Downscaled copies of the oriented frame, packed in a single ARGB image so that windows of every scale
+ * go to the detector in the same batch.
+ *
+ * Level 0 is the frame itself, in the top left corner of the image, written there by the caller through
+ * getPixels with the stride of the image. Every other level is SCALE_STEP times the previous one and is
+ * stacked on the right of level 0, down to the last level still holding a whole window. A window of a
+ * level is then copied to the detector input as is, a sign larger than a window of the frame fits in a
+ * window of a lower level. Windows zoomed in above the frame scale are read from level 0.
+ *
+ * The image and the sampling tables are allocated once, build only resamples the levels.
+ */
+public class ImagePyramid {
+
+    // Scale of a level relative to the previous one, above 1/2 for bilinear sampling to be enough.
+    public static final float SCALE_STEP = 0.7f;
+
+    // Fixed point precision of the interpolation weights.
+    private static final int WEIGHT_BITS = 8;
+    private static final int WEIGHT_ONE = 1 << WEIGHT_BITS;
+
+    private final int frameWidth;
+    private final int frameHeight;
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final float[] scales;
+    private final int[] levelLeft;
+    private final int[] levelTop;
+    private final int[] levelWidth;
+    private final int[] levelHeight;
+    // Previous level pixel and weight sampled by every column and row of a level.
+    private final int[][] columns;
+    private final int[][] columnWeights;
+    private final int[][] rows;
+    private final int[][] rowWeights;
+
+    /**
+     * @param _frameWidth width of the oriented frame
+     * @param _frameHeight height of the oriented frame
+     * @param windowSize side of a window, the last level holds at least one
+     */
+    public ImagePyramid(int _frameWidth, int _frameHeight, int windowSize) {
+        frameWidth = _frameWidth;
+        frameHeight = _frameHeight;
+
+        int count = 1;
+        while (Math.round(frameWidth * Math.pow(SCALE_STEP, count)) >= windowSize
+                && Math.round(frameHeight * Math.pow(SCALE_STEP, count)) >= windowSize) {
+            ++count;
+        }
+        scales = new float[count];
+        levelLeft = new int[count];
+        levelTop = new int[count];
+        levelWidth = new int[count];
+        levelHeight = new int[count];
+        columns = new int[count][];
+        columnWeights = new int[count][];
+        rows = new int[count][];
+        rowWeights = new int[count][];
+
+        int stackWidth = 0;
+        int stackHeight = 0;
+        for (int level = 0; level < count; ++level) {
+            scales[level] = (float) Math.pow(SCALE_STEP, level);
+            levelWidth[level] = level == 0 ? frameWidth : Math.round(frameWidth * scales[level]);
+            levelHeight[level] = level == 0 ? frameHeight : Math.round(frameHeight * scales[level]);
+            if (level > 0) {
+                levelLeft[level] = frameWidth;
+                levelTop[level] = stackHeight;
+                stackWidth = Math.max(stackWidth, levelWidth[level]);
+                stackHeight += levelHeight[level];
+                columns[level] = new int[levelWidth[level]];
+                columnWeights[level] = new int[levelWidth[level]];
+                rows[level] = new int[levelHeight[level]];
+                rowWeights[level] = new int[levelHeight[level]];
+                sampling(levelWidth[level - 1], levelWidth[level], columns[level], columnWeights[level]);
+                sampling(levelHeight[level - 1], levelHeight[level], rows[level], rowWeights[level]);
+            }
+        }
+        width = frameWidth + stackWidth;
+        height = Math.max(frameHeight, stackHeight);
+        pixels = new int[width * height];
+    }
+
+    /** Source pixel and weight of its right neighbour for every destination pixel, the centres aligned. */
+    private static void sampling(int sourceSize, int size, int[] indices, int[] weights) {
+        float scale = (float) sourceSize / size;
+        for (int i = 0; i < size; ++i) {
+            float source = Math.max(0, (i + 0.5f) * scale - 0.5f);
+            int index = Math.min(sourceSize - 2, (int) source);
+            indices[i] = index;
+            weights[i] = Math.min(WEIGHT_ONE, (int) ((source - index) * WEIGHT_ONE));
+        }
+    }
+
+    /** @return the image holding every level, level 0 at the start of each row */
+    public int[] getPixels() {
+        return (pixels);
+    }
+
+    /** @return width of the image, the stride of every level */
+    public int getWidth() {
+        return (width);
+    }
+
+    public int getHeight() {
+        return (height);
+    }
+
+    /** @return scale of every level, from 1 down */
+    public float[] getScales() {
+        return (scales);
+    }
+
+    /** Resamples every level from the previous one, once level 0 holds the new frame. */
+    public void build() {
+        for (int level = 1; level < scales.length; ++level) {
+            int sourceOffset = levelTop[level - 1] * width + levelLeft[level - 1];
+            int offset = levelTop[level] * width + levelLeft[level];
+            int[] levelColumns = columns[level];
+            int[] levelColumnWeights = columnWeights[level];
+
+            for (int y = 0; y < levelHeight[level]; ++y) {
+                int topRow = sourceOffset + rows[level][y] * width;
+                int bottomRow = topRow + width;
+                int rowWeight = rowWeights[level][y];
+                int row = offset + y * width;
+
+                for (int x = 0; x < levelWidth[level]; ++x) {
+                    int column = levelColumns[x];
+                    int columnWeight = levelColumnWeights[x];
+                    int topLeft = pixels[topRow + column];
+                    int topRight = pixels[topRow + column + 1];
+                    int bottomLeft = pixels[bottomRow + column];
+                    int bottomRight = pixels[bottomRow + column + 1];
+
+                    pixels[row + x] = 0xFF000000
+                            | interpolate(topLeft, topRight, bottomLeft, bottomRight, 16, columnWeight, rowWeight) << 16
+                            | interpolate(topLeft, topRight, bottomLeft, bottomRight, 8, columnWeight, rowWeight) << 8
+                            | interpolate(topLeft, topRight, bottomLeft, bottomRight, 0, columnWeight, rowWeight);
+                }
+            }
+        }
+    }
+
+    private static int interpolate(int topLeft, int topRight, int bottomLeft, int bottomRight,
+                                   int shift, int columnWeight, int rowWeight) {
+        int topValue = ((topLeft >> shift) & 0xFF) * (WEIGHT_ONE - columnWeight) + ((topRight >> shift) & 0xFF) * columnWeight;
+        int bottomValue = ((bottomLeft >> shift) & 0xFF) * (WEIGHT_ONE - columnWeight) + ((bottomRight >> shift) & 0xFF) * columnWeight;
+
+        return ((topValue * (WEIGHT_ONE - rowWeight) + bottomValue * rowWeight) >> (2 * WEIGHT_BITS));
+    }
+
+    /**
+     * Finds the region of the image to give the detector for a window of the frame: the window in the level
+     * of its scale, or in level 0 for a window zoomed in above the frame scale.
+     * @param window window of the frame, its scale is the window size over its side
+     * @param windowSize side of the detector input
+     * @param out set to the region of the image
+     * @return out
+     */
+    public RectF toRegion(RectF window, int windowSize, RectF out) {
+        float scale = windowSize / window.width();
+        int level = 0;
+        for (int i = 1; i < scales.length; ++i) {
+            if (Math.abs(scales[i] - scale) < Math.abs(scales[level] - scale)) {
+                level = i;
+            }
+        }
+        if (level == 0) {
+            out.set(window);
+            return (out);
+        }
+        float left = Math.min(levelWidth[level] - windowSize, Math.round(window.left * scales[level]));
+        float top = Math.min(levelHeight[level] - windowSize, Math.round(window.top * scales[level]));
+        out.set(levelLeft[level] + left, levelTop[level] + top,
+                levelLeft[level] + left + windowSize, levelTop[level] + top + windowSize);
+        return (out);
+    }
+
+    /**
+     * Finds the level a region of the image is read from, the pixels of the region outside of it must not be
+     * sampled from the neighbouring level.
+     * @param region region of the image given by toRegion
+     * @param out set to the level holding the centre of the region
+     * @return out
+     */
+    public RectF getBounds(RectF region, RectF out) {
+        int level = 0;
+        for (int i = 1; i < scales.length; ++i) {
+            if (region.centerX() >= levelLeft[i] && region.centerX() < levelLeft[i] + levelWidth[i]
+                    && region.centerY() >= levelTop[i] && region.centerY() < levelTop[i] + levelHeight[i]) {
+                level = i;
+            }
+        }
+        out.set(levelLeft[level], levelTop[level], levelLeft[level] + levelWidth[level], levelTop[level] + levelHeight[level]);
+        return (out);
+    }
+}
@@ -13,10 +13,12 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
 import sharpeye.sharpeye.BuildConfig;
+import sharpeye.sharpeye.metrics.PipelineMetrics;
 import sharpeye.sharpeye.objects_logic.Speech;
 
 public class SignDetector {
@@ -45,17 +47,38 @@ public class SignDetector {
     private Matrix rotationTransform;
     private int previewWidth;
     private int previewHeight;
+    private int[] bufferedFrameBytes;
+    // Windows, pyramid and pre-filter of the search, level 0 of the pyramid is the oriented frame.
+    private volatile SignSearch signSearch;
+    // Level 0 of the pyramid, the crops and candidates read outside of it are black.
+    private final RectF frameBounds = new RectF();
+    // Requests of detectOnCrops, reused from frame to frame.
+    private final List<RectF> cropRects = new ArrayList<>();
+    private final List<RectF> cropBounds = new ArrayList<>();
+    private final List<RectF> candidates = new ArrayList<>();
+    private final List<RectF> candidateBounds = new ArrayList<>();
+    private final List<RectF> candidateLocations = new ArrayList<>();
+    private final List<Crop> candidateCrops = new ArrayList<>();
     Speech speech;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
 
 
     private Classifier generalDetector;
     private Classifier signDifferentiator;
     private CropTracker cropTracker = null;
+    private SignPrefilter.Target prefilterTarget = SignPrefilter.Target.BALANCED;
+    // Vanishing point received before the search is created with the frame size.
+    private volatile float vanishingX = Float.NaN;
+    private volatile float vanishingY = Float.NaN;
     private boolean debugMode = false;
     private boolean voiceDebug = false;
 
     private static final int CONFIRMATION_NBR = 2;
     private static final int MAXIMUM_VERIFICATION_QUEUE = 4;
+    // Windows given to the general detector per detection frame, at most one as the former sweep of the CropTracker.
+    private static final int SIGN_WINDOWS_PER_FRAME = 1;
+    // Scale of the windows zoomed in on the distant signs, read from the oriented frame.
+    private static final float SIGN_ZOOM_SCALE = 1.5f;
 
     private List<Detection> detections;
 
@@ -78,12 +101,19 @@ public class SignDetector {
 
 
     public SignDetector(Context context, FrameBuffer _frameBuffer) throws IOException {
+        this(context, _frameBuffer, TFLiteObjectDetectionAPIModel.DEFAULT_NUM_THREADS);
+    }
+
+    /**
+     * @param numThreads threads of each of the two interpreters, they never run at the same time
+     */
+    public SignDetector(Context context, FrameBuffer _frameBuffer, int numThreads) throws IOException {
             generalDetector = TFLiteObjectDetectionAPIModel.create(
-                    context.getAssets(), TF_OD_API_MODEL_FILE_GENERAL, TF_OD_API_LABELS_FILE_GENERAL, TF_OD_API_INPUT_SIZE, quantized);
+                    context.getAssets(), TF_OD_API_MODEL_FILE_GENERAL, TF_OD_API_LABELS_FILE_GENERAL, TF_OD_API_INPUT_SIZE, quantized, numThreads);
 
 
             signDifferentiator = TFLiteObjectDetectionAPIModel.create(
-                    context.getAssets(), TF_OD_API_MODEL_FILE_DIFFERENTIATOR, TF_OD_API_LABELS_FILE_DIFFERENTIATOR, TF_OD_API_INPUT_SIZE, quantized);
+                    context.getAssets(), TF_OD_API_MODEL_FILE_DIFFERENTIATOR, TF_OD_API_LABELS_FILE_DIFFERENTIATOR, TF_OD_API_INPUT_SIZE, quantized, numThreads);
             detections = new ArrayList<>();
             frameBuffer = _frameBuffer;
             speech = new Speech(context);
@@ -99,6 +129,14 @@ public class SignDetector {
         rotationTransform = _rotationTransform;
         previewWidth = _previewWidth;
         previewHeight = _previewHeight;
+        bufferedFrameBytes = new int[previewWidth * previewHeight];
+        SignSearch search = new SignSearch(rgbOrientedBitmap.getWidth(), rgbOrientedBitmap.getHeight(), TF_OD_API_INPUT_SIZE,
+                SIGN_ZOOM_SCALE, SIGN_WINDOWS_PER_FRAME, prefilterTarget, metrics);
+        if (!Float.isNaN(vanishingX)) {
+            search.setVanishingPoint(vanishingX, vanishingY);
+        }
+        signSearch = search;
+        frameBounds.set(0, 0, rgbOrientedBitmap.getWidth(), rgbOrientedBitmap.getHeight());
     }
 
     public void setDebugMode(boolean value, boolean voiceValue) {
@@ -128,102 +166,121 @@ public class SignDetector {
         }
     }
 
-    public Bitmap getResizedBitmap(Bitmap bm, int newWidth, int newHeight) {
-        int width = bm.getWidth();
-        int height = bm.getHeight();
-        float scaleWidth = ((float) newWidth) / width;
-        float scaleHeight = ((float) newHeight) / height;
-        // CREATE A MATRIX FOR THE MANIPULATION
-        Matrix matrix = new Matrix();
-        // RESIZE THE BIT MAP
-        matrix.postScale(scaleWidth, scaleHeight);
-
-        // "RECREATE" THE NEW BITMAP
-        Bitmap resizedBitmap = Bitmap.createBitmap(
-                bm, 0, 0, width, height, matrix, false);
-        bm.recycle();
-        return resizedBitmap;
-    }
+    /** A sliding window of the oriented frame. */
+    private class Crop {
+        final float xOffset;
+        final float yOffset;
+        final RectF rect;
+        // Region of the pyramid given to the detector and the level it is read from.
+        final RectF source;
+        final RectF bounds;
+        // Planned window of the search, null for the verification crops read from level 0 as is.
+        final SignSearch.Window window;
+
+        Crop(RectF _rect, float _yOffset) {
+            rect = _rect;
+            xOffset = _rect.left;
+            yOffset = _yOffset;
+            source = _rect;
+            bounds = frameBounds;
+            window = null;
+        }
 
-    private Bitmap cropBitmap(Bitmap original, float left, float right, float top, float bottom) {
-        Bitmap croppedBitmap = Bitmap.createBitmap((int)right - (int)left, (int)bottom - (int)top, Bitmap.Config.ARGB_8888);
-        new Canvas(croppedBitmap).drawBitmap(original, (int)-left, (int)-top, null);
+        Crop(SignSearch.Window _window) {
+            rect = _window.rect;
+            xOffset = rect.left;
+            yOffset = rect.top;
+            source = _window.source;
+            bounds = _window.bounds;
+            window = _window;
+        }
 
-        return (croppedBitmap);
+        /** @return the sign rect of a location of the general detector, the location scaled to the frame pixels of the crop */
+        RectF toCandidate(RectF location) {
+            if (window != null)
+                return (SignSearch.toCandidate(window, location));
+            RectF sign = SignGeometry.getSignRect(location);
+            sign.offset(rect.left, rect.top);
+            return (sign);
+        }
     }
 
-    private Bitmap processImage(Bitmap original) {
-        Bitmap processedImage;
-
-        RectF crop = cropTracker.getCropRect();
-        processedImage = cropBitmap(original, crop.left, crop.right, crop.top, crop.bottom);
+    private Crop nextCrop() {
+        return (new Crop(cropTracker.getCropRect(), cropTracker.getOffsetSaved()));
+    }
 
-        return (processedImage);
+    /** Copies the oriented frame once in level 0 of the pyramid, every crop of this frame is then sampled from the copy. */
+    private void readOrientedPixels(Bitmap original) {
+        original.getPixels(signSearch.getPixels(), 0, signSearch.getStride(), 0, 0, original.getWidth(), original.getHeight());
     }
 
-    private RectF getSignRect(RectF box) {
-        RectF newBox = new RectF();
-
-        newBox.left = box.left;
-        newBox.right = box.right;
-        newBox.bottom = box.bottom;
-        newBox.top = box.top;
-
-        if (newBox.right - newBox.left > newBox.bottom - newBox.top) {
-            float diff = (newBox.right - newBox.left) - (newBox.bottom - newBox.top);
-            newBox.bottom += diff * 0.5;
-            newBox.top -= diff * 0.5;
-        } else if (newBox.right - newBox.left < newBox.bottom - newBox.top) {
-            float diff = (newBox.bottom - newBox.top) - (newBox.right - newBox.left);
-            newBox.right += diff * 0.5;
-            newBox.left -= diff * 0.5;
+    /**
+     * Runs the general detector over every crop in one batch, then the differentiator over every
+     * candidate sign found in them in a second batch.
+     */
+    private List<Classifier.Recognition> detectOnCrops(float confidence, Bitmap original, List<Crop> crops, boolean verification) {
+        int[] pixels = signSearch.getPixels();
+        int stride = signSearch.getStride();
+        cropRects.clear();
+        cropBounds.clear();
+        for (Crop crop : crops) {
+            if (verification && debugMode)
+                saveImage(Bitmap.createBitmap(original, (int)crop.rect.left, (int)crop.rect.top, (int)crop.rect.width(), (int)crop.rect.height()));
+            cropRects.add(crop.source);
+            cropBounds.add(crop.bounds);
         }
+        long stageStart = PipelineMetrics.start();
+        Detections results = generalDetector.detectRegions(pixels, stride, cropRects, cropBounds);
+        metrics.record(PipelineMetrics.Stage.GENERAL_DETECTOR, stageStart);
+        List<Classifier.Recognition> signs = new ArrayList<>();
 
-        return (newBox);
-    }
-
-    private List<Classifier.Recognition> detectOnCrop(float confidence, Bitmap original, boolean verification) {
-        Bitmap signProcessedFrame;
-        signProcessedFrame = processImage(original);
+        candidates.clear();
+        candidateBounds.clear();
+        candidateLocations.clear();
+        candidateCrops.clear();
+        for (int i = 0; i < crops.size(); ++i) {
+            for (int j = 0; j < results.getDetectionCount(); ++j) {
+                if (results.getScore(i, j) >= confidence) {
+                    RectF location = results.getLocation(i, j, new RectF());
+                    candidates.add(crops.get(i).toCandidate(location));
+                    candidateBounds.add(frameBounds);
+                    candidateLocations.add(location);
+                    candidateCrops.add(crops.get(i));
+                }
+            }
+        }
+        Detections differentiators = null;
+        if (!candidates.isEmpty()) {
+            stageStart = PipelineMetrics.start();
+            // The candidates are in oriented frame coordinates, those of level 0, and black past its border.
+            differentiators = signDifferentiator.detectRegions(pixels, stride, candidates, candidateBounds);
+            metrics.record(PipelineMetrics.Stage.DIFFERENTIATOR, stageStart);
+        }
 
-        if (verification && debugMode)
-            saveImage(signProcessedFrame);
-        List<Classifier.Recognition> results = generalDetector.recognizeImage(signProcessedFrame);
-        List<Classifier.Recognition> signs = new ArrayList<>();
-        List<Classifier.Recognition> differentiator;
-
-        float yoffset = cropTracker.getOffsetSaved();
-        float xoffset = cropTracker.getCropRect().left;
-
-        for (Classifier.Recognition result : results) {
-            if (result.getConfidence() >= confidence) {
-                RectF rect = getSignRect(result.getLocation());
-                Bitmap cropped = cropBitmap(signProcessedFrame, rect.left, rect.right, rect.top, rect.bottom);
-                Bitmap processedCropped = getResizedBitmap(cropped, TF_OD_API_INPUT_SIZE, TF_OD_API_INPUT_SIZE);
-                differentiator = signDifferentiator.recognizeImage(processedCropped);
-                RectF originalRect = new RectF(result.getLocation().left, result.getLocation().top, result.getLocation().right, result.getLocation().bottom);
-                originalRect.top += yoffset;
-                originalRect.bottom += yoffset;
-                originalRect.left += xoffset;
-                originalRect.right += xoffset;
-                RectF tmpRect = new RectF(originalRect);
-                adaptLocationsToCropSize(300, 300, originalRect, original.getHeight(), original.getWidth());
-                for (Classifier.Recognition diffResult : differentiator) {
-                    if (diffResult.getConfidence() > confidence) {
-                        if (!verification) {
-                            diffResult.setLocation(tmpRect);
-                            signs.add(diffResult);
-                            if (debugMode) {
-                                Classifier.Recognition debug = new Classifier.Recognition("-1", "Debug - " + diffResult.getTitle(), diffResult.getConfidence(), originalRect);
-                                signs.add(debug);
-                            }
-                        } else {
-                            diffResult.setLocation(originalRect);
-                            Log.d("SignDetect", "Original: " + cropTracker.getTarget() + " - Verification: " + diffResult.getTitle());
-                            if (cropTracker.getTarget() != null && diffResult.getTitle().equals(cropTracker.getTarget())) {
-                                detections.get(0).confirmations++;
-                                break;
-                            }
+        for (int i = 0; i < candidates.size(); ++i) {
+            RectF originalRect = new RectF(candidateLocations.get(i));
+            originalRect.top += candidateCrops.get(i).yOffset;
+            originalRect.bottom += candidateCrops.get(i).yOffset;
+            originalRect.left += candidateCrops.get(i).xOffset;
+            originalRect.right += candidateCrops.get(i).xOffset;
+            RectF tmpRect = new RectF(originalRect);
+            SignGeometry.adaptLocationsToCropSize(300, 300, originalRect, original.getHeight(), original.getWidth());
+            for (int j = 0; j < differentiators.getDetectionCount(); ++j) {
+                if (differentiators.getScore(i, j) > confidence) {
+                    Classifier.Recognition diffResult = differentiators.toRecognition(i, j);
+                    if (!verification) {
+                        diffResult.setLocation(tmpRect);
+                        signs.add(diffResult);
+                        if (debugMode) {
+                            Classifier.Recognition debug = new Classifier.Recognition("-1", "Debug - " + diffResult.getTitle(), diffResult.getConfidence(), originalRect);
+                            signs.add(debug);
+                        }
+                    } else {
+                        diffResult.setLocation(originalRect);
+                        Log.d("SignDetect", "Original: " + cropTracker.getTarget() + " - Verification: " + diffResult.getTitle());
+                        if (cropTracker.getTarget() != null && diffResult.getTitle().equals(cropTracker.getTarget())) {
+                            detections.get(0).confirmations++;
+                            break;
                         }
                     }
                 }
@@ -231,17 +288,43 @@ public class SignDetector {
         }
 
         if (debugMode) {
-            RectF cropTrackerDebug = cropTracker.getCropRect();
+            for (Crop crop : crops) {
+                RectF cropTrackerDebug = new RectF(crop.rect);
 
-            adaptLocationsToCropSize(300, 300, cropTrackerDebug, original.getHeight(), original.getWidth());
-            Classifier.Recognition debug = new Classifier.Recognition("-1", "Debug", 1.0f, cropTrackerDebug);
+                SignGeometry.adaptLocationsToCropSize(300, 300, cropTrackerDebug, original.getHeight(), original.getWidth());
+                Classifier.Recognition debug = new Classifier.Recognition("-1", "Debug", 1.0f, cropTrackerDebug);
 
-            signs.add(debug);
+                signs.add(debug);
+            }
         }
 
         return (signs);
     }
 
+    public void setNumThreads(int numThreads) {
+        generalDetector.setNumThreads(numThreads);
+        signDifferentiator.setNumThreads(numThreads);
+    }
+
+    /** Chooses how many sign windows the colour and shape pre-filter rejects before the general detector. */
+    public void setPrefilterTarget(SignPrefilter.Target target) {
+        prefilterTarget = target;
+        SignSearch search = signSearch;
+        if (search != null)
+            search.setPrefilterTarget(target);
+    }
+
+    /** Point of the oriented frame the road goes to, estimated by the tracking stage from the vehicles in front. */
+    public void setVanishingPoint(float x, float y) {
+        SignSearch search = signSearch;
+        if (search != null) {
+            search.setVanishingPoint(x, y);
+        } else {
+            vanishingX = x;
+            vanishingY = y;
+        }
+    }
+
     public boolean isDetectingSign() {
         return (detections.size() >= 1);
     }
@@ -278,17 +361,18 @@ public class SignDetector {
             }
         }
 
-        processFrameBytes(bufferedFrame.bytes);
+        processFrameBytes(bufferedFrame.toArgb(bufferedFrameBytes));
         if (debugMode)
             saveImage(rgbOrientedBitmap);
         cropTracker.updateTarget(detections.get(0).title, detections.get(0).pos);
         cropTracker.trackTarget();
         cropTracker.updateTrack();
-        detectOnCrop(confidence, rgbOrientedBitmap, true);
+        readOrientedPixels(rgbOrientedBitmap);
+        detectOnCrops(confidence, rgbOrientedBitmap, Collections.singletonList(nextCrop()), true);
         if (++detections.get(0).current_step >= 3) {
             if (detections.get(0).confirmations >= CONFIRMATION_NBR) {
                 Log.d("SignDetect", "Sign confirmation: " + detections.get(0).title);
-                adaptLocationsToCropSize(300, 300, detections.get(0).pos, original.getHeight(), original.getWidth());
+                SignGeometry.adaptLocationsToCropSize(300, 300, detections.get(0).pos, original.getHeight(), original.getWidth());
                 signs.add(new Classifier.Recognition(detections.get(0).id, detections.get(0).title, detections.get(0).confidence, detections.get(0).pos));
             } else {
                 Log.d("SignDetect", "False positive: Dismissing");
@@ -318,12 +402,21 @@ public class SignDetector {
         }
 
 
-        List<Classifier.Recognition> signs = new ArrayList<>();
+        List<Crop> crops = new ArrayList<>();
         cropTracker.cancelTarget();
-        while (cropTracker.hasNextOffset()) {
-            cropTracker.updateTrack();
-            signs.addAll(detectOnCrop(confidence, original, false));
+        readOrientedPixels(original);
+        for (SignSearch.Window window : signSearch.planWindows()) {
+            if (window.kept)
+                crops.add(new Crop(window));
         }
+        List<Classifier.Recognition> signs;
+        if (crops.isEmpty()) {
+            candidates.clear();
+            signs = new ArrayList<>();
+        } else {
+            signs = detectOnCrops(confidence, original, crops, false);
+        }
+        signSearch.onCandidates(candidates);
 
         for (int i = 0; i < signs.size(); ++i) {
             if (!signs.get(i).getTitle().startsWith("Debug") && detections.size() < MAXIMUM_VERIFICATION_QUEUE && !inVerification(signs.get(i).getTitle())) {
@@ -339,7 +432,6 @@ public class SignDetector {
             }
         }
 
-       cropTracker.resetOffset();
        frameBuffer.saveTimeStamp();
        if (isDetectingSign())
            frameBuffer.setDeleteLocked(true);
@@ -352,11 +444,4 @@ public class SignDetector {
 
 
     }
-
-    private void adaptLocationsToCropSize(float cropheight, float cropwidth, RectF location, float height, float width) {
-        location.left = (location.left * cropwidth) / width;
-        location.right = (location.right * cropwidth) / width;
-        location.top = (location.top * cropheight) / height;
-        location.bottom = (location.bottom * cropheight) / height;
-    }
 }
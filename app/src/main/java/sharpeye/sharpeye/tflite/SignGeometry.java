@@ -0,0 +1,45 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+/**
+ * Box arithmetic of the sign detection, kept free of any Android dependency but RectF.
+ */
+public final class SignGeometry {
+
+    private SignGeometry() {}
+
+    /**
+     * Grows the smallest side of a box so that it becomes a square with the same center,
+     * signs being square the differentiator is given the whole sign.
+     * @return a new rectangle
+     */
+    public static RectF getSignRect(RectF box) {
+        RectF newBox = new RectF();
+
+        newBox.left = box.left;
+        newBox.right = box.right;
+        newBox.bottom = box.bottom;
+        newBox.top = box.top;
+
+        if (newBox.right - newBox.left > newBox.bottom - newBox.top) {
+            float diff = (newBox.right - newBox.left) - (newBox.bottom - newBox.top);
+            newBox.bottom += diff * 0.5;
+            newBox.top -= diff * 0.5;
+        } else if (newBox.right - newBox.left < newBox.bottom - newBox.top) {
+            float diff = (newBox.bottom - newBox.top) - (newBox.right - newBox.left);
+            newBox.right += diff * 0.5;
+            newBox.left -= diff * 0.5;
+        }
+
+        return (newBox);
+    }
+
+    /** Scales a location of a width * height frame, in place, to a cropwidth * cropheight frame. */
+    public static void adaptLocationsToCropSize(float cropheight, float cropwidth, RectF location, float height, float width) {
+        location.left = (location.left * cropwidth) / width;
+        location.right = (location.right * cropwidth) / width;
+        location.top = (location.top * cropheight) / height;
+        location.bottom = (location.bottom * cropheight) / height;
+    }
+}
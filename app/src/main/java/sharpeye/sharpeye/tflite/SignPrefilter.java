@@ -0,0 +1,306 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+/**
+ * Rejects the sign windows holding nothing like a traffic sign before they reach the general detector.
+ *
+ * The window is sampled on a coarse grid and every sample is classified as red, blue or neither from its
+ * hue, saturation and value. A window with too few coloured samples is rejected right away, which is
+ * enough for the sky and the asphalt. Otherwise every connected blob of one colour is checked for the
+ * shape of a sign: a circle, from a vote of the distances of its border to its centre (a Hough transform
+ * on the radius), a triangle, from a width growing or shrinking linearly along its height, or a filled
+ * square or octagon. The window is kept as soon as one blob looks like a sign.
+ *
+ * The thresholds come from the Target, from the highest recall to the most windows rejected.
+ * Not thread safe, the buffers are reused from window to window.
+ */
+public class SignPrefilter {
+
+    public enum Target {
+        // Every window goes to the model.
+        OFF(0, false, false, 0, 0),
+        // Only the windows without any red or blue are rejected.
+        HIGH_RECALL(8, false, false, 0, 0),
+        BALANCED(12, true, true, 0.45f, 0.75f),
+        AGGRESSIVE(24, true, false, 0.6f, 0.85f);
+
+        // Red or blue samples a window needs, a sign far away only covers a dozen.
+        final int minColourSamples;
+        final boolean checkShape;
+        // Keeps the blobs cut by the border of the window, whose shape cannot be judged.
+        final boolean keepCutBlobs;
+        // Share of the border of a blob voting for its most common radius.
+        final float circleVotes;
+        // Correlation between the row and the width of a triangular blob.
+        final float triangleCorrelation;
+
+        Target(int _minColourSamples, boolean _checkShape, boolean _keepCutBlobs, float _circleVotes, float _triangleCorrelation) {
+            minColourSamples = _minColourSamples;
+            checkShape = _checkShape;
+            keepCutBlobs = _keepCutBlobs;
+            circleVotes = _circleVotes;
+            triangleCorrelation = _triangleCorrelation;
+        }
+
+        /** @param value value of the sign_prefilter preference, the name of a target */
+        public static Target fromPreference(String value) {
+            if (value != null) {
+                try {
+                    return (valueOf(value));
+                } catch (final IllegalArgumentException e) {
+                    // Value of an older version, falls back to the default.
+                }
+            }
+            return (BALANCED);
+        }
+    }
+
+    private static final byte NONE = 0;
+    private static final byte RED = 1;
+    private static final byte BLUE = 2;
+
+    // Pixels between two samples along each axis.
+    private static final int STEP = 3;
+    private static final int MIN_SATURATION = 90;
+    private static final int MIN_VALUE = 50;
+    // Samples of the smallest blob checked, a sign of about 12 pixels.
+    private static final int MIN_BLOB_SAMPLES = 12;
+    // Width over height of the bounding box of a sign blob.
+    private static final float MIN_ASPECT = 0.5f;
+    private static final float MAX_ASPECT = 2f;
+    // A blob larger than this share of the window is sky, a wall or a car, not a sign.
+    private static final float MAX_EXTENT = 0.9f;
+    // Share of its bounding box a filled square, disk or octagon covers at least.
+    private static final float SOLID_FILL = 0.75f;
+    // From the outline of a warning sign to a filled triangle.
+    private static final float MIN_TRIANGLE_FILL = 0.15f;
+    private static final float MAX_TRIANGLE_FILL = 0.7f;
+    private static final int RADIUS_BINS = 16;
+    // Radii voted for, relative to the half size of the blob.
+    private static final float MAX_RADIUS = 1.5f;
+
+    private final Target target;
+    private final int gridSize;
+    private final byte[] mask;
+    private final boolean[] visited;
+    private final int[] stack;
+    private final int[] blob;
+    private final int[] votes = new int[RADIUS_BINS];
+    private final int[] rowLeft;
+    private final int[] rowRight;
+    // Samples of the current window along each axis.
+    private int columns;
+    private int rows;
+
+    /**
+     * @param _windowSize size of the square windows, in pixels
+     */
+    public SignPrefilter(Target _target, int _windowSize) {
+        target = _target;
+        gridSize = (_windowSize + STEP - 1) / STEP;
+        mask = new byte[gridSize * gridSize];
+        visited = new boolean[mask.length];
+        stack = new int[mask.length];
+        blob = new int[mask.length];
+        rowLeft = new int[gridSize];
+        rowRight = new int[gridSize];
+    }
+
+    public Target getTarget() {
+        return (target);
+    }
+
+    /**
+     * @param pixels ARGB pixels of the frame
+     * @param width width of the frame
+     * @param window window of the frame, at most the window size given to the constructor
+     * @return true if the window may hold a sign and must go to the model
+     */
+    public boolean accept(int[] pixels, int width, RectF window) {
+        if (target == Target.OFF)
+            return (true);
+
+        int left = Math.max(0, (int) window.left);
+        int top = Math.max(0, (int) window.top);
+        columns = Math.min(gridSize, ((int) window.width() + STEP - 1) / STEP);
+        rows = Math.min(gridSize, ((int) window.height() + STEP - 1) / STEP);
+        int height = pixels.length / width;
+        int coloured = 0;
+
+        for (int j = 0; j < rows; ++j) {
+            int y = Math.min(height - 1, top + j * STEP);
+            for (int i = 0; i < columns; ++i) {
+                int x = Math.min(width - 1, left + i * STEP);
+                byte colour = classify(pixels[y * width + x]);
+                mask[j * gridSize + i] = colour;
+                if (colour != NONE)
+                    ++coloured;
+            }
+        }
+        if (coloured < target.minColourSamples)
+            return (false);
+        if (!target.checkShape)
+            return (true);
+
+        for (int j = 0; j < rows; ++j) {
+            for (int i = 0; i < columns; ++i) {
+                visited[j * gridSize + i] = false;
+            }
+        }
+        for (int j = 0; j < rows; ++j) {
+            for (int i = 0; i < columns; ++i) {
+                int cell = j * gridSize + i;
+                if (mask[cell] != NONE && !visited[cell] && isSignBlob(cell))
+                    return (true);
+            }
+        }
+        return (false);
+    }
+
+    /** @return RED, BLUE or NONE, from the hue, saturation and value of the pixel */
+    static byte classify(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int max = Math.max(r, Math.max(g, b));
+        int delta = max - Math.min(r, Math.min(g, b));
+
+        if (max < MIN_VALUE || delta * 255 < MIN_SATURATION * max)
+            return (NONE);
+        // Hue within 20 degrees of red.
+        if (max == r && 3 * Math.abs(g - b) <= delta)
+            return (RED);
+        // Hue between 200 and 250 degrees.
+        if (max == b && 6 * (r - g) >= -4 * delta && 6 * (r - g) <= delta)
+            return (BLUE);
+        return (NONE);
+    }
+
+    /** Collects the blob of the cell and checks its shape. */
+    private boolean isSignBlob(int first) {
+        byte colour = mask[first];
+        int size = 0;
+        int depth = 0;
+        int minX = columns;
+        int minY = rows;
+        int maxX = -1;
+        int maxY = -1;
+
+        visited[first] = true;
+        stack[depth++] = first;
+        while (depth > 0) {
+            int cell = stack[--depth];
+            int x = cell % gridSize;
+            int y = cell / gridSize;
+            blob[size++] = cell;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            if (x > 0)
+                depth = push(cell - 1, colour, depth);
+            if (x + 1 < columns)
+                depth = push(cell + 1, colour, depth);
+            if (y > 0)
+                depth = push(cell - gridSize, colour, depth);
+            if (y + 1 < rows)
+                depth = push(cell + gridSize, colour, depth);
+        }
+
+        int blobWidth = maxX - minX + 1;
+        int blobHeight = maxY - minY + 1;
+        if (size < MIN_BLOB_SAMPLES || blobWidth > MAX_EXTENT * columns || blobHeight > MAX_EXTENT * rows)
+            return (false);
+        if (target.keepCutBlobs && (minX == 0 || minY == 0 || maxX + 1 == columns || maxY + 1 == rows))
+            return (true);
+        float aspect = (float) blobWidth / blobHeight;
+        if (aspect < MIN_ASPECT || aspect > MAX_ASPECT)
+            return (false);
+
+        float fill = (float) size / (blobWidth * blobHeight);
+        if (fill >= SOLID_FILL)
+            return (true);
+        return (isCircle(size, minX, minY, blobWidth, blobHeight)
+                || (fill >= MIN_TRIANGLE_FILL && fill <= MAX_TRIANGLE_FILL && isTriangle(size, minX, minY, blobWidth, blobHeight)));
+    }
+
+    private int push(int cell, byte colour, int depth) {
+        if (visited[cell] || mask[cell] != colour)
+            return (depth);
+        visited[cell] = true;
+        stack[depth] = cell;
+        return (depth + 1);
+    }
+
+    /** Votes the distance of every border sample to the centre of the blob, a circle gathers them on one radius. */
+    private boolean isCircle(int size, int minX, int minY, int blobWidth, int blobHeight) {
+        float centreX = minX + (blobWidth - 1) / 2f;
+        float centreY = minY + (blobHeight - 1) / 2f;
+        float halfSize = Math.max(blobWidth, blobHeight) / 2f;
+        int border = 0;
+
+        for (int i = 0; i < RADIUS_BINS; ++i) {
+            votes[i] = 0;
+        }
+        for (int i = 0; i < size; ++i) {
+            int cell = blob[i];
+            if (!isBorder(cell))
+                continue;
+            float dx = cell % gridSize - centreX;
+            float dy = cell / gridSize - centreY;
+            int bin = (int) (Math.sqrt(dx * dx + dy * dy) / halfSize / MAX_RADIUS * RADIUS_BINS);
+            ++votes[Math.min(RADIUS_BINS - 1, bin)];
+            ++border;
+        }
+
+        int best = 0;
+        for (int i = 0; i + 2 < RADIUS_BINS; ++i) {
+            best = Math.max(best, votes[i] + votes[i + 1] + votes[i + 2]);
+        }
+        return (border > 0 && best >= target.circleVotes * border);
+    }
+
+    private boolean isBorder(int cell) {
+        byte colour = mask[cell];
+        int x = cell % gridSize;
+        int y = cell / gridSize;
+        return (x == 0 || y == 0 || x + 1 == columns || y + 1 == rows
+                || mask[cell - 1] != colour || mask[cell + 1] != colour
+                || mask[cell - gridSize] != colour || mask[cell + gridSize] != colour);
+    }
+
+    /** Correlates the width of every row of the blob with the row, close to 1 or -1 for a triangle. */
+    private boolean isTriangle(int size, int minX, int minY, int blobWidth, int blobHeight) {
+        for (int j = 0; j < blobHeight; ++j) {
+            rowLeft[j] = blobWidth;
+            rowRight[j] = -1;
+        }
+        for (int i = 0; i < size; ++i) {
+            int x = blob[i] % gridSize - minX;
+            int y = blob[i] / gridSize - minY;
+            rowLeft[y] = Math.min(rowLeft[y], x);
+            rowRight[y] = Math.max(rowRight[y], x);
+        }
+
+        double sumY = 0;
+        double sumW = 0;
+        double sumYY = 0;
+        double sumWW = 0;
+        double sumYW = 0;
+        for (int j = 0; j < blobHeight; ++j) {
+            int rowWidth = rowRight[j] - rowLeft[j] + 1;
+            sumY += j;
+            sumW += rowWidth;
+            sumYY += (double) j * j;
+            sumWW += (double) rowWidth * rowWidth;
+            sumYW += (double) j * rowWidth;
+        }
+        double covariance = sumYW - sumY * sumW / blobHeight;
+        double varianceY = sumYY - sumY * sumY / blobHeight;
+        double varianceW = sumWW - sumW * sumW / blobHeight;
+        if (varianceY <= 0 || varianceW <= 0)
+            return (false);
+        return (Math.abs(covariance) >= target.triangleCorrelation * Math.sqrt(varianceY * varianceW));
+    }
+}
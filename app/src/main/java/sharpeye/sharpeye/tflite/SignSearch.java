@@ -0,0 +1,142 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sharpeye.sharpeye.metrics.PipelineMetrics;
+
+/**
+ * The steps of the sign search before the general detector: the SignWindowPlanner picks the windows of the oriented
+ * frame, the ImagePyramid levels they are read from are built when needed, and the SignPrefilter keeps the ones worth
+ * a detection. Each step is recorded in the PipelineMetrics.
+ *
+ * Kept free of any Android dependency but RectF, the same search runs in the SignDetector and in the desktop replay.
+ * Only used by the sign stage of the pipeline except for setVanishingPoint and setPrefilterTarget.
+ */
+public class SignSearch {
+
+    /** A window of the oriented frame and the region of the pyramid the detector reads for it, reused from frame to frame. */
+    public static class Window {
+        public final RectF rect = new RectF();
+        public final RectF source = new RectF();
+        // Level of the pyramid the source is read from, black past it.
+        public final RectF bounds = new RectF();
+        // Frame pixels per detector input pixel.
+        public float scale;
+        // Kept by the pre-filter for the general detector.
+        public boolean kept;
+    }
+
+    private final int inputSize;
+    private final ImagePyramid pyramid;
+    private final SignWindowPlanner planner;
+    private final PipelineMetrics metrics;
+    private final List<Window> windows = new ArrayList<>();
+    private final List<Window> planned = new ArrayList<>();
+    private volatile SignPrefilter prefilter;
+
+    /**
+     * @param width width of the oriented frame
+     * @param height height of the oriented frame
+     * @param _inputSize side of the general detector input
+     * @param zoomScale scale of the windows zoomed in on the distant signs, read from the oriented frame
+     * @param windowsPerFrame windows planned on every frame
+     */
+    public SignSearch(int width, int height, int _inputSize, float zoomScale, int windowsPerFrame,
+                      SignPrefilter.Target target, PipelineMetrics _metrics) {
+        inputSize = _inputSize;
+        metrics = _metrics;
+        pyramid = new ImagePyramid(width, height, inputSize);
+        float[] levelScales = pyramid.getScales();
+        float[] windowScales = new float[levelScales.length + 1];
+        windowScales[0] = zoomScale;
+        System.arraycopy(levelScales, 0, windowScales, 1, levelScales.length);
+        planner = new SignWindowPlanner(width, height, inputSize, windowScales, windowsPerFrame);
+        prefilter = new SignPrefilter(target, inputSize);
+    }
+
+    /** @return the pyramid image, the oriented frame is written in its top left corner with the stride getStride */
+    public int[] getPixels() {
+        return (pyramid.getPixels());
+    }
+
+    public int getStride() {
+        return (pyramid.getWidth());
+    }
+
+    public void setPrefilterTarget(SignPrefilter.Target target) {
+        prefilter = new SignPrefilter(target, inputSize);
+    }
+
+    public SignPrefilter.Target getPrefilterTarget() {
+        return (prefilter.getTarget());
+    }
+
+    /** Point of the oriented frame the road goes to, see SignWindowPlanner.setVanishingPoint. */
+    public void setVanishingPoint(float x, float y) {
+        planner.setVanishingPoint(x, y);
+    }
+
+    /**
+     * Plans the windows of the oriented frame written in getPixels, builds the pyramid levels they are read from
+     * and runs the pre-filter over them.
+     * @return every window planned, the ones to give to the general detector are kept, none when the planner skips the
+     * frame; valid until the next call
+     */
+    public List<Window> planWindows() {
+        long stageStart = PipelineMetrics.start();
+        int[] pixels = pyramid.getPixels();
+        int stride = pyramid.getWidth();
+        List<RectF> rects = planner.plan(pixels, stride);
+        stageStart = metrics.record(PipelineMetrics.Stage.SIGN_WINDOWS, stageStart);
+        if (rects.isEmpty())
+            metrics.increment(PipelineMetrics.Counter.SIGN_FRAMES_SKIPPED);
+        // The lower levels are only resampled when a window is read from them.
+        for (RectF rect : rects) {
+            if (rect.width() > inputSize) {
+                pyramid.build();
+                stageStart = metrics.record(PipelineMetrics.Stage.PYRAMID, stageStart);
+                break;
+            }
+        }
+
+        SignPrefilter currentPrefilter = prefilter;
+        planned.clear();
+        for (int i = 0; i < rects.size(); ++i) {
+            if (windows.size() <= i)
+                windows.add(new Window());
+            Window window = windows.get(i);
+            window.rect.set(rects.get(i));
+            pyramid.toRegion(window.rect, inputSize, window.source);
+            pyramid.getBounds(window.source, window.bounds);
+            window.scale = window.rect.width() / inputSize;
+            window.kept = currentPrefilter.accept(pixels, stride, window.source);
+            metrics.increment(PipelineMetrics.Counter.SIGN_WINDOWS_CHECKED);
+            if (!window.kept)
+                metrics.increment(PipelineMetrics.Counter.SIGN_WINDOWS_REJECTED);
+            planned.add(window);
+        }
+        metrics.record(PipelineMetrics.Stage.SIGN_PREFILTER, stageStart);
+        return (planned);
+    }
+
+    /**
+     * Maps a location found by the general detector on a window to the sign rect given to the differentiator.
+     * @param location in detector input pixels, scaled in place to the frame pixels of the window
+     * @return the sign rect, in oriented frame coordinates
+     */
+    public static RectF toCandidate(Window window, RectF location) {
+        float scale = window.scale;
+        location.set(location.left * scale, location.top * scale, location.right * scale, location.bottom * scale);
+        RectF rect = SignGeometry.getSignRect(location);
+        rect.offset(window.rect.left, window.rect.top);
+        return (rect);
+    }
+
+    /** Sign rects found on the windows of the last planWindows, see SignWindowPlanner.onCandidates. */
+    public void onCandidates(List<RectF> candidates) {
+        planner.onCandidates(candidates);
+    }
+}
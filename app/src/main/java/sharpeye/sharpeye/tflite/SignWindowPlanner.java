@@ -0,0 +1,287 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Chooses the windows of the oriented frame the general sign detector runs on.
+ *
+ * The frame is covered, at every scale, by a grid of overlapping square windows: a window of scale s is
+ * windowSize / s pixels wide and is resized to the detector input, so scales below 1 find the signs too close to
+ * fit in the input and scales above 1 the ones too far to be seen at the frame resolution. Each frame, every window
+ * is scored from:
+ * <ul>
+ * <li>the sign candidates found in it by the previous detections, fading from frame to frame</li>
+ * <li>the road geometry: signs stand beside the road or on gantries above it, around and above the horizon given by
+ * the vanishing point of the tracked cars, rarely on the road surface below it</li>
+ * <li>a colour saliency map: the share of saturated red and blue pixels, the colours of the sign borders</li>
+ * <li>the frames since the window was last searched, so that every window is searched once in a while</li>
+ * </ul>
+ * and only the best maxWindows windows are searched. A window without sign colours or recent candidates is only
+ * searched on one detection out of EXPLORATION_INTERVAL, the others skip it, and skip the frame when no window is left.
+ *
+ * Kept free of any Android dependency but RectF, the planner is only used by the sign stage of the pipeline except
+ * for setVanishingPoint.
+ */
+public class SignWindowPlanner {
+
+    // Overlap of two neighbouring windows, a share of the window size.
+    private static final float WINDOW_STRIDE = 0.8f;
+    // Share of the candidate heat kept from one detection to the next.
+    private static final float HEAT_DECAY = 0.7f;
+    private static final float HEAT_WEIGHT = 2;
+    private static final float GEOMETRY_WEIGHT = 1;
+    private static final float SALIENCY_WEIGHT = 1.5f;
+    // Score gained by a window for every detection it was not searched, up to MAX_STALE_FRAMES.
+    private static final float EXPLORATION_WEIGHT = 0.05f;
+    private static final int MAX_STALE_FRAMES = 20;
+    // Detections between two searches of the windows without sign colours nor recent candidates, for the signs the
+    // saliency misses.
+    static final int EXPLORATION_INTERVAL = 4;
+    // Saliency and candidate heat a window needs to be searched between two explorations.
+    private static final float MIN_SALIENCY = 0.1f;
+    private static final float MIN_HEAT = 0.3f;
+    // Distance in pixels between two saliency samples.
+    private static final int SALIENCY_STEP = 6;
+    // A window with this share of salient samples gets the whole saliency score.
+    private static final float SALIENCY_SATURATION = 0.02f;
+    // Horizon of a phone on the dashboard, a share of the frame height, until the cars tell better.
+    private static final float DEFAULT_HORIZON = 0.45f;
+    // A candidate only heats the windows it would fit in, up to this share of their side.
+    private static final float MAX_CANDIDATE_SHARE = 0.5f;
+
+    private final int width;
+    private final int height;
+    private final int maxWindows;
+    private final List<RectF> windows = new ArrayList<>();
+    private final float[] heat;
+    private final int[] staleFrames;
+    private final float[] scores;
+    private final List<RectF> plan = new ArrayList<>();
+    // Salient samples above and on the left of every sample of the frame, one more row and column of zeros.
+    private final int saliencyColumns;
+    private final int[] salientSums;
+    // Detections since the last exploration, the first one explores.
+    private int explorationFrames = EXPLORATION_INTERVAL - 1;
+
+    private volatile float vanishingX;
+    private volatile float vanishingY;
+
+    /**
+     * @param _width width of the oriented frame
+     * @param _height height of the oriented frame
+     * @param _windowSize side of a window, the input size of the detector
+     * @param _maxWindows windows searched per frame
+     */
+    public SignWindowPlanner(int _width, int _height, int _windowSize, int _maxWindows) {
+        this(_width, _height, _windowSize, new float[] {1}, _maxWindows);
+    }
+
+    /**
+     * @param _width width of the oriented frame
+     * @param _height height of the oriented frame
+     * @param windowSize input size of the detector, the side of a window of scale 1
+     * @param windowScales scales of the windows
+     * @param _maxWindows windows searched per frame, whatever their scale
+     */
+    public SignWindowPlanner(int _width, int _height, int windowSize, float[] windowScales, int _maxWindows) {
+        width = _width;
+        height = _height;
+        maxWindows = _maxWindows;
+        vanishingX = width / 2f;
+        vanishingY = height * DEFAULT_HORIZON;
+
+        for (float scale : windowScales) {
+            int side = Math.min(Math.min(width, height), Math.round(windowSize / scale));
+            int stride = Math.max(1, (int) (side * WINDOW_STRIDE));
+            int[] xs = offsets(width, side, stride);
+            int[] ys = offsets(height, side, stride);
+            for (int y : ys) {
+                for (int x : xs) {
+                    windows.add(new RectF(x, y, x + side, y + side));
+                }
+            }
+        }
+        heat = new float[windows.size()];
+        staleFrames = new int[windows.size()];
+        scores = new float[windows.size()];
+        saliencyColumns = (width + SALIENCY_STEP - 1) / SALIENCY_STEP;
+        salientSums = new int[(saliencyColumns + 1) * ((height + SALIENCY_STEP - 1) / SALIENCY_STEP + 1)];
+    }
+
+    /** Window positions along a side, the last one aligned on the end of the frame. */
+    private static int[] offsets(int size, int windowSize, int stride) {
+        int last = Math.max(0, size - windowSize);
+        int count = last / stride + (last % stride == 0 ? 1 : 2);
+        int[] offsets = new int[count];
+        for (int i = 0; i < count - 1; ++i) {
+            offsets[i] = i * stride;
+        }
+        offsets[count - 1] = last;
+        return (offsets);
+    }
+
+    public List<RectF> getWindows() {
+        return (windows);
+    }
+
+    /** Point of the oriented frame the road goes to, set from the tracking thread. */
+    public void setVanishingPoint(float x, float y) {
+        vanishingX = x;
+        vanishingY = y;
+    }
+
+    /**
+     * Estimates the vanishing point of the road from the boxes of the vehicles in front:
+     * the furthest ones, the smallest, sit on the horizon close to where the road goes.
+     * @param out set to the estimate
+     * @return false when there is no vehicle
+     */
+    public static boolean estimateVanishingPoint(List<RectF> vehicles, float[] out) {
+        float weights = 0;
+        float x = 0;
+        float y = 0;
+        for (RectF box : vehicles) {
+            if (box.height() <= 0)
+                continue;
+            float weight = 1 / box.height();
+            x += box.centerX() * weight;
+            y += box.centerY() * weight;
+            weights += weight;
+        }
+        if (weights == 0) {
+            return (false);
+        }
+        out[0] = x / weights;
+        out[1] = y / weights;
+        return (true);
+    }
+
+    /**
+     * @param pixels ARGB pixels of the oriented frame
+     * @return the windows to search on this frame, best first, the list is reused by the next call
+     */
+    public List<RectF> plan(int[] pixels) {
+        return (plan(pixels, width));
+    }
+
+    /**
+     * @param pixels ARGB pixels of the oriented frame, row by row
+     * @param stride distance between two rows of the frame in pixels
+     * @return the windows to search on this frame, best first, empty when there is nothing worth a search; the list is
+     * reused by the next call
+     */
+    public List<RectF> plan(int[] pixels, int stride) {
+        float horizon = vanishingY;
+        float roadX = vanishingX;
+        boolean exploring = ++explorationFrames >= EXPLORATION_INTERVAL;
+        if (exploring)
+            explorationFrames = 0;
+        sumSaliency(pixels, stride);
+        for (int i = 0; i < windows.size(); ++i) {
+            RectF window = windows.get(i);
+            float windowSaliency = saliency(window);
+            if (!exploring && heat[i] < MIN_HEAT && windowSaliency < MIN_SALIENCY) {
+                scores[i] = Float.NEGATIVE_INFINITY;
+            } else {
+                scores[i] = HEAT_WEIGHT * heat[i]
+                        + GEOMETRY_WEIGHT * geometry(window, roadX, horizon)
+                        + SALIENCY_WEIGHT * windowSaliency
+                        + EXPLORATION_WEIGHT * Math.min(staleFrames[i], MAX_STALE_FRAMES);
+            }
+            heat[i] *= HEAT_DECAY;
+            ++staleFrames[i];
+        }
+
+        plan.clear();
+        for (int k = 0; k < Math.min(maxWindows, windows.size()); ++k) {
+            int best = -1;
+            for (int i = 0; i < windows.size(); ++i) {
+                if (scores[i] > Float.NEGATIVE_INFINITY && (best < 0 || scores[i] > scores[best])) {
+                    best = i;
+                }
+            }
+            if (best < 0)
+                break;
+            scores[best] = Float.NEGATIVE_INFINITY;
+            staleFrames[best] = 0;
+            plan.add(windows.get(best));
+        }
+        return (plan);
+    }
+
+    /**
+     * Heats up the windows holding the centre of a sign candidate, in oriented frame coordinates,
+     * and large enough for it.
+     */
+    public void onCandidates(List<RectF> candidates) {
+        for (RectF candidate : candidates) {
+            for (int i = 0; i < windows.size(); ++i) {
+                RectF window = windows.get(i);
+                if (window.contains(candidate.centerX(), candidate.centerY())
+                        && Math.max(candidate.width(), candidate.height()) <= MAX_CANDIDATE_SHARE * window.width()) {
+                    heat[i] = 1;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 1 for a window around or above the horizon, on the side of the road or high above it,
+     * down to 0 for the road surface
+     */
+    private float geometry(RectF window, float roadX, float horizon) {
+        float side = window.width();
+        float belowHorizon = clamp((window.centerY() - horizon - side / 2f) / side);
+        float aside = clamp(Math.abs(window.centerX() - roadX) / side);
+        float above = clamp((horizon - window.centerY()) / side);
+        return ((1 - belowHorizon) * Math.max(aside, above));
+    }
+
+    /**
+     * Samples the frame every SALIENCY_STEP pixels and sums the samples with the red or blue of a sign,
+     * so that the saliency of any window is read in constant time whatever its size.
+     */
+    private void sumSaliency(int[] pixels, int stride) {
+        int columns = saliencyColumns + 1;
+        int row = 1;
+        for (int y = 0; y < height; y += SALIENCY_STEP, ++row) {
+            int offset = y * stride;
+            int rowSum = 0;
+            int column = 1;
+            for (int x = 0; x < width; x += SALIENCY_STEP, ++column) {
+                int pixel = pixels[offset + x];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                // The blue of a sign has less than a third of red, the sky more.
+                if ((r > 110 && r * 5 > g * 8 && r * 5 > b * 8) || (b > 90 && r * 3 < b && b * 5 > g * 6)) {
+                    ++rowSum;
+                }
+                salientSums[row * columns + column] = salientSums[(row - 1) * columns + column] + rowSum;
+            }
+        }
+    }
+
+    /** @return the share of the sampled pixels with the red or blue of a sign, scaled to 1 at SALIENCY_SATURATION */
+    private float saliency(RectF window) {
+        int columns = saliencyColumns + 1;
+        int left = ((int) window.left + SALIENCY_STEP - 1) / SALIENCY_STEP;
+        int top = ((int) window.top + SALIENCY_STEP - 1) / SALIENCY_STEP;
+        int right = (Math.min(width, (int) window.right) + SALIENCY_STEP - 1) / SALIENCY_STEP;
+        int bottom = (Math.min(height, (int) window.bottom) + SALIENCY_STEP - 1) / SALIENCY_STEP;
+        int samples = (right - left) * (bottom - top);
+        if (samples <= 0) {
+            return (0);
+        }
+        int salient = salientSums[bottom * columns + right] - salientSums[top * columns + right]
+                - salientSums[bottom * columns + left] + salientSums[top * columns + left];
+        return (Math.min(1, salient / (samples * SALIENCY_SATURATION)));
+    }
+
+    private static float clamp(float value) {
+        return (Math.max(0, Math.min(1, value)));
+    }
+}
@@ -33,28 +33,70 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
     // Float model
     private static final float IMAGE_MEAN = 128.0f;
     private static final float IMAGE_STD = 128.0f;
-    // Number of threads in the java app
-    private static final int NUM_THREADS = 4;
-    private boolean isModelQuantized;
+    // Number of threads of the interpreter when the caller does not choose it
+    public static final int DEFAULT_NUM_THREADS = 4;
+    // Most images sent to the interpreter in one invocation.
+    private static final int MAX_BATCH_SIZE = 8;
     // Config values.
     private int inputSize;
+    private int numBytesPerChannel;
+    // Batch dimension of the input tensor.
+    private int batchSize = 1;
+    // Cleared the first time the model rejects a batch larger than 1.
+    private boolean batchingSupported = true;
     // Pre-allocated buffers.
     private Vector<String> labels = new Vector<String>();
     private int[] intValues;
-    // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
-    // contains the location of detected boxes
-    private float[][][] outputLocations;
-    // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
-    // contains the classes of detected boxes
-    private float[][] outputClasses;
-    // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
-    // contains the scores of detected boxes
-    private float[][] outputScores;
-    // numDetections: array of shape [Batchsize]
-    // contains the number of detected boxes
-    private float[] numDetections;
-
-    private ByteBuffer imgData;
+
+    /** Input and output buffers of the interpreter for one batch size, allocated once. */
+    private class Buffers {
+        final ByteBuffer imgData;
+        // outputLocations: array of shape [Batchsize, NUM_DETECTIONS,4]
+        // contains the location of detected boxes
+        final float[][][] outputLocations;
+        // outputClasses: array of shape [Batchsize, NUM_DETECTIONS]
+        // contains the classes of detected boxes
+        final float[][] outputClasses;
+        // outputScores: array of shape [Batchsize, NUM_DETECTIONS]
+        // contains the scores of detected boxes
+        final float[][] outputScores;
+        // numDetections: array of shape [Batchsize]
+        // contains the number of detected boxes
+        final float[] numDetections;
+        final Object[] inputArray;
+        final Map<Integer, Object> outputMap = new HashMap<>();
+
+        Buffers(int batch) {
+            imgData = ByteBuffer.allocateDirect(batch * inputSize * inputSize * 3 * numBytesPerChannel);
+            imgData.order(ByteOrder.nativeOrder());
+            outputLocations = new float[batch][NUM_DETECTIONS][4];
+            outputClasses = new float[batch][NUM_DETECTIONS];
+            outputScores = new float[batch][NUM_DETECTIONS];
+            numDetections = new float[batch];
+            inputArray = new Object[] {imgData};
+            outputMap.put(0, outputLocations);
+            outputMap.put(1, outputClasses);
+            outputMap.put(2, outputScores);
+            outputMap.put(3, numDetections);
+        }
+    }
+
+    // Buffers indexed by batch size, each one allocated the first time it is used.
+    private final Buffers[] buffersBySize = new Buffers[MAX_BATCH_SIZE + 1];
+    private Buffers buffers;
+    // Results of the last request, reused by every request.
+    private Detections detections;
+
+    // Parameters of the request being written into the input buffer.
+    private Bitmap requestBitmap;
+    private List<Bitmap> requestBitmaps;
+    private int[] requestPixels;
+    private int requestWidth;
+    private int requestHeight;
+    private List<RectF> requestRegions;
+    // Frame of every region in the image, null when the image is a single frame.
+    private List<RectF> requestBounds;
+    private ImagePreprocessor preprocessor;
 
     private Interpreter tfLite;
 
@@ -87,6 +129,22 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
             final int inputSize,
             final boolean isQuantized)
             throws IOException {
+        return (create(assetManager, modelFilename, labelFilename, inputSize, isQuantized, DEFAULT_NUM_THREADS));
+    }
+
+    /**
+     * Same as above, with the number of threads of the interpreter.
+     *
+     * @param numThreads Threads used by the interpreter for one inference
+     */
+    public static Classifier create(
+            final AssetManager assetManager,
+            final String modelFilename,
+            final String labelFilename,
+            final int inputSize,
+            final boolean isQuantized,
+            final int numThreads)
+            throws IOException {
         final TFLiteObjectDetectionAPIModel d = new TFLiteObjectDetectionAPIModel();
 
         InputStream labelsInput = null;
@@ -109,99 +167,228 @@ public class TFLiteObjectDetectionAPIModel implements Classifier {
             throw new RuntimeException(e);
         }
 
-        d.isModelQuantized = isQuantized;
         // Pre-allocate buffers.
-        int numBytesPerChannel;
         if (isQuantized) {
-            numBytesPerChannel = 1; // Quantized
+            d.numBytesPerChannel = 1; // Quantized
         } else {
-            numBytesPerChannel = 4; // Floating point
+            d.numBytesPerChannel = 4; // Floating point
         }
-        d.imgData = ByteBuffer.allocateDirect(1 * d.inputSize * d.inputSize * 3 * numBytesPerChannel);
-        d.imgData.order(ByteOrder.nativeOrder());
         d.intValues = new int[d.inputSize * d.inputSize];
+        d.preprocessor = new ImagePreprocessor(d.inputSize, isQuantized, IMAGE_MEAN, IMAGE_STD);
+        d.detections = new Detections(d.labels, NUM_DETECTIONS);
+        d.buffers = d.getBuffers(1);
 
-        d.tfLite.setNumThreads(NUM_THREADS);
-        d.outputLocations = new float[1][NUM_DETECTIONS][4];
-        d.outputClasses = new float[1][NUM_DETECTIONS];
-        d.outputScores = new float[1][NUM_DETECTIONS];
-        d.numDetections = new float[1];
+        d.tfLite.setNumThreads(numThreads);
         return d;
     }
 
-    @Override
-    public List<Recognition> recognizeImage(final Bitmap bitmap) {
-        // Log this method so that it can be analyzed with systrace.
-        Trace.beginSection("recognizeImage");
+    private Buffers getBuffers(int batch) {
+        if (buffersBySize[batch] == null) {
+            buffersBySize[batch] = new Buffers(batch);
+        }
+        return (buffersBySize[batch]);
+    }
 
-        Trace.beginSection("preprocessBitmap");
+    /** Resizes the batch dimension of the input tensor and switches to the buffers of that size. */
+    private void setBatchSize(int batch) {
+        if (batch == batchSize) {
+            return;
+        }
+        tfLite.resizeInput(0, new int[] {batch, inputSize, inputSize, 3});
+        buffers = getBuffers(batch);
+        batchSize = batch;
+    }
+
+    /** Appends one image to the input buffer, at the buffer's current position. */
+    private void preprocess(final Bitmap bitmap) {
         // Preprocess the image data from 0-255 int to normalized float based
         // on the provided parameters.
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        preprocessor.writePixels(intValues, buffers.imgData);
+    }
 
-        imgData.rewind();
-        for (int i = 0; i < inputSize; ++i) {
-            for (int j = 0; j < inputSize; ++j) {
-                int pixelValue = intValues[i * inputSize + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((pixelValue >> 16) & 0xFF));
-                    imgData.put((byte) ((pixelValue >> 8) & 0xFF));
-                    imgData.put((byte) (pixelValue & 0xFF));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
-            }
-        }
-        Trace.endSection(); // preprocessBitmap
-
-        // Copy the input data into TensorFlow.
-        Trace.beginSection("feed");
-        outputLocations = new float[1][NUM_DETECTIONS][4];
-        outputClasses = new float[1][NUM_DETECTIONS];
-        outputScores = new float[1][NUM_DETECTIONS];
-        numDetections = new float[1];
+    /** Writes the input of the image at this index of the request into the input buffer. */
+    private interface InputWriter {
+        void write(int index);
+    }
 
-        Object[] inputArray = {imgData};
-        Map<Integer, Object> outputMap = new HashMap<>();
-        outputMap.put(0, outputLocations);
-        outputMap.put(1, outputClasses);
-        outputMap.put(2, outputScores);
-        outputMap.put(3, numDetections);
-        Trace.endSection();
+    // Writers reading the request fields, so that no lambda is allocated per request.
+    private final InputWriter bitmapWriter = index -> preprocess(requestBitmap);
+    private final InputWriter bitmapsWriter = index -> preprocess(requestBitmaps.get(index));
+    private final InputWriter regionWriter = index -> {
+        RectF region = requestRegions.get(index);
+        if (requestBounds == null) {
+            preprocessor.writeRegion(requestPixels, requestWidth, requestHeight,
+                    region.left, region.top, region.right, region.bottom, buffers.imgData);
+        } else {
+            preprocessor.writeRegion(requestPixels, requestWidth, requestBounds.get(index),
+                    region.left, region.top, region.right, region.bottom, buffers.imgData);
+        }
+    };
 
+    /** Runs the interpreter over the whole input buffer. */
+    private void run() {
         // Run the inference call.
         Trace.beginSection("run");
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap);
-        Trace.endSection();
-
-        // Show the best detections.
-        // after scaling them back to the input size.
-        final ArrayList<Recognition> recognitions = new ArrayList<>(NUM_DETECTIONS);
-        for (int i = 0; i < NUM_DETECTIONS; ++i) {
-            final RectF detection =
-                    new RectF(
-                            outputLocations[0][i][1] * inputSize,
-                            outputLocations[0][i][0] * inputSize,
-                            outputLocations[0][i][3] * inputSize,
-                            outputLocations[0][i][2] * inputSize);
-            // SSD Mobilenet V1 Model assumes class 0 is background class
-            // in label file and class labels start from 1 to number_of_classes+1,
-            // while outputClasses correspond to class index from 0 to number_of_classes
-            int labelOffset = 1;
-            recognitions.add(
-                    new Recognition(
-                            "" + i,
-                            labels.get((int) outputClasses[0][i] + labelOffset),
-                            outputScores[0][i],
-                            detection));
-        }
-        Trace.endSection(); // "recognizeImage"
+        try {
+            tfLite.runForMultipleInputsOutputs(buffers.inputArray, buffers.outputMap);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /** Copies the detections of the current batch into the results, after scaling them back to the input size. */
+    private void readDetections(int count, int firstImage) {
+        for (int image = 0; image < count; ++image) {
+            for (int i = 0; i < NUM_DETECTIONS; ++i) {
+                final float[] location = buffers.outputLocations[image][i];
+                detections.set(
+                        firstImage + image,
+                        i,
+                        location[1] * inputSize,
+                        location[0] * inputSize,
+                        location[3] * inputSize,
+                        location[2] * inputSize,
+                        buffers.outputScores[image][i],
+                        (int) buffers.outputClasses[image][i]);
+            }
+        }
+    }
+
+    private List<List<Recognition>> toRecognitions(final Detections results) {
+        final List<List<Recognition>> recognitions = new ArrayList<>(results.getImageCount());
+        for (int image = 0; image < results.getImageCount(); ++image) {
+            recognitions.add(results.toRecognitions(image));
+        }
         return recognitions;
     }
 
+    @Override
+    public List<Recognition> recognizeImage(final Bitmap bitmap) {
+        // Log this method so that it can be analyzed with systrace.
+        Trace.beginSection("recognizeImage");
+        try {
+            return detectImage(bitmap).toRecognitions(0);
+        } finally {
+            Trace.endSection(); // "recognizeImage"
+        }
+    }
+
+    @Override
+    public List<List<Recognition>> recognizeImages(final List<Bitmap> bitmaps) {
+        Trace.beginSection("recognizeImages");
+        requestBitmaps = bitmaps;
+        try {
+            return toRecognitions(recognize(bitmaps.size(), bitmapsWriter));
+        } finally {
+            requestBitmaps = null;
+            Trace.endSection(); // "recognizeImages"
+        }
+    }
+
+    @Override
+    public List<List<Recognition>> recognizeRegions(final int[] pixels, final int width, final int height, final List<RectF> regions) {
+        return toRecognitions(detectRegions(pixels, width, height, regions));
+    }
+
+    @Override
+    public Detections detectImage(final Bitmap bitmap) {
+        Trace.beginSection("detectImage");
+        requestBitmap = bitmap;
+        try {
+            return recognize(1, bitmapWriter);
+        } finally {
+            requestBitmap = null;
+            Trace.endSection(); // "detectImage"
+        }
+    }
+
+    @Override
+    public Detections detectRegions(final int[] pixels, final int width, final int height, final List<RectF> regions) {
+        Trace.beginSection("detectRegions");
+        requestPixels = pixels;
+        requestWidth = width;
+        requestHeight = height;
+        requestRegions = regions;
+        try {
+            return recognize(regions.size(), regionWriter);
+        } finally {
+            requestPixels = null;
+            requestRegions = null;
+            Trace.endSection(); // "detectRegions"
+        }
+    }
+
+    @Override
+    public Detections detectRegions(final int[] pixels, final int stride, final List<RectF> regions, final List<RectF> bounds) {
+        Trace.beginSection("detectRegions");
+        requestPixels = pixels;
+        requestWidth = stride;
+        requestRegions = regions;
+        requestBounds = bounds;
+        try {
+            return recognize(regions.size(), regionWriter);
+        } finally {
+            requestPixels = null;
+            requestRegions = null;
+            requestBounds = null;
+            Trace.endSection(); // "detectRegions"
+        }
+    }
+
+    /**
+     * Runs the interpreter over a request of several inputs, in batches of up to MAX_BATCH_SIZE.
+     * @return the detections of every input, in the same order, valid until the next request
+     */
+    private Detections recognize(final int total, final InputWriter writer) {
+        detections.reset(total);
+        int index = 0;
+
+        while (index < total) {
+            int count = batchingSupported ? Math.min(MAX_BATCH_SIZE, total - index) : 1;
+            try {
+                setBatchSize(count);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                disableBatching(count, e);
+                continue;
+            }
+
+            Trace.beginSection("preprocessBitmap");
+            try {
+                buffers.imgData.rewind();
+                for (int i = 0; i < count; ++i) {
+                    writer.write(index + i);
+                }
+            } finally {
+                Trace.endSection(); // preprocessBitmap
+            }
+
+            try {
+                run();
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                disableBatching(count, e);
+                continue;
+            }
+            readDetections(count, index);
+            index += count;
+        }
+        return detections;
+    }
+
+    /**
+     * Falls back to single images once the interpreter refuses a batch, only the resize and the run
+     * can tell. The failures of a single image, or of the preprocessing, go to the caller.
+     */
+    private void disableBatching(final int count, final RuntimeException e) {
+        if (count == 1) {
+            throw e;
+        }
+        // Some detection post-processing ops only accept a batch of 1.
+        LOGGER.w("Model does not support batched inference, falling back to single images: %s", e.getMessage());
+        batchingSupported = false;
+        setBatchSize(1);
+    }
+
     @Override
     public void enableStatLogging(final boolean logStats) {}
 
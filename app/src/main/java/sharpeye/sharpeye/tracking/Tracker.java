@@ -6,17 +6,16 @@ import android.os.Parcel;
 import android.os.Parcelable;
 import android.os.SystemClock;
 import android.util.Log;
-import org.opencv.android.Utils;
-import org.opencv.core.Mat;
-import org.opencv.imgproc.Imgproc;
+import android.util.SparseArray;
 
 import sharpeye.sharpeye.signs.BipGenerator;
 import sharpeye.sharpeye.tflite.Classifier;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 public class Tracker implements Parcelable {
 
@@ -24,15 +23,30 @@ public class Tracker implements Parcelable {
         System.loadLibrary("native-lib");
     }
 
+    // Objects exchanged with the native tracker in one call at most.
+    private static final int MAX_BOXES = 64;
+    private static final int BOX_FLOATS = 4;
+
     private long trackerAddress;
-    private HashMap<Integer, Classifier.Recognition> trackedObjects;
+    private SparseArray<Classifier.Recognition> trackedObjects;
+    // Filled while trackedObjects is read, then swapped with it.
+    private SparseArray<Classifier.Recognition> nextTrackedObjects = new SparseArray<>();
+    // (x, y, width, height) of every box sent to or returned by the native tracker, and the matching ids.
+    private final FloatBuffer boxBuffer = ByteBuffer.allocateDirect(MAX_BOXES * BOX_FLOATS * 4)
+            .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private final int[] boxIds = new int[MAX_BOXES];
+    private final List<Classifier.Recognition> trackedList = new ArrayList<>();
+    // RGBA pixels of the current frame, converted to grayscale by the native tracker.
+    private ByteBuffer frameBuffer = null;
+    // Objects given to the tracker by the last detection.
+    private int detectedCount = 0;
     private boolean alertCollision;
     private BipGenerator bipGenerator;
     private long lastBip;
 
     public Tracker() {
         trackerAddress = -1;
-        trackedObjects = new HashMap<>();
+        trackedObjects = new SparseArray<>();
         alertCollision = false;
         bipGenerator = new BipGenerator();
         lastBip = SystemClock.uptimeMillis();
@@ -54,7 +68,7 @@ public class Tracker implements Parcelable {
     @SuppressWarnings("unchecked")
     private Tracker(Parcel in) {
         this.trackerAddress = in.readLong();
-        this.trackedObjects = new HashMap<>();
+        this.trackedObjects = new SparseArray<>();
         if (in.readByte() == 1) {
             int[] ids = in.createIntArray();
             List<Classifier.Recognition> recognitions = in.readArrayList(Classifier.Recognition.class.getClassLoader());
@@ -72,14 +86,13 @@ public class Tracker implements Parcelable {
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeLong(trackerAddress);
-        if (!trackedObjects.isEmpty()) {
+        if (trackedObjects.size() > 0) {
             dest.writeByte((byte)1);
             int[] ids = new int[trackedObjects.size()];
-            int i = -1;
             List<Classifier.Recognition> recognitions = new ArrayList<>();
-            for (Map.Entry<Integer, Classifier.Recognition> entry : trackedObjects.entrySet()) {
-                ids[++i] = entry.getKey();
-                recognitions.add(entry.getValue());
+            for (int i = 0; i < trackedObjects.size(); ++i) {
+                ids[i] = trackedObjects.keyAt(i);
+                recognitions.add(trackedObjects.valueAt(i));
             }
             dest.writeIntArray(ids);
             dest.writeList(recognitions);
@@ -98,71 +111,120 @@ public class Tracker implements Parcelable {
         }
     };
 
-    private Mat bitmapToMat(Bitmap bmp) {
-        Mat mat = new Mat();
-        Utils.bitmapToMat(bmp, mat);
-        Mat noAlphaMat = new Mat();
-        Imgproc.cvtColor(mat, noAlphaMat, Imgproc.COLOR_RGBA2RGB);
-        return noAlphaMat;
+    /** Copies the pixels of the frame into the buffer read by the native tracker. */
+    private void loadFrame(Bitmap frame) {
+        int size = frame.getByteCount();
+        if (frameBuffer == null || frameBuffer.capacity() < size) {
+            frameBuffer = ByteBuffer.allocateDirect(size);
+        }
+        frameBuffer.rewind();
+        frame.copyPixelsToBuffer(frameBuffer);
     }
 
-    private Classifier.Recognition findRecognitionObjectWithRect(List<Classifier.Recognition> initialList, Rect2f box) {
+    private Classifier.Recognition findRecognitionObjectWithRect(List<Classifier.Recognition> initialList, int box) {
+        float x = boxBuffer.get(box * BOX_FLOATS);
+        float y = boxBuffer.get(box * BOX_FLOATS + 1);
+        float width = boxBuffer.get(box * BOX_FLOATS + 2);
+        float height = boxBuffer.get(box * BOX_FLOATS + 3);
         for (Classifier.Recognition object: initialList) {
             RectF location = object.getLocation();
-            if (location.left == box.x && location.top == box.y &&
-                    location.width() == box.width && location.height() == box.height) {
+            if (location.left == x && location.top == y &&
+                    location.width() == width && location.height() == height) {
                 return object;
             }
         }
         throw new UnknownError("Cannot find the initial recognition object");
     }
 
-    public void track(Bitmap frame, List<Classifier.Recognition> objects) {
-        ArrayList<Rect2f> boxes = new ArrayList<>();
+    /** Replaces trackedObjects by the objects gathered in nextTrackedObjects. */
+    private void swapTrackedObjects() {
+        SparseArray<Classifier.Recognition> previous = trackedObjects;
+        trackedObjects = nextTrackedObjects;
+        nextTrackedObjects = previous;
+        nextTrackedObjects.clear();
+    }
+
+    /**
+     * @param timestamp time of the frame in milliseconds
+     */
+    public void track(Bitmap frame, List<Classifier.Recognition> objects, long timestamp) {
+        int count = 0;
         for (Classifier.Recognition object: objects) {
             RectF location = object.getLocation();
-            if (location.width() >= 2.0 && location.height() >= 2.0) {
-                Rect2f box = new Rect2f(location.left, location.top, location.width(), location.height());
-                boxes.add(box);
+            if (location.width() >= 2.0 && location.height() >= 2.0 && count < MAX_BOXES) {
+                boxBuffer.put(count * BOX_FLOATS, location.left);
+                boxBuffer.put(count * BOX_FLOATS + 1, location.top);
+                boxBuffer.put(count * BOX_FLOATS + 2, location.width());
+                boxBuffer.put(count * BOX_FLOATS + 3, location.height());
+                ++count;
             }
         }
-        Mat matFrame = bitmapToMat(frame);
-        long frameAddress = matFrame.nativeObj;
-        HashMap<Integer, Rect2f> objectIDs = addBoxes(trackerAddress, frameAddress, boxes);
-        HashMap<Integer, Classifier.Recognition> newTrackedObjects = new HashMap<>();
-        for (HashMap.Entry<Integer, Rect2f> objectID: objectIDs.entrySet()) {
-            Integer id = objectID.getKey();
-            Rect2f box = objectID.getValue();
-            Classifier.Recognition recognizedObject;
-            recognizedObject = findRecognitionObjectWithRect(objects, box);
-            recognizedObject.setOpencvID(id);
-            newTrackedObjects.put(id, recognizedObject);
+        loadFrame(frame);
+        int tracked = addBoxes(trackerAddress, frameBuffer, frame.getWidth(), frame.getHeight(), timestamp, boxBuffer, count, boxIds);
+        for (int i = 0; i < tracked; ++i) {
+            Classifier.Recognition recognizedObject = findRecognitionObjectWithRect(objects, i);
+            recognizedObject.setOpencvID(boxIds[i]);
+            nextTrackedObjects.put(boxIds[i], recognizedObject);
         }
-        trackedObjects = newTrackedObjects;
+        swapTrackedObjects();
+        detectedCount = trackedObjects.size();
     }
 
-    public List<Classifier.Recognition> update(Bitmap frame, double speed) {
-        Mat matFrame = bitmapToMat(frame);
-        long frameAddress = matFrame.nativeObj;
-        HashMap<Integer, Rect2f> objectIDs = updateBoxes(trackerAddress, frameAddress, speed);
+    /**
+     * @param timestamp time of the frame in milliseconds
+     * @return the tracked objects moved to this frame, the list is reused by the next call
+     */
+    public List<Classifier.Recognition> update(Bitmap frame, double speed, long timestamp) {
+        loadFrame(frame);
+        int tracked = updateBoxes(trackerAddress, frameBuffer, frame.getWidth(), frame.getHeight(), speed, timestamp, boxBuffer, boxIds);
         alertCollision = isDangerous(trackerAddress);
-        HashMap<Integer, Classifier.Recognition> newTrackedObjects = new HashMap<>();
-        List<Classifier.Recognition> recognitionList = new ArrayList<>();
-        for (HashMap.Entry<Integer, Rect2f> objectID: objectIDs.entrySet()) {
-            Integer id = objectID.getKey();
-            Rect2f box = objectID.getValue();
-            if (trackedObjects.containsKey(id)) {
-                Classifier.Recognition recognizedObject = trackedObjects.get(id);
-                if (recognizedObject != null) {
-                    recognizedObject.setOpencvID(id);
-                    recognizedObject.setLocation(new RectF(box.x, box.y, box.width + box.x, box.height + box.y));
-                    newTrackedObjects.put(id, recognizedObject);
-                    recognitionList.add(recognizedObject);
-                }
+        return (readTrackedObjects(tracked));
+    }
+
+    /**
+     * Moves the tracked objects along their motion without looking at the frame, much cheaper than update.
+     * @param timestamp time of the frame in milliseconds
+     * @return the tracked objects moved to this time, the list is reused by the next call
+     */
+    public List<Classifier.Recognition> predict(long timestamp) {
+        return (readTrackedObjects(predictBoxes(trackerAddress, timestamp, boxBuffer, boxIds)));
+    }
+
+    private List<Classifier.Recognition> readTrackedObjects(int tracked) {
+        trackedList.clear();
+        for (int i = 0; i < tracked; ++i) {
+            int id = boxIds[i];
+            Classifier.Recognition recognizedObject = trackedObjects.get(id);
+            if (recognizedObject != null) {
+                float x = boxBuffer.get(i * BOX_FLOATS);
+                float y = boxBuffer.get(i * BOX_FLOATS + 1);
+                recognizedObject.setOpencvID(id);
+                recognizedObject.setLocation(x, y, x + boxBuffer.get(i * BOX_FLOATS + 2), y + boxBuffer.get(i * BOX_FLOATS + 3));
+                nextTrackedObjects.put(id, recognizedObject);
+                trackedList.add(recognizedObject);
             }
         }
-        trackedObjects = newTrackedObjects;
-        return recognitionList;
+        swapTrackedObjects();
+        return trackedList;
+    }
+
+    /** Backend used for the objects of the next detections. */
+    public void setStrategy(TrackerStrategy strategy) {
+        setStrategy(trackerAddress, strategy.ordinal());
+    }
+
+    public int getTrackedCount() {
+        return (trackedObjects.size());
+    }
+
+    /**
+     * @return share of the objects of the last detection still followed, 1 when there was none
+     */
+    public float getConfidence() {
+        if (detectedCount == 0) {
+            return (1);
+        }
+        return (Math.min(1, trackedObjects.size() / (float) detectedCount));
     }
 
     public boolean isAlertCollision() {
@@ -182,24 +244,24 @@ public class Tracker implements Parcelable {
         }
     }
 
-    public static class Rect2f {
-        public float x;
-        public float y;
-        public float width;
-        public float height;
-
-        public Rect2f(float x, float y, float width, float height) {
-            this.x = x;
-            this.y = y;
-            this.width = width;
-            this.height = height;
-        }
-    }
-
     private native long createTracker();
     private native void deleteTracker(long ptr);
-    private native HashMap<Integer, Rect2f> addBoxes(long trackerAddress, long frameAddress, ArrayList<Rect2f> boxes);
-    private native HashMap<Integer, Rect2f> updateBoxes(long trackerAddress, long frameAddress, double speed);
+    /**
+     * Gives the first count boxes of the buffer to the tracker.
+     * @param frame RGBA pixels of a width x height frame
+     * @return the number of objects written back to boxes and ids
+     */
+    private native int addBoxes(long trackerAddress, ByteBuffer frame, int width, int height, long timestamp, FloatBuffer boxes, int count, int[] ids);
+    /**
+     * @param frame RGBA pixels of a width x height frame
+     * @return the number of tracked objects written to boxes and ids
+     */
+    private native int updateBoxes(long trackerAddress, ByteBuffer frame, int width, int height, double speed, long timestamp, FloatBuffer boxes, int[] ids);
+    /**
+     * @return the number of predicted objects written to boxes and ids
+     */
+    private native int predictBoxes(long trackerAddress, long timestamp, FloatBuffer boxes, int[] ids);
+    private native void setStrategy(long trackerAddress, int strategy);
     private native boolean isDangerous(long trackerAddress);
 
 }
@@ -0,0 +1,34 @@
+package sharpeye.sharpeye.tracking;
+
+/**
+ * Backends of the native tracker, from the cheapest to the most accurate,
+ * in the order of TrackerStrategy in objecttracker.hpp.
+ */
+public enum TrackerStrategy {
+    MOSSE,
+    KCF,
+    CSRT,
+    MEDIAN_FLOW,
+    OPTICAL_FLOW;
+
+    /** Value of the tracker_strategy preference choosing the strategy from the device. */
+    public static final String AUTOMATIC = "auto";
+
+    // Devices with fewer cores keep MOSSE, the only tracker fast enough next to both models.
+    private static final int KCF_MIN_CORES = 8;
+
+    /**
+     * @param value value of the tracker_strategy preference, AUTOMATIC or the name of a strategy
+     * @param cores processors of the device, used by AUTOMATIC
+     */
+    public static TrackerStrategy fromPreference(String value, int cores) {
+        if (value != null && !AUTOMATIC.equals(value)) {
+            try {
+                return (valueOf(value));
+            } catch (final IllegalArgumentException e) {
+                // Value of an older version, falls back to the automatic choice.
+            }
+        }
+        return (cores >= KCF_MIN_CORES ? KCF : MOSSE);
+    }
+}
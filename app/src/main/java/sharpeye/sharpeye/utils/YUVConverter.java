@@ -0,0 +1,65 @@
+package sharpeye.sharpeye.utils;
+
+/**
+ * YUV to RGB conversion of the camera frames, pure java so it can run off the device.
+ */
+public final class YUVConverter {
+
+    private YUVConverter() {}
+
+    // This value is 2 ^ 18 - 1, and is used to clamp the RGB values before their ranges
+    // are normalized to eight bits.
+    static final int kMaxChannelValue = 262143;
+
+    private static int YUV2RGB(int y, int u, int v) {
+        // Adjust and check YUV values
+        y = (y - 16) < 0 ? 0 : (y - 16);
+        u -= 128;
+        v -= 128;
+
+        // This is the floating point equivalent. We do the conversion in integer
+        // because some Android devices do not have floating point in hardware.
+        // nR = (int)(1.164 * nY + 2.018 * nU);
+        // nG = (int)(1.164 * nY - 0.813 * nV - 0.391 * nU);
+        // nB = (int)(1.164 * nY + 1.596 * nV);
+        int y1192 = 1192 * y;
+        int r = (y1192 + 1634 * v);
+        int g = (y1192 - 833 * v - 400 * u);
+        int b = (y1192 + 2066 * u);
+
+        // Clipping RGB values to be inside boundaries [ 0 , kMaxChannelValue ]
+        r = r > kMaxChannelValue ? kMaxChannelValue : (r < 0 ? 0 : r);
+        g = g > kMaxChannelValue ? kMaxChannelValue : (g < 0 ? 0 : g);
+        b = b > kMaxChannelValue ? kMaxChannelValue : (b < 0 ? 0 : b);
+
+        return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+    }
+
+
+    public static void convertYUV420ToARGB8888(
+            byte[] yData,
+            byte[] uData,
+            byte[] vData,
+            int width,
+            int height,
+            int yRowStride,
+            int uvRowStride,
+            int uvPixelStride,
+            int[] out) {
+
+        int yp = 0;
+        for (int j = 0; j < height; j++) {
+            int pY = yRowStride * j;
+            int pUV = uvRowStride * (j >> 1);
+
+            for (int i = 0; i < width; i++) {
+                int uv_offset = pUV + (i >> 1) * uvPixelStride;
+
+                out[yp++] = YUV2RGB(
+                        0xff & yData[pY + i],
+                        0xff & uData[uv_offset],
+                        0xff & vData[uv_offset]);
+            }
+        }
+    }
+}
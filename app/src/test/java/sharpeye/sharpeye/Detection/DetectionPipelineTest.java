@@ -0,0 +1,160 @@
+package sharpeye.sharpeye.Detection;
+
+import android.content.Context;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import sharpeye.sharpeye.tflite.FramePool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the frame slots held by the DetectionPipeline when it stops, with stages that do no work.
+ */
+public class DetectionPipelineTest {
+
+    private static final int FRAMES = 20;
+
+    private static class FakeStages implements DetectionPipeline.Stages {
+        final CountDownLatch fused = new CountDownLatch(FRAMES);
+        // Blocks the sign inference until released, whatever the interruptions.
+        volatile CountDownLatch signGate = null;
+        final CountDownLatch signStarted = new CountDownLatch(1);
+        // Reference kept on the frame as the FrameBuffer does.
+        volatile FramePool.Slot buffered = null;
+
+        @Override
+        public FrameJob createJob() {
+            return (new FrameJob(null, null, null, null));
+        }
+
+        @Override
+        public void convert(FrameJob job) {
+            job.detection = true;
+        }
+
+        @Override
+        public void onDetectionDropped() {
+        }
+
+        @Override
+        public void detectDangers(Context context, FrameJob job) {
+        }
+
+        @Override
+        public void detectSigns(Context context, FrameJob job) {
+            CountDownLatch gate = signGate;
+            if (gate == null)
+                return;
+            buffered = job.getSlot().retain();
+            signStarted.countDown();
+            boolean interrupted = false;
+            while (gate.getCount() > 0) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+
+        @Override
+        public void fuse(Context context, FrameJob job, Detector.DetectorListener listener) {
+            fused.countDown();
+        }
+    }
+
+    private static void submitFrames(DetectionPipeline pipeline, FramePool pool, int count) throws InterruptedException {
+        for (int i = 0; i < count; ++i) {
+            FramePool.Slot slot = pool.acquire();
+            if (slot != null) {
+                slot.timestamp = i;
+                pipeline.submit(slot);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void stop_releasesEverySlot() throws InterruptedException {
+        for (boolean parallel : new boolean[] {false, true}) {
+            FakeStages stages = new FakeStages();
+            FramePool pool = new FramePool(DetectionPipeline.FRAMES_IN_FLIGHT);
+            DetectionPipeline pipeline = new DetectionPipeline(stages, null, null, parallel);
+
+            pipeline.start();
+            submitFrames(pipeline, pool, FRAMES);
+            pipeline.stop();
+            assertEquals(pool.getCapacity(), pool.getFreeCount());
+
+            // Refused once stopped, and released.
+            FramePool.Slot late = pool.acquire();
+            pipeline.submit(late);
+            assertTrue(late.isFree());
+        }
+    }
+
+    @Test
+    public void stop_releasesTheSlotOfARunningSignInferenceOnce() throws InterruptedException {
+        FakeStages stages = new FakeStages();
+        stages.signGate = new CountDownLatch(1);
+        FramePool pool = new FramePool(DetectionPipeline.FRAMES_IN_FLIGHT);
+        DetectionPipeline pipeline = new DetectionPipeline(stages, null, null, true);
+
+        pipeline.start();
+        FramePool.Slot slot = pool.acquire();
+        pipeline.submit(slot);
+        assertTrue(stages.signStarted.await(5, TimeUnit.SECONDS));
+        // Gives up on the inference after its timeout and releases the slot of the job.
+        pipeline.stop();
+        assertFalse(slot.isFree());
+
+        // The inference ends after the stop, the sign stage tries to release the slot of its job as well.
+        stages.signGate.countDown();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("detection-sign"))
+                thread.join(5000);
+        }
+        assertFalse("The reference of the frame buffer was released by the job", slot.isFree());
+        stages.buffered.release();
+        assertEquals(pool.getCapacity(), pool.getFreeCount());
+    }
+
+    @Test
+    public void releaseSlot_releasesOnceFromTwoThreads() throws Exception {
+        final FramePool pool = new FramePool(1);
+        final FrameJob job = new FrameJob(null, null, null, null);
+        final CyclicBarrier barrier = new CyclicBarrier(2);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int i = 0; i < 10000 && failure.get() == null; ++i) {
+            FramePool.Slot slot = pool.acquire();
+            slot.retain();
+            job.start(slot);
+            // The sign stage and the pipeline stop, at the same time.
+            Thread other = new Thread(() -> {
+                try {
+                    barrier.await();
+                    job.releaseSlot();
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            other.start();
+            barrier.await();
+            job.releaseSlot();
+            other.join();
+            assertFalse("Slot released twice by the job", slot.isFree());
+            slot.release();
+        }
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+}
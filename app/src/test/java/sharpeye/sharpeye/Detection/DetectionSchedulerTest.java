@@ -0,0 +1,74 @@
+package sharpeye.sharpeye.Detection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the adaptive detection cadence.
+ */
+public class DetectionSchedulerTest {
+
+    @Test
+    public void interval_shortensWithSpeedMotionAndTracks() {
+        DetectionScheduler scheduler = new DetectionScheduler();
+
+        scheduler.updateTracking(50, 0, 1);
+        assertEquals(DetectionScheduler.BASE_INTERVAL_MS, scheduler.getInterval(0));
+
+        scheduler.updateTracking(80, 0, 1);
+        long fast = scheduler.getInterval(0);
+        assertTrue(fast < DetectionScheduler.BASE_INTERVAL_MS);
+        assertTrue(scheduler.getInterval(0.05f) < fast);
+
+        scheduler.updateTracking(80, 2, 1);
+        long tracking = scheduler.getInterval(0);
+        assertTrue(tracking < fast);
+        scheduler.updateTracking(80, 2, 0);
+        assertTrue(scheduler.getInterval(0) < tracking);
+    }
+
+    @Test
+    public void interval_staysWithinBounds() {
+        DetectionScheduler scheduler = new DetectionScheduler();
+
+        scheduler.updateTracking(0, 0, 1);
+        assertEquals(DetectionScheduler.MAX_INTERVAL_MS, scheduler.getInterval(0));
+        // 10 km/h and below, stopped in a traffic jam.
+        scheduler.updateTracking(10, 0, 1);
+        assertEquals(DetectionScheduler.MAX_INTERVAL_MS, scheduler.getInterval(0));
+        scheduler.updateTracking(20, 0, 1);
+        assertEquals(500, scheduler.getInterval(0));
+        // Stopped, but something moves in front of the car.
+        scheduler.updateTracking(0, 0, 1);
+        assertEquals(500, scheduler.getInterval(0.04f));
+
+        scheduler.updateTracking(250, 20, 0);
+        assertEquals(DetectionScheduler.MIN_INTERVAL_MS, scheduler.getInterval(1));
+    }
+
+    @Test
+    public void detectionDue_followsTheIntervalUntilReset() {
+        DetectionScheduler scheduler = new DetectionScheduler();
+        scheduler.updateTracking(50, 0, 1);
+
+        assertTrue(scheduler.isDetectionDue(0, 0));
+        assertFalse(scheduler.isDetectionDue(100, 0));
+        assertTrue(scheduler.isDetectionDue(200, 0));
+        assertFalse(scheduler.isDetectionDue(233, 0));
+        scheduler.reset();
+        assertTrue(scheduler.isDetectionDue(266, 0));
+    }
+
+    @Test
+    public void motion_isZeroForAStillScene() {
+        MotionEstimator estimator = new MotionEstimator();
+        byte[] frame = new byte[64 * 48];
+        assertEquals(0, estimator.update(frame, 64, 48, 64), 0);
+        assertEquals(0, estimator.update(frame, 64, 48, 64), 0);
+
+        byte[] brighter = new byte[64 * 48];
+        java.util.Arrays.fill(brighter, (byte) 51);
+        assertEquals(0.2f, estimator.update(brighter, 64, 48, 64), 1e-6);
+    }
+}
@@ -0,0 +1,83 @@
+package sharpeye.sharpeye.Detection;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the single element queue between two pipeline stages.
+ */
+public class MailboxTest {
+
+    @Test
+    public void offer_replacesTheItemNotTakenYet() throws InterruptedException {
+        Mailbox<String> mailbox = new Mailbox<>();
+
+        assertNull(mailbox.offer("first"));
+        assertEquals("first", mailbox.offer("second"));
+        assertEquals("second", mailbox.offer("third"));
+        assertEquals("third", mailbox.take());
+        assertNull(mailbox.offer("fourth"));
+        assertEquals("fourth", mailbox.take());
+    }
+
+    @Test
+    public void close_returnsTheWaitingItemAndRefusesTheNextOnes() throws InterruptedException {
+        Mailbox<String> mailbox = new Mailbox<>();
+        mailbox.offer("waiting");
+
+        assertEquals("waiting", mailbox.close());
+        assertNull(mailbox.take());
+        assertEquals("late", mailbox.offer("late"));
+        assertNull(mailbox.take());
+        assertNull(mailbox.close());
+    }
+
+    @Test
+    public void take_waitsForTheLatestItem() throws InterruptedException {
+        final Mailbox<String> mailbox = new Mailbox<>();
+        final AtomicReference<String> taken = new AtomicReference<>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(mailbox.take());
+            } catch (InterruptedException e) {
+                taken.set("interrupted");
+            }
+            done.countDown();
+        });
+        consumer.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        mailbox.offer("frame");
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("frame", taken.get());
+        consumer.join();
+    }
+
+    @Test
+    public void close_wakesUpTheConsumer() throws InterruptedException {
+        final Mailbox<String> mailbox = new Mailbox<>();
+        final AtomicReference<String> taken = new AtomicReference<>("none");
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(mailbox.take());
+            } catch (InterruptedException e) {
+                taken.set("interrupted");
+            }
+            done.countDown();
+        });
+        consumer.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        assertNull(mailbox.close());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(taken.get());
+        consumer.join();
+    }
+}
@@ -0,0 +1,57 @@
+package sharpeye.sharpeye.Detection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the threads given to the interpreters of each model family.
+ */
+public class ThreadBudgetTest {
+
+    private static void assertBudget(int danger, int sign, ThreadBudget budget) {
+        assertEquals(budget.toString(), danger, budget.danger);
+        assertEquals(budget.toString(), sign, budget.sign);
+    }
+
+    private static ThreadBudget automatic(int cores, boolean parallel) {
+        return (ThreadBudget.resolve(cores, parallel, ThreadBudget.AUTOMATIC, ThreadBudget.AUTOMATIC));
+    }
+
+    @Test
+    public void parallel_sharesTheCores() {
+        assertBudget(1, 1, automatic(1, true));
+        assertBudget(1, 1, automatic(2, true));
+        assertBudget(2, 2, automatic(4, true));
+        assertBudget(4, 4, automatic(8, true));
+        // Odd counts leave the extra core to the sign models.
+        assertBudget(1, 2, automatic(3, true));
+    }
+
+    @Test
+    public void sequential_givesEveryModelTheCoresUpToFour() {
+        assertBudget(1, 1, automatic(1, false));
+        assertBudget(2, 2, automatic(2, false));
+        assertBudget(4, 4, automatic(4, false));
+        assertBudget(4, 4, automatic(8, false));
+    }
+
+    @Test
+    public void unknownCores_countAsOne() {
+        assertBudget(1, 1, automatic(0, true));
+        assertBudget(1, 1, automatic(0, false));
+    }
+
+    @Test
+    public void override_replacesTheAutomaticBudgetOfItsModel() {
+        assertBudget(6, 4, ThreadBudget.resolve(8, true, 6, ThreadBudget.AUTOMATIC));
+        assertBudget(2, 3, ThreadBudget.resolve(4, true, ThreadBudget.AUTOMATIC, 3));
+        // Past the automatic cap and the cores, as the user asked.
+        assertBudget(8, 8, ThreadBudget.resolve(2, false, 8, 8));
+    }
+
+    @Test
+    public void override_isClamped() {
+        assertBudget(ThreadBudget.MAX_THREADS, 1, ThreadBudget.resolve(8, true, 12, -1));
+    }
+}
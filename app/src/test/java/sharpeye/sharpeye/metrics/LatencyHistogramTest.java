@@ -0,0 +1,67 @@
+package sharpeye.sharpeye.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the lock-free latency histogram.
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketIndex_isMonotonicAndBoundsValues() {
+        int previous = 0;
+        for (long value = 0; value < 1L << 20; value += 7) {
+            int index = LatencyHistogram.indexOf(value);
+            assertTrue(index >= previous);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= value);
+            assertTrue(LatencyHistogram.highestValueAt(index) - value <= value / 16);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; ++i) {
+            histogram.record(i * 1000);
+        }
+
+        LatencyHistogram.HistogramSnapshot snapshot = histogram.snapshot(false);
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500500, snapshot.getMean());
+        assertEquals(500000, snapshot.getPercentile(50), 500000 / 16.0);
+        assertEquals(990000, snapshot.getPercentile(99), 990000 / 16.0);
+        assertEquals(1000000, snapshot.getPercentile(100));
+    }
+
+    @Test
+    public void snapshotAndReset_countsEverySampleOnce() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int samples = 250000;
+        Thread[] writers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            writers[t] = new Thread(() -> {
+                for (int i = 0; i < samples; ++i) {
+                    histogram.record(i);
+                }
+            });
+            writers[t].start();
+        }
+
+        long count = 0;
+        boolean running = true;
+        while (running) {
+            running = false;
+            for (Thread writer : writers) {
+                running |= writer.isAlive();
+            }
+            count += histogram.snapshot(true).getCount();
+        }
+        count += histogram.snapshot(true).getCount();
+        assertEquals((long) threads * samples, count);
+    }
+}
@@ -0,0 +1,199 @@
+package sharpeye.sharpeye.tflite;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the FrameBuffer ring, including a stress test of the camera / inference threads.
+ */
+public class FrameBufferTest {
+
+    private static final int INTERVAL = 100;
+
+    private FramePool.Slot newSlot(FramePool pool, long timestamp) {
+        FramePool.Slot slot = pool.acquire();
+        assertNotNull("Frame pool exhausted", slot);
+        slot.timestamp = timestamp;
+        return slot;
+    }
+
+    private void addFrame(FrameBuffer buffer, FramePool pool, long timestamp) {
+        FramePool.Slot slot = newSlot(pool, timestamp);
+        buffer.addFrame(slot);
+        slot.release();
+    }
+
+    @Test
+    public void lookup_matchesNeighbouringFrames() {
+        FramePool pool = new FramePool(10);
+        FrameBuffer buffer = new FrameBuffer(8);
+        for (long t = 1000; t <= 1500; t += INTERVAL) {
+            addFrame(buffer, pool, t);
+        }
+
+        assertEquals(1100, buffer.getPreviousBufferedFrame(1150).timestamp);
+        assertEquals(1100, buffer.getPreviousBufferedFrame(1200).timestamp);
+        assertEquals(1000, buffer.getPreviousBufferedFrame(0).timestamp);
+        assertNull(buffer.getPreviousBufferedFrame(1600));
+
+        assertEquals(1300, buffer.getNextBufferedFrame(1200).timestamp);
+        assertEquals(1100, buffer.getNextBufferedFrame(0).timestamp);
+        assertNull(buffer.getNextBufferedFrame(1500));
+    }
+
+    @Test
+    public void addFrame_dropsNewFramesWhenFull() {
+        FramePool pool = new FramePool(6);
+        FrameBuffer buffer = new FrameBuffer(4);
+        for (long t = 1000; t < 1600; t += INTERVAL) {
+            addFrame(buffer, pool, t);
+        }
+
+        assertEquals(4, buffer.getSize());
+        assertEquals(2, buffer.getDroppedCount());
+        assertFalse(buffer.isBufferingDue(2000));
+        assertEquals(2, pool.getFreeCount());
+
+        buffer.deleteUntil(1100);
+        assertEquals(2, buffer.getSize());
+        assertEquals(2, buffer.getDeletedCount());
+        assertEquals(4, pool.getFreeCount());
+        assertTrue(buffer.isBufferingDue(2000));
+    }
+
+    @Test
+    public void deleteUntil_keepsTwoFrames() {
+        FramePool pool = new FramePool(6);
+        FrameBuffer buffer = new FrameBuffer(4);
+        for (long t = 1000; t < 1400; t += INTERVAL) {
+            addFrame(buffer, pool, t);
+        }
+
+        buffer.deleteUntil(Long.MAX_VALUE);
+        assertEquals(2, buffer.getSize());
+        assertEquals(1200, buffer.getPreviousBufferedFrame(1300).timestamp);
+    }
+
+    /** A camera frame buffered and processed by the inference thread, as the DetectionPipeline does. */
+    private void processFrame(FrameBuffer buffer, FramePool pool, long timestamp) {
+        FramePool.Slot slot = newSlot(pool, timestamp);
+        if (buffer.isBufferingDue(timestamp))
+            buffer.addFrame(slot);
+        buffer.setDetectionFrame(slot);
+        slot.release();
+    }
+
+    @Test
+    public void setDetectionFrame_releasesTheFramesOlderThanTheHistory() {
+        FramePool pool = new FramePool(12);
+        FrameBuffer buffer = new FrameBuffer(8);
+        // Twice the capacity without any sign verification deleting a frame.
+        for (long t = 1000; t < 2600; t += INTERVAL) {
+            processFrame(buffer, pool, t);
+        }
+
+        // 400 ms of history for 8 frames, the frame of 2500 is added before the trim.
+        assertEquals(0, buffer.getDroppedCount());
+        assertEquals(4, buffer.getSize());
+        assertEquals(2200, buffer.getPreviousBufferedFrame(2250).timestamp);
+        assertEquals(5, buffer.getPeakSize());
+    }
+
+    @Test
+    public void verification_progressesAfterTheRingFilled() {
+        FramePool pool = new FramePool(12);
+        FrameBuffer buffer = new FrameBuffer(8);
+        long t = 1000;
+        for (; t < 3000; t += INTERVAL) {
+            processFrame(buffer, pool, t);
+        }
+
+        // A sign found on this frame, locking the deletions, then verified on the frames around it.
+        long detection = t;
+        processFrame(buffer, pool, detection);
+        buffer.saveTimeStamp();
+        buffer.setDeleteLocked(true);
+        FrameBuffer.Frame previous = buffer.getPreviousBufferedFrame(detection);
+        assertNotNull(previous);
+        assertNotNull(buffer.getPreviousBufferedFrame(previous.timestamp));
+        processFrame(buffer, pool, detection + INTERVAL);
+        FrameBuffer.Frame next = buffer.getNextBufferedFrame(detection);
+        assertNotNull(next);
+        assertEquals(detection + INTERVAL, next.timestamp);
+
+        buffer.deleteUntil(detection);
+        buffer.setDeleteLocked(false);
+        assertEquals(0, buffer.getDroppedCount());
+        assertEquals(2, buffer.getSize());
+    }
+
+    @Test
+    public void concurrentCameraAndInference_seeConsistentSnapshots() throws InterruptedException {
+        final int frames = 1000000;
+        final FramePool pool = new FramePool(FrameBuffer.DEFAULT_CAPACITY + 3);
+        final FrameBuffer buffer = new FrameBuffer();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        Thread camera = new Thread(() -> {
+            try {
+                start.await();
+                for (int i = 1; i <= frames && failure.get() == null; ++i) {
+                    long timestamp = (long) i * INTERVAL;
+                    if (!buffer.isBufferingDue(timestamp))
+                        continue;
+                    FramePool.Slot slot = pool.acquire();
+                    if (slot == null)
+                        continue;
+                    slot.timestamp = timestamp;
+                    buffer.addFrame(slot);
+                    slot.release();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "camera");
+
+        Thread inference = new Thread(() -> {
+            try {
+                start.await();
+                long cursor = 0;
+                while (camera.isAlive() && failure.get() == null) {
+                    FrameBuffer.Frame previous = buffer.getPreviousBufferedFrame(cursor);
+                    FrameBuffer.Frame next = buffer.getNextBufferedFrame(cursor);
+                    if (previous != null) {
+                        assertEquals("Frame slot reused while buffered", previous.timestamp, previous.slot.timestamp);
+                        assertFalse(previous.slot.isFree());
+                    }
+                    if (next != null) {
+                        assertEquals("Frame slot reused while buffered", next.timestamp, next.slot.timestamp);
+                        assertTrue(next.timestamp > cursor);
+                        if (previous != null)
+                            assertTrue(previous.timestamp < next.timestamp);
+                        cursor = next.timestamp;
+                    }
+                    int size = buffer.getSize();
+                    assertTrue(size >= 0 && size <= buffer.getCapacity());
+                    buffer.deleteUntil(cursor - 3 * INTERVAL);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "inference");
+
+        camera.start();
+        inference.start();
+        start.countDown();
+        camera.join();
+        inference.join();
+
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        assertEquals(buffer.getBufferedCount(), buffer.getDeletedCount() + buffer.getSize());
+        assertEquals(pool.getCapacity() - buffer.getSize(), pool.getFreeCount());
+    }
+}
@@ -0,0 +1,69 @@
+package sharpeye.sharpeye.tflite;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the sampling of the model inputs at the border of the frame.
+ */
+public class ImagePreprocessorTest {
+
+    private static final int INPUT_SIZE = 30;
+
+    private static int red(ByteBuffer out, int x, int y) {
+        return (out.get((y * INPUT_SIZE + x) * 3) & 0xFF);
+    }
+
+    @Test
+    public void upscaledRegion_repeatsTheBorderPixels() {
+        int[] frame = new int[20 * 20];
+        Arrays.fill(frame, 0xFFC80000);
+        ImagePreprocessor preprocessor = new ImagePreprocessor(INPUT_SIZE, true, 128, 128);
+        ByteBuffer out = ByteBuffer.allocate(INPUT_SIZE * INPUT_SIZE * 3);
+
+        preprocessor.writeRegion(frame, 20, 20, 0, 0, 20, 20, out);
+        for (int i = 0; i < INPUT_SIZE; ++i) {
+            assertEquals(200, red(out, i, 0), 1);
+            assertEquals(200, red(out, i, INPUT_SIZE - 1), 1);
+            assertEquals(200, red(out, 0, i), 1);
+            assertEquals(200, red(out, INPUT_SIZE - 1, i), 1);
+        }
+    }
+
+    @Test
+    public void regionOutsideOfTheFrame_isBlack() {
+        int[] frame = new int[20 * 20];
+        Arrays.fill(frame, 0xFFC80000);
+        ImagePreprocessor preprocessor = new ImagePreprocessor(INPUT_SIZE, true, 128, 128);
+        ByteBuffer out = ByteBuffer.allocate(INPUT_SIZE * INPUT_SIZE * 3);
+
+        // The right half of the region lies outside of the frame.
+        preprocessor.writeRegion(frame, 20, 20, 10, 0, 30, 20, out);
+        assertEquals(200, red(out, 0, 0), 1);
+        assertEquals(200, red(out, INPUT_SIZE / 2 - 2, INPUT_SIZE / 2), 1);
+        assertEquals(0, red(out, INPUT_SIZE / 2 + 2, INPUT_SIZE / 2));
+        assertEquals(0, red(out, INPUT_SIZE - 1, INPUT_SIZE - 1));
+    }
+
+    @Test
+    public void frameInALargerImage_isBlackPastItsBorder() {
+        // A 20x20 frame in the left of a 30 pixels wide image, the rest of the image is blue.
+        int[] image = new int[30 * 20];
+        Arrays.fill(image, 0xFF0000C8);
+        for (int y = 0; y < 20; ++y) {
+            Arrays.fill(image, y * 30, y * 30 + 20, 0xFFC80000);
+        }
+        ImagePreprocessor preprocessor = new ImagePreprocessor(INPUT_SIZE, true, 128, 128);
+        ByteBuffer out = ByteBuffer.allocate(INPUT_SIZE * INPUT_SIZE * 3);
+
+        preprocessor.writeRegion(image, 0, 30, 20, 20, 10, 0, 30, 20, out);
+        assertEquals(200, red(out, INPUT_SIZE / 2 - 1, INPUT_SIZE / 2), 1);
+        assertEquals(0, out.get(((INPUT_SIZE / 2) * INPUT_SIZE + INPUT_SIZE / 2 - 1) * 3 + 2));
+        assertEquals(0, red(out, INPUT_SIZE / 2 + 2, INPUT_SIZE / 2));
+        assertEquals(0, out.get(((INPUT_SIZE / 2) * INPUT_SIZE + INPUT_SIZE - 1) * 3 + 2));
+    }
+}
@@ -0,0 +1,121 @@
+package sharpeye.sharpeye.benchmark;
+
+import android.graphics.RectF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import sharpeye.sharpeye.tflite.CropTracker;
+import sharpeye.sharpeye.tflite.ImagePyramid;
+import sharpeye.sharpeye.tflite.SignGeometry;
+import sharpeye.sharpeye.tflite.SignPrefilter;
+import sharpeye.sharpeye.tflite.SignWindowPlanner;
+
+/**
+ * Sliding windows of the sign detection and the box arithmetic around them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CropBenchmark {
+
+    private static final int INPUT_SIZE = 300;
+    // Oriented preview frame.
+    private static final int WIDTH = FrameRecording.DEFAULT_HEIGHT;
+    private static final int HEIGHT = FrameRecording.DEFAULT_WIDTH;
+    private static final int BOXES = 10;
+
+    private CropTracker cropTracker;
+    private RectF[] boxes;
+    private SignWindowPlanner windowPlanner;
+    private ImagePyramid pyramid;
+    private int[] pixels;
+    private List<RectF> candidates;
+    private SignPrefilter prefilter;
+
+    @Setup
+    public void setUp() {
+        // Same windows as SignDetector.detectSign.
+        cropTracker = new CropTracker(CropTracker.Direction.Vertical, WIDTH, HEIGHT, INPUT_SIZE, (int)(INPUT_SIZE * 0.8f), true, (int)(INPUT_SIZE * 0.8f) + INPUT_SIZE + 2, 170);
+        cropTracker.setOffPos(WIDTH - INPUT_SIZE);
+
+        Random random = new Random(42);
+        boxes = new RectF[BOXES];
+        for (int i = 0; i < BOXES; ++i) {
+            float left = random.nextFloat() * INPUT_SIZE;
+            float top = random.nextFloat() * INPUT_SIZE;
+            boxes[i] = new RectF(left, top, left + 10 + random.nextFloat() * 80, top + 10 + random.nextFloat() * 80);
+        }
+
+        // Same scales as the SignSearch of the SignDetector.
+        pyramid = new ImagePyramid(WIDTH, HEIGHT, INPUT_SIZE);
+        float[] levelScales = pyramid.getScales();
+        float[] windowScales = new float[levelScales.length + 1];
+        windowScales[0] = 1.5f;
+        System.arraycopy(levelScales, 0, windowScales, 1, levelScales.length);
+        windowPlanner = new SignWindowPlanner(WIDTH, HEIGHT, INPUT_SIZE, windowScales, 2);
+        pixels = pyramid.getPixels();
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                pixels[y * pyramid.getWidth() + x] = 0xFF000000 | random.nextInt(0x1000000);
+            }
+        }
+        pyramid.build();
+        candidates = Arrays.asList(boxes);
+        prefilter = new SignPrefilter(SignPrefilter.Target.BALANCED, INPUT_SIZE);
+    }
+
+    @Benchmark
+    public void cropTrackerWindows(Blackhole blackhole) {
+        cropTracker.cancelTarget();
+        while (cropTracker.hasNextOffset()) {
+            cropTracker.updateTrack();
+            blackhole.consume(cropTracker.getCropRect());
+        }
+        cropTracker.resetOffset();
+    }
+
+    /** The candidate boxes of one window. */
+    @Benchmark
+    public void signRects(Blackhole blackhole) {
+        for (RectF box : boxes) {
+            RectF rect = SignGeometry.getSignRect(box);
+            SignGeometry.adaptLocationsToCropSize(INPUT_SIZE, INPUT_SIZE, rect, HEIGHT, WIDTH);
+            blackhole.consume(rect);
+        }
+    }
+
+    /** Choice of the windows of one frame, as SignSearch.planWindows does it. */
+    @Benchmark
+    public void signWindowPlan(Blackhole blackhole) {
+        blackhole.consume(windowPlanner.plan(pixels, pyramid.getWidth()));
+        windowPlanner.onCandidates(candidates);
+    }
+
+    /** Pre-filter of the windows of one frame, the random pixels go through every stage. */
+    @Benchmark
+    public void signPrefilter(Blackhole blackhole) {
+        RectF source = new RectF();
+        for (RectF window : windowPlanner.getWindows()) {
+            blackhole.consume(prefilter.accept(pixels, pyramid.getWidth(), pyramid.toRegion(window, INPUT_SIZE, source)));
+        }
+    }
+
+    /** Downscaled levels of one frame. */
+    @Benchmark
+    public void pyramidBuild(Blackhole blackhole) {
+        pyramid.build();
+        blackhole.consume(pixels);
+    }
+}
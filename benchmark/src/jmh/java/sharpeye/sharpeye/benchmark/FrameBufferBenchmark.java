@@ -0,0 +1,69 @@
+package sharpeye.sharpeye.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import sharpeye.sharpeye.tflite.FrameBuffer;
+import sharpeye.sharpeye.tflite.FramePool;
+
+/**
+ * Buffering of the camera frames and lookups of the sign verification.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameBufferBenchmark {
+
+    private static final long INTERVAL = 100;
+
+    private FrameRecording recording;
+    private FramePool pool;
+    private FrameBuffer buffer;
+    private FrameBuffer fullBuffer;
+    private long timestamp = 0;
+    private long lookupTimestamp = 0;
+
+    @Setup
+    public void setUp() throws IOException {
+        recording = FrameRecording.fromSystemProperty(1);
+        pool = new FramePool(2 * FrameBuffer.DEFAULT_CAPACITY + 3);
+        buffer = new FrameBuffer();
+        fullBuffer = new FrameBuffer();
+        for (int i = 0; i < FrameBuffer.DEFAULT_CAPACITY; ++i) {
+            FramePool.Slot slot = pool.acquire();
+            slot.timestamp = (i + 1) * INTERVAL;
+            fullBuffer.addFrame(slot);
+            slot.release();
+        }
+    }
+
+    /** Camera thread: one frame copied into the pool and buffered, the oldest frames released. */
+    @Benchmark
+    public FrameBuffer addAndDelete() {
+        timestamp += INTERVAL;
+        FramePool.Slot slot = pool.acquire();
+        recording.fillSlot(recording.get(0), slot);
+        slot.timestamp = timestamp;
+        buffer.addFrame(slot);
+        slot.release();
+        buffer.deleteUntil(timestamp - 3 * INTERVAL);
+        return (buffer);
+    }
+
+    /** Inference thread: the frames surrounding a detection, in a full history. */
+    @Benchmark
+    public long lookup() {
+        lookupTimestamp = (lookupTimestamp + 37) % ((FrameBuffer.DEFAULT_CAPACITY + 1) * INTERVAL);
+        FrameBuffer.Frame previous = fullBuffer.getPreviousBufferedFrame(lookupTimestamp);
+        FrameBuffer.Frame next = fullBuffer.getNextBufferedFrame(lookupTimestamp);
+        return ((previous != null ? previous.timestamp : 0) + (next != null ? next.timestamp : 0));
+    }
+}
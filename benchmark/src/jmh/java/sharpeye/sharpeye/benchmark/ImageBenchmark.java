@@ -0,0 +1,98 @@
+package sharpeye.sharpeye.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import sharpeye.sharpeye.tflite.ImagePreprocessor;
+
+/**
+ * YUV to ARGB conversion of the camera frames and writing of the model inputs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ImageBenchmark {
+
+    private static final int INPUT_SIZE = 300;
+    private static final float IMAGE_MEAN = 128.0f;
+    private static final float IMAGE_STD = 128.0f;
+
+    private FrameRecording recording;
+    private int frameIndex = 0;
+    private int[] argb;
+    private int[] resized;
+    private ImagePreprocessor quantizedPreprocessor;
+    private ImagePreprocessor floatPreprocessor;
+    private ByteBuffer quantizedInput;
+    private ByteBuffer floatInput;
+
+    @Setup
+    public void setUp() throws IOException {
+        recording = FrameRecording.fromSystemProperty(30);
+        argb = new int[recording.width * recording.height];
+        recording.toArgb(recording.get(0), argb);
+        resized = new int[INPUT_SIZE * INPUT_SIZE];
+        for (int i = 0; i < resized.length; ++i) {
+            int row = Math.min(i / INPUT_SIZE, recording.height - 1);
+            int column = Math.min(i % INPUT_SIZE, recording.width - 1);
+            resized[i] = argb[row * recording.width + column];
+        }
+        quantizedPreprocessor = new ImagePreprocessor(INPUT_SIZE, true, IMAGE_MEAN, IMAGE_STD);
+        floatPreprocessor = new ImagePreprocessor(INPUT_SIZE, false, IMAGE_MEAN, IMAGE_STD);
+        quantizedInput = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3).order(ByteOrder.nativeOrder());
+        floatInput = ByteBuffer.allocateDirect(INPUT_SIZE * INPUT_SIZE * 3 * 4).order(ByteOrder.nativeOrder());
+    }
+
+    private FrameRecording.Frame nextFrame() {
+        frameIndex = (frameIndex + 1) % recording.size();
+        return (recording.get(frameIndex));
+    }
+
+    @Benchmark
+    public int[] convertYUV420ToARGB8888() {
+        return (recording.toArgb(nextFrame(), argb));
+    }
+
+    /** Input already at the model size, as for the danger detector. */
+    @Benchmark
+    public ByteBuffer writePixelsQuantized() {
+        quantizedInput.rewind();
+        quantizedPreprocessor.writePixels(resized, quantizedInput);
+        return (quantizedInput);
+    }
+
+    @Benchmark
+    public ByteBuffer writePixelsFloat() {
+        floatInput.rewind();
+        floatPreprocessor.writePixels(resized, floatInput);
+        return (floatInput);
+    }
+
+    /** Sliding window of the model size, the copy path of the sign detector. */
+    @Benchmark
+    public ByteBuffer writeWindowQuantized() {
+        quantizedInput.rewind();
+        quantizedPreprocessor.writeRegion(argb, recording.width, recording.height,
+                recording.width - INPUT_SIZE, 0, recording.width, INPUT_SIZE, quantizedInput);
+        return (quantizedInput);
+    }
+
+    /** Candidate sign resized to the model size, the bilinear path of the sign detector. */
+    @Benchmark
+    public ByteBuffer writeCandidateQuantized() {
+        quantizedInput.rewind();
+        quantizedPreprocessor.writeRegion(argb, recording.width, recording.height,
+                100.5f, 40.25f, 164.5f, 104.25f, quantizedInput);
+        return (quantizedInput);
+    }
+}
@@ -0,0 +1,61 @@
+package sharpeye.sharpeye.benchmark;
+
+import android.graphics.RectF;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import sharpeye.sharpeye.Detection.RecognitionFilter;
+import sharpeye.sharpeye.tflite.Classifier;
+
+/**
+ * Filtering of the recognitions of one frame by Detector.detect.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RecognitionFilterBenchmark {
+
+    private static final String[] TITLES = {"person", "car", "bicycle", "truck", "dog"};
+    // Results of the detection models.
+    private static final int RECOGNITIONS = 10;
+
+    private final List<Classifier.Recognition> recognitions = new ArrayList<>(RECOGNITIONS);
+    private final List<Classifier.Recognition> results = new ArrayList<>(RECOGNITIONS);
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < RECOGNITIONS; ++i) {
+            // Some boxes partly out of the frame, as the models return them.
+            float left = random.nextFloat() * 320 - 20;
+            float top = random.nextFloat() * 320 - 20;
+            recognitions.add(new Classifier.Recognition("" + i, TITLES[i % TITLES.length], random.nextFloat(),
+                    new RectF(left, top, left + random.nextFloat() * 200, top + random.nextFloat() * 200)));
+        }
+    }
+
+    @Benchmark
+    public List<Classifier.Recognition> filterSigns() {
+        results.clear();
+        RecognitionFilter.filterSigns(recognitions, results);
+        return (results);
+    }
+
+    @Benchmark
+    public List<Classifier.Recognition> filterDangers() {
+        results.clear();
+        RecognitionFilter.filterDangers(recognitions, 0.6f, results);
+        return (results);
+    }
+}
@@ -0,0 +1,65 @@
+package sharpeye.sharpeye.benchmark;
+
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import sharpeye.sharpeye.tflite.Classifier;
+
+/**
+ * Finds the bounding box of the red pixels of each image, a cheap deterministic model
+ * giving the sign path something to verify when the recording has no model outputs.
+ */
+public class ColorBlobModel implements ReplayModel {
+
+    // Pixels sampled along each axis.
+    private static final int STEP = 2;
+    private static final int MINIMUM_PIXELS = 20;
+
+    private final int inputSize;
+    private final String title;
+
+    public ColorBlobModel(int _inputSize, String _title) {
+        inputSize = _inputSize;
+        title = _title;
+    }
+
+    @Override
+    public void detect(int frameIndex, int firstImage, ByteBuffer input, int count, List<List<Classifier.Recognition>> out) {
+        int imageSize = inputSize * inputSize * 3;
+
+        for (int image = 0; image < count; ++image) {
+            int base = image * imageSize;
+            int left = inputSize;
+            int top = inputSize;
+            int right = -1;
+            int bottom = -1;
+            int pixels = 0;
+
+            for (int y = 0; y < inputSize; y += STEP) {
+                for (int x = 0; x < inputSize; x += STEP) {
+                    int offset = base + (y * inputSize + x) * 3;
+                    int r = input.get(offset) & 0xFF;
+                    int g = input.get(offset + 1) & 0xFF;
+                    int b = input.get(offset + 2) & 0xFF;
+                    if (r > 150 && g < 90 && b < 90) {
+                        left = Math.min(left, x);
+                        top = Math.min(top, y);
+                        right = Math.max(right, x + STEP);
+                        bottom = Math.max(bottom, y + STEP);
+                        ++pixels;
+                    }
+                }
+            }
+
+            List<Classifier.Recognition> recognitions = new ArrayList<>(1);
+            if (pixels >= MINIMUM_PIXELS) {
+                float fill = (float) (pixels * STEP * STEP) / ((right - left) * (bottom - top));
+                recognitions.add(new Classifier.Recognition("0", title, Math.min(1.0f, 0.2f + fill), new RectF(left, top, right, bottom)));
+            }
+            out.add(recognitions);
+        }
+    }
+}
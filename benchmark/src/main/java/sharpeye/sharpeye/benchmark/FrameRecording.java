@@ -0,0 +1,271 @@
+package sharpeye.sharpeye.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import sharpeye.sharpeye.tflite.FramePool;
+import sharpeye.sharpeye.utils.YUVConverter;
+
+/**
+ * Sequence of camera frames loaded from a recording directory, or generated when there is none.
+ *
+ * A recording directory contains:
+ * <ul>
+ * <li>recording.properties: width, height and format, either yuv420p (the default) or argb</li>
+ * <li>the frames, one raw file each: planar I420 for yuv420p, big endian 0xAARRGGBB ints for argb</li>
+ * <li>frames.csv (optional): one "timestamp_ms,file[,speed_kmh]" line per frame, lines starting with # are ignored.
+ * Without it every .yuv or .argb file of the directory is used in name order, 30 frames per second.</li>
+ * </ul>
+ * For example from a dashcam video:
+ * ffmpeg -i drive.mp4 -s 640x480 -pix_fmt yuv420p -f image2 -c:v rawvideo frame_%05d.yuv
+ */
+public class FrameRecording {
+
+    public static final String RECORDING_PROPERTY = "sharpeye.recording";
+    public static final int DEFAULT_WIDTH = 640;
+    public static final int DEFAULT_HEIGHT = 480;
+    private static final long DEFAULT_FRAME_INTERVAL_MS = 33;
+    // Synthetic frames between two signs, and the ones of them showing the sign.
+    private static final int SIGN_PASS_FRAMES = 90;
+    private static final int SIGN_VISIBLE_FRAMES = 45;
+
+    public static class Frame {
+        public final long timestamp;
+        // Speed of the car in km/h, NaN when the recording has none.
+        public final float speed;
+        final byte[][] planes;
+        final int[] argb;
+
+        Frame(long _timestamp, float _speed, byte[][] _planes, int[] _argb) {
+            timestamp = _timestamp;
+            speed = _speed;
+            planes = _planes;
+            argb = _argb;
+        }
+
+        /** Same frame replayed at another timestamp. */
+        public Frame(Frame other, long _timestamp) {
+            this(_timestamp, other.speed, other.planes, other.argb);
+        }
+
+        public boolean hasSpeed() {
+            return (!Float.isNaN(speed));
+        }
+    }
+
+    public final int width;
+    public final int height;
+    public final boolean yuv;
+    private final List<Frame> frames;
+
+    private FrameRecording(int _width, int _height, boolean _yuv, List<Frame> _frames) {
+        width = _width;
+        height = _height;
+        yuv = _yuv;
+        frames = _frames;
+    }
+
+    public int size() {
+        return (frames.size());
+    }
+
+    public Frame get(int index) {
+        return (frames.get(index));
+    }
+
+    /**
+     * Copies a frame into a pool slot, the same way the camera thread does.
+     * An ARGB recording is converted to YUV once, when loaded.
+     */
+    public void fillSlot(Frame frame, FramePool.Slot slot) {
+        for (int i = 0; i < 3; ++i) {
+            slot.copyPlane(i, ByteBuffer.wrap(frame.planes[i]));
+        }
+        slot.setLayout(width, height, width, width / 2, 1);
+        slot.timestamp = frame.timestamp;
+    }
+
+    /**
+     * @param out array of at least width * height pixels
+     * @return out
+     */
+    public int[] toArgb(Frame frame, int[] out) {
+        if (frame.argb != null) {
+            System.arraycopy(frame.argb, 0, out, 0, width * height);
+        } else {
+            YUVConverter.convertYUV420ToARGB8888(frame.planes[0], frame.planes[1], frame.planes[2],
+                    width, height, width, width / 2, 1, out);
+        }
+        return (out);
+    }
+
+    /**
+     * Loads the recording named by the sharpeye.recording system property,
+     * or generates count synthetic frames when the property is not set.
+     */
+    public static FrameRecording fromSystemProperty(int count) throws IOException {
+        String path = System.getProperty(RECORDING_PROPERTY, "");
+        if (path.isEmpty()) {
+            return (synthetic(DEFAULT_WIDTH, DEFAULT_HEIGHT, count));
+        }
+        return (load(new File(path)));
+    }
+
+    public static FrameRecording load(File directory) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream input = new FileInputStream(new File(directory, "recording.properties"))) {
+            properties.load(input);
+        }
+        int width = Integer.parseInt(properties.getProperty("width").trim());
+        int height = Integer.parseInt(properties.getProperty("height").trim());
+        String format = properties.getProperty("format", "yuv420p").trim();
+        boolean yuv;
+        if (format.equals("yuv420p")) {
+            yuv = true;
+        } else if (format.equals("argb")) {
+            yuv = false;
+        } else {
+            throw new IOException("Unknown recording format " + format);
+        }
+
+        List<Frame> frames = new ArrayList<>();
+        File index = new File(directory, "frames.csv");
+        if (index.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#"))
+                        continue;
+                    String[] fields = line.split(",");
+                    if (fields.length < 2) {
+                        throw new IOException("Invalid line in " + index + ": " + line);
+                    }
+                    float speed = fields.length > 2 && !fields[2].trim().isEmpty() ? Float.parseFloat(fields[2].trim()) : Float.NaN;
+                    frames.add(readFrame(new File(directory, fields[1].trim()), Long.parseLong(fields[0].trim()), speed, width, height, yuv));
+                }
+            }
+        } else {
+            final String extension = yuv ? ".yuv" : ".argb";
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(extension));
+            if (files == null) {
+                throw new IOException("Cannot list " + directory);
+            }
+            Arrays.sort(files);
+            for (int i = 0; i < files.length; ++i) {
+                frames.add(readFrame(files[i], i * DEFAULT_FRAME_INTERVAL_MS, Float.NaN, width, height, yuv));
+            }
+        }
+        if (frames.isEmpty()) {
+            throw new IOException("No frame in " + directory);
+        }
+        return (new FrameRecording(width, height, yuv, frames));
+    }
+
+    private static Frame readFrame(File file, long timestamp, float speed, int width, int height, boolean yuv) throws IOException {
+        byte[] data = Files.readAllBytes(file.toPath());
+        int lumaSize = width * height;
+        int chromaSize = (width / 2) * (height / 2);
+
+        if (yuv) {
+            if (data.length < lumaSize + 2 * chromaSize) {
+                throw new IOException(file + " is smaller than a " + width + "x" + height + " I420 frame");
+            }
+            byte[][] planes = {
+                    Arrays.copyOfRange(data, 0, lumaSize),
+                    Arrays.copyOfRange(data, lumaSize, lumaSize + chromaSize),
+                    Arrays.copyOfRange(data, lumaSize + chromaSize, lumaSize + 2 * chromaSize)
+            };
+            return (new Frame(timestamp, speed, planes, null));
+        }
+        if (data.length < lumaSize * 4) {
+            throw new IOException(file + " is smaller than a " + width + "x" + height + " ARGB frame");
+        }
+        int[] argb = new int[lumaSize];
+        ByteBuffer.wrap(data).asIntBuffer().get(argb);
+        return (new Frame(timestamp, speed, toI420(argb, width, height), argb));
+    }
+
+    /** Same coefficients as the conversion of the camera frames, the other way around. */
+    private static byte[][] toI420(int[] argb, int width, int height) {
+        byte[][] planes = {new byte[width * height], new byte[(width / 2) * (height / 2)], new byte[(width / 2) * (height / 2)]};
+
+        for (int j = 0; j < height; ++j) {
+            for (int i = 0; i < width; ++i) {
+                int pixel = argb[j * width + i];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+
+                planes[0][j * width + i] = (byte) clamp(((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+                if ((j & 1) == 0 && (i & 1) == 0 && i / 2 < width / 2 && j / 2 < height / 2) {
+                    int uv = (j / 2) * (width / 2) + i / 2;
+                    planes[1][uv] = (byte) clamp(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+                    planes[2][uv] = (byte) clamp(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+                }
+            }
+        }
+        return (planes);
+    }
+
+    private static int clamp(int value) {
+        return (value < 0 ? 0 : (value > 255 ? 255 : value));
+    }
+
+    /**
+     * Generates a road-like scene: a sky gradient, a grey road and a red disc moving across the frame
+     * like a sign would, with some sensor noise. A sign passes every SIGN_PASS_FRAMES frames and is only
+     * seen on the first SIGN_VISIBLE_FRAMES of them, the others are sky and road alone, as between two
+     * signs of a drive. Always the same frames for the same arguments.
+     */
+    public static FrameRecording synthetic(int width, int height, int count) {
+        Random random = new Random(42);
+        List<Frame> frames = new ArrayList<>(count);
+
+        for (int f = 0; f < count; ++f) {
+            int[] argb = new int[width * height];
+            int pass = f % SIGN_PASS_FRAMES;
+            int centerX = width / 2 + (int) ((width / 3) * ((float) pass / (SIGN_VISIBLE_FRAMES - 1)));
+            int centerY = height / 3;
+            int radius = pass < SIGN_VISIBLE_FRAMES ? height / 12 + f % 8 : 0;
+
+            for (int j = 0; j < height; ++j) {
+                for (int i = 0; i < width; ++i) {
+                    int r;
+                    int g;
+                    int b;
+                    int dx = i - centerX;
+                    int dy = j - centerY;
+                    if (radius > 0 && dx * dx + dy * dy <= radius * radius) {
+                        r = 200;
+                        g = 30;
+                        b = 30;
+                    } else if (j < height / 2) {
+                        r = 90 + j * 60 / height;
+                        g = 140 + j * 60 / height;
+                        b = 220;
+                    } else {
+                        r = 100;
+                        g = 100;
+                        b = 105;
+                    }
+                    int noise = random.nextInt(9) - 4;
+                    argb[j * width + i] = 0xff000000 | (clamp(r + noise) << 16) | (clamp(g + noise) << 8) | clamp(b + noise);
+                }
+            }
+            frames.add(new Frame(f * DEFAULT_FRAME_INTERVAL_MS, 50.0f, toI420(argb, width, height), null));
+        }
+        return (new FrameRecording(width, height, true, frames));
+    }
+}
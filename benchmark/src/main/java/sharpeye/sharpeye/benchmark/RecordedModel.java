@@ -0,0 +1,76 @@
+package sharpeye.sharpeye.benchmark;
+
+import android.graphics.RectF;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sharpeye.sharpeye.tflite.Classifier;
+
+/**
+ * Replays model outputs captured on the device, so the replay sees the detections of the real models.
+ * The file has one "frame,model,image,left,top,right,bottom,score,title" line per recognition,
+ * model being general, differentiator or danger, image the index of the input in the request
+ * and the box in model input coordinates. Lines starting with # are ignored.
+ */
+public class RecordedModel implements ReplayModel {
+
+    private final Map<Long, List<Classifier.Recognition>> recognitions = new HashMap<>();
+
+    private RecordedModel() {}
+
+    private static long key(int frameIndex, int image) {
+        return (((long) frameIndex << 32) | image);
+    }
+
+    /** Loads the outputs of one model from the file. */
+    public static RecordedModel load(File file, String model) throws IOException {
+        RecordedModel recorded = new RecordedModel();
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split(",", 9);
+                if (fields.length < 9) {
+                    throw new IOException("Invalid line in " + file + ": " + line);
+                }
+                if (!fields[1].trim().equals(model))
+                    continue;
+                long key = key(Integer.parseInt(fields[0].trim()), Integer.parseInt(fields[2].trim()));
+                List<Classifier.Recognition> list = recorded.recognitions.get(key);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    recorded.recognitions.put(key, list);
+                }
+                RectF location = new RectF(Float.parseFloat(fields[3].trim()), Float.parseFloat(fields[4].trim()),
+                        Float.parseFloat(fields[5].trim()), Float.parseFloat(fields[6].trim()));
+                list.add(new Classifier.Recognition("" + list.size(), fields[8].trim(), Float.parseFloat(fields[7].trim()), location));
+            }
+        }
+        return (recorded);
+    }
+
+    @Override
+    public void detect(int frameIndex, int firstImage, ByteBuffer input, int count, List<List<Classifier.Recognition>> out) {
+        for (int image = 0; image < count; ++image) {
+            List<Classifier.Recognition> list = recognitions.get(key(frameIndex, firstImage + image));
+            List<Classifier.Recognition> copy = new ArrayList<>();
+            if (list != null) {
+                for (Classifier.Recognition recognition : list) {
+                    copy.add(new Classifier.Recognition(recognition.getId(), recognition.getTitle(), recognition.getConfidence(), recognition.getLocation()));
+                }
+            }
+            out.add(copy);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package sharpeye.sharpeye.benchmark;
+
+import android.graphics.RectF;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import sharpeye.sharpeye.metrics.LatencyHistogram;
+import sharpeye.sharpeye.metrics.MetricsSnapshot;
+import sharpeye.sharpeye.metrics.PipelineMetrics;
+import sharpeye.sharpeye.tflite.Classifier;
+import sharpeye.sharpeye.tflite.SignPrefilter;
+
+/**
+ * Replays a recording through the ReplayPipeline at full speed and reports the frame rate,
+ * the latency percentiles of every stage and the detections.
+ *
+ * Arguments:
+ * --recording DIR        recording to replay (see FrameRecording), synthetic frames without it
+ * --frames N             number of synthetic frames, 300 by default
+ * --model-outputs FILE   model outputs captured on the device (see RecordedModel),
+ *                        without it signs are found by colour and no danger is detected
+ * --output FILE          writes every recognition as csv
+ * --prefilter TARGET     target of the sign pre-filter (see SignPrefilter.Target), BALANCED by default
+ * --loops N              replays the recording N times, 3 by default
+ * --warmup N             loops run before the measured ones, 1 by default
+ */
+public class ReplayHarness {
+
+    private static final int INPUT_SIZE = 300;
+
+    private static class Counter implements ReplayPipeline.Listener {
+        final Map<String, Integer> counts = new HashMap<>();
+        PrintWriter output;
+
+        @Override
+        public void onRecognitions(int frameIndex, FrameRecording.Frame frame, String kind, List<Classifier.Recognition> recognitions) {
+            Integer count = counts.get(kind);
+            counts.put(kind, (count == null ? 0 : count) + recognitions.size());
+            if (output == null)
+                return;
+            for (Classifier.Recognition recognition : recognitions) {
+                RectF location = recognition.getLocation();
+                output.printf("%d,%d,%s,%s,%s,%.3f,%.1f,%.1f,%.1f,%.1f%n", frameIndex, frame.timestamp,
+                        frame.hasSpeed() ? Float.toString(frame.speed) : "", kind, recognition.getTitle(),
+                        recognition.getConfidence(), location.left, location.top, location.right, location.bottom);
+            }
+        }
+    }
+
+    static final ReplayModel NO_DETECTION = new ReplayModel() {
+        @Override
+        public void detect(int frameIndex, int firstImage, ByteBuffer input, int count, List<List<Classifier.Recognition>> out) {
+            for (int i = 0; i < count; ++i) {
+                out.add(new ArrayList<Classifier.Recognition>());
+            }
+        }
+    };
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        FrameRecording recording;
+        if (options.containsKey("recording")) {
+            recording = FrameRecording.load(new File(options.get("recording")));
+        } else {
+            recording = FrameRecording.synthetic(FrameRecording.DEFAULT_WIDTH, FrameRecording.DEFAULT_HEIGHT,
+                    Integer.parseInt(getOption(options, "frames", "300")));
+        }
+
+        ReplayModel general;
+        ReplayModel differentiator;
+        ReplayModel danger;
+        if (options.containsKey("model-outputs")) {
+            File file = new File(options.get("model-outputs"));
+            general = RecordedModel.load(file, "general");
+            differentiator = RecordedModel.load(file, "differentiator");
+            danger = RecordedModel.load(file, "danger");
+        } else {
+            general = new ColorBlobModel(INPUT_SIZE, "sign");
+            differentiator = new ColorBlobModel(INPUT_SIZE, "Stop");
+            danger = NO_DETECTION;
+        }
+
+        Counter counter = new Counter();
+        SignPrefilter.Target prefilterTarget = SignPrefilter.Target.valueOf(getOption(options, "prefilter", SignPrefilter.Target.BALANCED.name()));
+        ReplayPipeline pipeline = new ReplayPipeline(recording, general, differentiator, danger, prefilterTarget, counter);
+        int loops = Integer.parseInt(getOption(options, "loops", "3"));
+        int warmup = Integer.parseInt(getOption(options, "warmup", "1"));
+
+        for (int loop = 0; loop < warmup; ++loop) {
+            replay(recording, pipeline, loop);
+        }
+        pipeline.resetStats();
+        counter.counts.clear();
+        if (options.containsKey("output")) {
+            counter.output = new PrintWriter(options.get("output"));
+            counter.output.println("frame,timestamp,speed,kind,title,score,left,top,right,bottom");
+        }
+
+        long start = System.nanoTime();
+        for (int loop = 0; loop < loops; ++loop) {
+            replay(recording, pipeline, warmup + loop);
+        }
+        long elapsed = System.nanoTime() - start;
+        if (counter.output != null)
+            counter.output.close();
+
+        long frames = (long) loops * recording.size();
+        MetricsSnapshot metrics = pipeline.getMetrics();
+        System.out.printf("Replayed %d frames of %dx%d in %.2fs: %.1f fps, %d dropped, models run on %d%n",
+                frames, recording.width, recording.height, elapsed / 1e9, frames / (elapsed / 1e9),
+                metrics.get(PipelineMetrics.Counter.DROPPED_POOL_EXHAUSTED), pipeline.getDetectionCount());
+        for (PipelineMetrics.Stage stage : PipelineMetrics.Stage.values()) {
+            LatencyHistogram.HistogramSnapshot histogram = metrics.get(stage);
+            if (histogram.getCount() > 0)
+                System.out.println(format(stage, histogram));
+        }
+        System.out.println("Frame buffer: " + pipeline.getFrameBuffer().getStatString());
+        System.out.printf("Sign windows: %d planned on %d detections, %d detections skipped%n",
+                metrics.get(PipelineMetrics.Counter.SIGN_WINDOWS_CHECKED), pipeline.getDetectionCount(),
+                metrics.get(PipelineMetrics.Counter.SIGN_FRAMES_SKIPPED));
+        System.out.println("Sign pre-filter: " + pipeline.getPrefilterStatString());
+        System.out.println("Recognitions: " + counter.counts);
+    }
+
+    /** Percentiles of a stage in milliseconds, within the precision of the LatencyHistogram. */
+    private static String format(PipelineMetrics.Stage stage, LatencyHistogram.HistogramSnapshot histogram) {
+        return (String.format(Locale.US, "%-18s n=%-6d p50=%8.3fms p90=%8.3fms p99=%8.3fms max=%8.3fms",
+                stage.name().toLowerCase(Locale.US), histogram.getCount(), histogram.getPercentile(50) / 1e6,
+                histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+    }
+
+    private static String getOption(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return (value != null ? value : defaultValue);
+    }
+
+    /** Replays every frame once, the timestamps of later loops follow the previous ones. */
+    private static void replay(FrameRecording recording, ReplayPipeline pipeline, int loop) {
+        FrameRecording.Frame last = recording.get(recording.size() - 1);
+        long loopDuration = last.timestamp - recording.get(0).timestamp + 33;
+
+        for (int i = 0; i < recording.size(); ++i) {
+            FrameRecording.Frame frame = recording.get(i);
+            pipeline.process(i, loop == 0 ? frame : new FrameRecording.Frame(frame, frame.timestamp + loop * loopDuration));
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package sharpeye.sharpeye.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import sharpeye.sharpeye.tflite.Classifier;
+
+/**
+ * Stand-in for a TFLite detection model during a replay, the interpreter only runs on the device.
+ */
+public interface ReplayModel {
+
+    /**
+     * @param frameIndex index of the replayed frame, for models replaying recorded outputs
+     * @param firstImage index in the whole request of the first image of the input, requests are sent in batches
+     * @param input count quantized RGB images of the model input size, from position 0
+     * @param out receives one list of recognitions per image, in model input coordinates
+     */
+    void detect(int frameIndex, int firstImage, ByteBuffer input, int count, List<List<Classifier.Recognition>> out);
+}
@@ -0,0 +1,436 @@
+package sharpeye.sharpeye.benchmark;
+
+import android.graphics.RectF;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import sharpeye.sharpeye.Detection.DetectionScheduler;
+import sharpeye.sharpeye.Detection.MotionEstimator;
+import sharpeye.sharpeye.Detection.RecognitionFilter;
+import sharpeye.sharpeye.metrics.MetricsSnapshot;
+import sharpeye.sharpeye.metrics.PipelineMetrics;
+import sharpeye.sharpeye.tflite.Classifier;
+import sharpeye.sharpeye.tflite.CropTracker;
+import sharpeye.sharpeye.tflite.FrameBuffer;
+import sharpeye.sharpeye.tflite.FramePool;
+import sharpeye.sharpeye.tflite.ImagePreprocessor;
+import sharpeye.sharpeye.tflite.SignPrefilter;
+import sharpeye.sharpeye.tflite.SignSearch;
+import sharpeye.sharpeye.tflite.SignWindowPlanner;
+
+/**
+ * The per-frame path of the Detector stages replayed on a desktop JVM, one after the other: the frames go through the same
+ * FramePool and FrameBuffer, conversion, orientation, detection scheduling, the SignSearch of the SignDetector, model inputs,
+ * verification on buffered frames and filtering as on the device. Only the TFLite models and the native tracker,
+ * which cannot run off the device, are replaced by a ReplayModel and a ReplayTracker.
+ * Every stage is recorded in PipelineMetrics, under the same stages as on the device.
+ *
+ * The general detector still runs on the sign windows the SignPrefilter rejects, so that the recorded model outputs
+ * stay aligned with the windows and the windows where it would have found a candidate are counted as missed.
+ * Their results are then dropped as on the device. The planner picks the windows from the frame and the previous
+ * candidates, a RecordedModel only stays aligned with them on the recording it was captured from.
+ */
+public class ReplayPipeline {
+
+    public interface Listener {
+        /** @param kind candidate, confirmed, dismissed, danger or tracked */
+        void onRecognitions(int frameIndex, FrameRecording.Frame frame, String kind, List<Classifier.Recognition> recognitions);
+    }
+
+    // Same values as Detector and SignDetector.
+    private static final int INPUT_SIZE = 300;
+    private static final float MINIMUM_CONFIDENCE = 0.6f;
+    private static final int CONFIRMATION_NBR = 2;
+    private static final int VERIFICATION_STEPS = 3;
+    private static final int MAXIMUM_VERIFICATION_QUEUE = 4;
+    private static final int MAX_BATCH_SIZE = 8;
+    private static final int SIGN_WINDOWS_PER_FRAME = 1;
+    private static final float SIGN_ZOOM_SCALE = 1.5f;
+    private static final List<String> VEHICLES = Arrays.asList("car", "bus", "truck", "motorcycle");
+
+    private class PendingSign {
+        final Classifier.Recognition recognition;
+        final long timestamp;
+        long previousTimestamp;
+        int step = 0;
+        int confirmations = 0;
+
+        PendingSign(Classifier.Recognition _recognition, long _timestamp) {
+            recognition = _recognition;
+            timestamp = _timestamp;
+        }
+    }
+
+    private final FrameRecording recording;
+    private final ReplayModel generalDetector;
+    private final ReplayModel signDifferentiator;
+    private final ReplayModel dangerDetector;
+    private final ReplayTracker tracker = new ReplayTracker();
+    private final Listener listener;
+
+    private final FramePool pool;
+    private final FrameBuffer frameBuffer;
+    private final ImagePreprocessor preprocessor = new ImagePreprocessor(INPUT_SIZE, true, 128.0f, 128.0f);
+    private final ByteBuffer input = ByteBuffer.allocateDirect(MAX_BATCH_SIZE * INPUT_SIZE * INPUT_SIZE * 3).order(ByteOrder.nativeOrder());
+    private final CropTracker cropTracker;
+    // Oriented frame, the camera frame rotated by 90 degrees, in level 0 of the pyramid of the search.
+    private final SignSearch signSearch;
+    private final int orientedWidth;
+    private final int orientedHeight;
+    private final RectF frameBounds;
+    private final int[] argb;
+    private final int[] bufferedArgb;
+    private final int[] bufferedOriented;
+
+    private final List<PendingSign> pendingSigns = new ArrayList<>();
+    // Sign rects found by the general detector on the last windows, in oriented frame coordinates.
+    private final List<RectF> candidates = new ArrayList<>();
+    private final List<RectF> candidateBounds = new ArrayList<>();
+    // Model inputs of the windows, reused from frame to frame.
+    private final List<RectF> sources = new ArrayList<>();
+    private final List<RectF> sourceBounds = new ArrayList<>();
+    private final SignSearch.Window verificationWindow = new SignSearch.Window();
+    private final List<SignSearch.Window> verificationWindows = Arrays.asList(verificationWindow);
+    private final List<RectF> vehicleBoxes = new ArrayList<>();
+    private final float[] vanishingPoint = new float[2];
+    // Apart from the instance of the device, for the warm-up loops to be reset.
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final DetectionScheduler scheduler = new DetectionScheduler();
+    private final MotionEstimator motionEstimator = new MotionEstimator();
+    private long detectionCount = 0;
+    // Windows where the general detector finds a candidate, and the ones among them the pre-filter rejected.
+    private long candidateWindows = 0;
+    private long missedWindows = 0;
+
+    public ReplayPipeline(FrameRecording _recording, ReplayModel _generalDetector, ReplayModel _signDifferentiator,
+                          ReplayModel _dangerDetector, SignPrefilter.Target _prefilterTarget, Listener _listener) {
+        recording = _recording;
+        generalDetector = _generalDetector;
+        signDifferentiator = _signDifferentiator;
+        dangerDetector = _dangerDetector;
+        listener = _listener;
+
+        frameBuffer = new FrameBuffer();
+        pool = new FramePool(frameBuffer.getCapacity() + 3);
+        orientedWidth = recording.height;
+        orientedHeight = recording.width;
+        argb = new int[recording.width * recording.height];
+        signSearch = new SignSearch(orientedWidth, orientedHeight, INPUT_SIZE, SIGN_ZOOM_SCALE, SIGN_WINDOWS_PER_FRAME, _prefilterTarget, metrics);
+        frameBounds = new RectF(0, 0, orientedWidth, orientedHeight);
+        bufferedArgb = new int[argb.length];
+        bufferedOriented = new int[argb.length];
+        cropTracker = new CropTracker(CropTracker.Direction.Vertical, orientedWidth, orientedHeight, INPUT_SIZE, (int)(INPUT_SIZE * 0.8f), true, (int)(INPUT_SIZE * 0.8f) + INPUT_SIZE + 2, 170);
+        cropTracker.setOffPos(orientedWidth - INPUT_SIZE);
+    }
+
+    /** Starts a new interval of the metrics and counts. */
+    public void resetStats() {
+        metrics.snapshotAndReset();
+        detectionCount = 0;
+        candidateWindows = 0;
+        missedWindows = 0;
+    }
+
+    /** @return the stages and counters recorded since the last resetStats */
+    public MetricsSnapshot getMetrics() {
+        return (metrics.snapshot());
+    }
+
+    /** @return frames the models ran on, the scheduler chose to only track the others */
+    public long getDetectionCount() {
+        return (detectionCount);
+    }
+
+    /** @return windows where the general detector found a candidate since the last resetStats */
+    public long getCandidateWindows() {
+        return (candidateWindows);
+    }
+
+    /** @return windows with a candidate the pre-filter rejected since the last resetStats */
+    public long getMissedWindows() {
+        return (missedWindows);
+    }
+
+    /** @return the reject rate of the pre-filter and the share of the candidate windows it kept */
+    public String getPrefilterStatString() {
+        MetricsSnapshot snapshot = metrics.snapshot();
+        long checked = snapshot.get(PipelineMetrics.Counter.SIGN_WINDOWS_CHECKED);
+        long rejected = snapshot.get(PipelineMetrics.Counter.SIGN_WINDOWS_REJECTED);
+        return (String.format("%s rejected %d of %d windows (%.1f%%), kept %d of %d windows with a candidate (%.1f%% recall)",
+                signSearch.getPrefilterTarget(), rejected, checked, 100.0 * rejected / Math.max(1, checked),
+                candidateWindows - missedWindows, candidateWindows,
+                100.0 * (candidateWindows - missedWindows) / Math.max(1, candidateWindows)));
+    }
+
+    public FrameBuffer getFrameBuffer() {
+        return (frameBuffer);
+    }
+
+    /** Runs one frame through the pipeline, as the camera and inference threads would. */
+    public void process(int frameIndex, FrameRecording.Frame frame) {
+        metrics.increment(PipelineMetrics.Counter.FRAMES_RECEIVED);
+        FramePool.Slot slot = pool.acquire();
+        if (slot == null) {
+            metrics.increment(PipelineMetrics.Counter.DROPPED_POOL_EXHAUSTED);
+            return;
+        }
+        recording.fillSlot(frame, slot);
+        if (frameBuffer.isBufferingDue(frame.timestamp)) {
+            frameBuffer.addFrame(slot);
+        }
+        frameBuffer.setDetectionFrame(slot);
+        metrics.increment(PipelineMetrics.Counter.FRAMES_PROCESSED);
+
+        // From the conversion on, as Detector.convert.
+        final long start = PipelineMetrics.start();
+        frameBuffer.getDetectionFrame().toArgb(argb);
+        long stageStart = metrics.record(PipelineMetrics.Stage.CONVERSION, start);
+        rotate(argb, signSearch.getPixels(), signSearch.getStride());
+        metrics.record(PipelineMetrics.Stage.CROP, stageStart);
+        final float motion = motionEstimator.update(slot.planes[0], slot.width, slot.height, slot.yRowStride);
+        slot.release();
+
+        if (!pendingSigns.isEmpty()) {
+            stageStart = PipelineMetrics.start();
+            verifySign(frameIndex, frame);
+            metrics.record(PipelineMetrics.Stage.SIGN_VERIFICATION, stageStart);
+        }
+
+        if (scheduler.isDetectionDue(frame.timestamp, motion)) {
+            ++detectionCount;
+            List<Classifier.Recognition> signResults = new ArrayList<>();
+            RecognitionFilter.filterSigns(detectSigns(frameIndex, frame), signResults);
+            List<Classifier.Recognition> dangerResults = detectDangers(frameIndex);
+
+            stageStart = PipelineMetrics.start();
+            tracker.track(dangerResults, frame.timestamp);
+            updateVanishingPoint(dangerResults);
+            metrics.record(PipelineMetrics.Stage.TRACKER_UPDATE, stageStart);
+            if (!dangerResults.isEmpty())
+                listener.onRecognitions(frameIndex, frame, "danger", dangerResults);
+        } else {
+            stageStart = PipelineMetrics.start();
+            List<Classifier.Recognition> tracked = tracker.update(frame.timestamp);
+            metrics.record(PipelineMetrics.Stage.TRACKER_PREDICTION, stageStart);
+            if (!tracked.isEmpty())
+                listener.onRecognitions(frameIndex, frame, "tracked", tracked);
+        }
+        // The replay tracker never loses an object.
+        scheduler.updateTracking(frame.hasSpeed() ? frame.speed : -1, tracker.getTrackedCount(), 1);
+        metrics.record(PipelineMetrics.Stage.DETECTION, start);
+    }
+
+    /** Gives the planner the vanishing point of the vehicles, as Detector.updateVanishingPoint. */
+    private void updateVanishingPoint(List<Classifier.Recognition> dangers) {
+        vehicleBoxes.clear();
+        for (Classifier.Recognition danger : dangers) {
+            if (danger.getLocation() != null && VEHICLES.contains(danger.getTitle())) {
+                vehicleBoxes.add(danger.getLocation());
+            }
+        }
+        if (SignWindowPlanner.estimateVanishingPoint(vehicleBoxes, vanishingPoint)) {
+            // From the model input to the camera frame, then rotated as the oriented frame.
+            float x = vanishingPoint[0] * recording.width / INPUT_SIZE;
+            float y = vanishingPoint[1] * recording.height / INPUT_SIZE;
+            signSearch.setVanishingPoint(recording.height - 1 - y, x);
+        }
+    }
+
+    /** Rotates a camera frame by 90 degrees clockwise, as the rotation transform of the Detector. */
+    private void rotate(int[] source, int[] destination, int stride) {
+        int width = recording.width;
+        int height = recording.height;
+
+        for (int y = 0; y < height; ++y) {
+            int destinationColumn = height - 1 - y;
+            for (int x = 0; x < width; ++x) {
+                destination[x * stride + destinationColumn] = source[y * width + x];
+            }
+        }
+    }
+
+    /**
+     * Writes the regions in batches and runs the model over them, one list of recognitions per region.
+     * @param bounds for every region, the frame of the image it is read from
+     */
+    private List<List<Classifier.Recognition>> detectRegions(ReplayModel model, int frameIndex, int[] pixels, int stride,
+                                                             List<RectF> regions, List<RectF> bounds) {
+        List<List<Classifier.Recognition>> results = new ArrayList<>(regions.size());
+
+        for (int first = 0; first < regions.size(); first += MAX_BATCH_SIZE) {
+            int count = Math.min(MAX_BATCH_SIZE, regions.size() - first);
+            input.rewind();
+            for (int i = 0; i < count; ++i) {
+                RectF region = regions.get(first + i);
+                preprocessor.writeRegion(pixels, stride, bounds.get(first + i), region.left, region.top, region.right, region.bottom, input);
+            }
+            model.detect(frameIndex, first, input, count, results);
+        }
+        return (results);
+    }
+
+    /**
+     * Runs the general detector over the windows, then the differentiator over the candidates.
+     * @param search windows planned by the search, only the kept ones are detected on, the other ones count the candidates
+     *               the pre-filter missed; otherwise a verification window
+     * @return the signs found, in oriented frame coordinates
+     */
+    private List<Classifier.Recognition> detectOnWindows(int frameIndex, int[] pixels, int stride, List<SignSearch.Window> windows, boolean search) {
+        sources.clear();
+        sourceBounds.clear();
+        for (SignSearch.Window window : windows) {
+            sources.add(window.source);
+            sourceBounds.add(window.bounds);
+        }
+        long stageStart = PipelineMetrics.start();
+        List<List<Classifier.Recognition>> results = detectRegions(generalDetector, frameIndex, pixels, stride, sources, sourceBounds);
+        if (search)
+            stageStart = metrics.record(PipelineMetrics.Stage.GENERAL_DETECTOR, stageStart);
+
+        candidates.clear();
+        candidateBounds.clear();
+        for (int i = 0; i < windows.size(); ++i) {
+            SignSearch.Window window = windows.get(i);
+            if (search && hasCandidate(results.get(i))) {
+                ++candidateWindows;
+                if (!window.kept) {
+                    ++missedWindows;
+                }
+            }
+            if (!window.kept)
+                continue;
+            for (Classifier.Recognition result : results.get(i)) {
+                if (result.getConfidence() >= MINIMUM_CONFIDENCE) {
+                    candidates.add(SignSearch.toCandidate(window, new RectF(result.getLocation())));
+                    candidateBounds.add(frameBounds);
+                }
+            }
+        }
+        List<Classifier.Recognition> signs = new ArrayList<>();
+        if (candidates.isEmpty())
+            return (signs);
+
+        List<List<Classifier.Recognition>> differentiators = detectRegions(signDifferentiator, frameIndex, pixels, stride, candidates, candidateBounds);
+        for (int i = 0; i < candidates.size(); ++i) {
+            for (Classifier.Recognition result : differentiators.get(i)) {
+                if (result.getConfidence() > MINIMUM_CONFIDENCE) {
+                    signs.add(new Classifier.Recognition(result.getId(), result.getTitle(), result.getConfidence(), new RectF(candidates.get(i))));
+                }
+            }
+        }
+        if (search)
+            metrics.record(PipelineMetrics.Stage.DIFFERENTIATOR, stageStart);
+        return (signs);
+    }
+
+    private static boolean hasCandidate(List<Classifier.Recognition> results) {
+        for (Classifier.Recognition result : results) {
+            if (result.getConfidence() >= MINIMUM_CONFIDENCE)
+                return (true);
+        }
+        return (false);
+    }
+
+    private List<Classifier.Recognition> detectSigns(int frameIndex, FrameRecording.Frame frame) {
+        cropTracker.cancelTarget();
+        List<SignSearch.Window> windows = signSearch.planWindows();
+        List<Classifier.Recognition> signs;
+        if (windows.isEmpty()) {
+            candidates.clear();
+            signs = new ArrayList<>();
+        } else {
+            signs = detectOnWindows(frameIndex, signSearch.getPixels(), signSearch.getStride(), windows, true);
+        }
+        signSearch.onCandidates(candidates);
+        List<Classifier.Recognition> pending = new ArrayList<>();
+        for (Classifier.Recognition sign : signs) {
+            if (pendingSigns.size() < MAXIMUM_VERIFICATION_QUEUE && !inVerification(sign.getTitle())) {
+                pendingSigns.add(new PendingSign(sign, frameBuffer.getDetectionFrame().timestamp));
+                pending.add(sign);
+            }
+        }
+        if (!pending.isEmpty())
+            listener.onRecognitions(frameIndex, frame, "candidate", pending);
+
+        frameBuffer.saveTimeStamp();
+        frameBuffer.setDeleteLocked(!pendingSigns.isEmpty());
+        return (signs);
+    }
+
+    private boolean inVerification(String title) {
+        for (PendingSign pending : pendingSigns) {
+            if (pending.recognition.getTitle().equals(title))
+                return (true);
+        }
+        return (false);
+    }
+
+    /** One verification step of the oldest pending sign on a buffered frame, as SignDetector.verifySign. */
+    private void verifySign(int frameIndex, FrameRecording.Frame frame) {
+        PendingSign pending = pendingSigns.get(0);
+        FrameBuffer.Frame bufferedFrame;
+
+        if (pending.step == 0) {
+            bufferedFrame = frameBuffer.getPreviousBufferedFrame(pending.timestamp);
+            if (bufferedFrame == null) {
+                pendingSigns.remove(0);
+                return;
+            }
+            pending.previousTimestamp = bufferedFrame.timestamp;
+        } else if (pending.step == 1) {
+            bufferedFrame = frameBuffer.getPreviousBufferedFrame(pending.previousTimestamp);
+            if (bufferedFrame == null) {
+                pendingSigns.remove(0);
+                return;
+            }
+        } else {
+            bufferedFrame = frameBuffer.getNextBufferedFrame(pending.timestamp);
+            if (bufferedFrame == null) {
+                return;
+            }
+        }
+
+        rotate(bufferedFrame.toArgb(bufferedArgb), bufferedOriented, orientedWidth);
+        RectF location = pending.recognition.getLocation();
+        cropTracker.updateTarget(pending.recognition.getTitle(), new RectF(location));
+        cropTracker.trackTarget();
+        cropTracker.updateTrack();
+        // Read from the oriented frame as is, as the verification crops of the SignDetector.
+        verificationWindow.rect.set(cropTracker.getCropRect());
+        verificationWindow.source.set(verificationWindow.rect);
+        verificationWindow.bounds.set(frameBounds);
+        verificationWindow.scale = 1;
+        verificationWindow.kept = true;
+        for (Classifier.Recognition sign : detectOnWindows(frameIndex, bufferedOriented, orientedWidth, verificationWindows, false)) {
+            if (sign.getTitle().equals(pending.recognition.getTitle())) {
+                ++pending.confirmations;
+                break;
+            }
+        }
+
+        if (++pending.step >= VERIFICATION_STEPS) {
+            List<Classifier.Recognition> result = new ArrayList<>(1);
+            result.add(pending.recognition);
+            listener.onRecognitions(frameIndex, frame, pending.confirmations >= CONFIRMATION_NBR ? "confirmed" : "dismissed", result);
+            frameBuffer.deleteUntil(pending.timestamp);
+            pendingSigns.remove(0);
+        }
+    }
+
+    private List<Classifier.Recognition> detectDangers(int frameIndex) {
+        final long stageStart = PipelineMetrics.start();
+        // The whole frame resized to the model input, as the cropped bitmap of the Detector.
+        input.rewind();
+        preprocessor.writeRegion(argb, recording.width, recording.height, 0, 0, recording.width, recording.height, input);
+        List<List<Classifier.Recognition>> results = new ArrayList<>(1);
+        dangerDetector.detect(frameIndex, 0, input, 1, results);
+        List<Classifier.Recognition> dangerResults = new ArrayList<>();
+        RecognitionFilter.filterDangers(results.get(0), MINIMUM_CONFIDENCE, dangerResults);
+        metrics.record(PipelineMetrics.Stage.DANGER_DETECTOR, stageStart);
+        return (dangerResults);
+    }
+}
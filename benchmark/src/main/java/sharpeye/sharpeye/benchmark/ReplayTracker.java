@@ -0,0 +1,70 @@
+package sharpeye.sharpeye.benchmark;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import sharpeye.sharpeye.tflite.Classifier;
+
+/**
+ * Stand-in for the native OpenCV tracker during a replay, the native library is only built for the device.
+ * Between two detections the boxes are moved along their last displacement.
+ */
+public class ReplayTracker {
+
+    private List<Classifier.Recognition> tracked = new ArrayList<>();
+    private List<RectF> velocities = new ArrayList<>();
+    private long lastTimestamp = 0;
+    private long lastDetection = 0;
+
+    /** New detections, each one is matched with the closest tracked box of the same title to get its velocity. */
+    public void track(List<Classifier.Recognition> detections, long timestamp) {
+        List<RectF> newVelocities = new ArrayList<>(detections.size());
+        float elapsed = Math.max(1, timestamp - lastDetection);
+
+        for (Classifier.Recognition detection : detections) {
+            RectF location = detection.getLocation();
+            RectF velocity = new RectF();
+            float best = Float.MAX_VALUE;
+            for (Classifier.Recognition previous : tracked) {
+                if (!previous.getTitle().equals(detection.getTitle()))
+                    continue;
+                RectF previousLocation = previous.getLocation();
+                float distance = Math.abs(previousLocation.centerX() - location.centerX()) + Math.abs(previousLocation.centerY() - location.centerY());
+                if (distance < best && distance < location.width()) {
+                    best = distance;
+                    velocity.set((location.left - previousLocation.left) / elapsed, (location.top - previousLocation.top) / elapsed,
+                            (location.right - previousLocation.right) / elapsed, (location.bottom - previousLocation.bottom) / elapsed);
+                }
+            }
+            newVelocities.add(velocity);
+        }
+        tracked = new ArrayList<>(detections);
+        velocities = newVelocities;
+        lastDetection = timestamp;
+        lastTimestamp = timestamp;
+    }
+
+    public int getTrackedCount() {
+        return (tracked.size());
+    }
+
+    /** @return the tracked boxes moved to this timestamp */
+    public List<Classifier.Recognition> update(long timestamp) {
+        float elapsed = timestamp - lastTimestamp;
+        List<Classifier.Recognition> moved = new ArrayList<>(tracked.size());
+
+        for (int i = 0; i < tracked.size(); ++i) {
+            Classifier.Recognition recognition = tracked.get(i);
+            RectF location = recognition.getLocation();
+            RectF velocity = velocities.get(i);
+            location.set(location.left + velocity.left * elapsed, location.top + velocity.top * elapsed,
+                    location.right + velocity.right * elapsed, location.bottom + velocity.bottom * elapsed);
+            moved.add(new Classifier.Recognition(recognition.getId(), recognition.getTitle(), recognition.getConfidence(), location));
+        }
+        tracked = moved;
+        lastTimestamp = timestamp;
+        return (moved);
+    }
+}
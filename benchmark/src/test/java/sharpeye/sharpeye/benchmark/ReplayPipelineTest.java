@@ -0,0 +1,60 @@
+package sharpeye.sharpeye.benchmark;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import sharpeye.sharpeye.metrics.PipelineMetrics;
+import sharpeye.sharpeye.tflite.Classifier;
+import sharpeye.sharpeye.tflite.SignPrefilter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the sign pre-filter on the replay of the synthetic drive, run with the RectF of android-all.
+ */
+public class ReplayPipelineTest {
+
+    private static final int FRAMES = 300;
+    private static final int INPUT_SIZE = 300;
+
+    private static class Counter implements ReplayPipeline.Listener {
+        final Map<String, Integer> counts = new HashMap<>();
+
+        @Override
+        public void onRecognitions(int frameIndex, FrameRecording.Frame frame, String kind, List<Classifier.Recognition> recognitions) {
+            Integer count = counts.get(kind);
+            counts.put(kind, (count == null ? 0 : count) + recognitions.size());
+        }
+    }
+
+    private static ReplayPipeline replay(FrameRecording recording, SignPrefilter.Target target, Counter counter) {
+        ReplayPipeline pipeline = new ReplayPipeline(recording, new ColorBlobModel(INPUT_SIZE, "sign"), new ColorBlobModel(INPUT_SIZE, "Stop"),
+                ReplayHarness.NO_DETECTION, target, counter);
+        for (int i = 0; i < recording.size(); ++i) {
+            pipeline.process(i, recording.get(i));
+        }
+        return (pipeline);
+    }
+
+    @Test
+    public void balanced_rejectsTheWindowsWithoutASignAndKeepsEverySign() {
+        FrameRecording recording = FrameRecording.synthetic(FrameRecording.DEFAULT_WIDTH, FrameRecording.DEFAULT_HEIGHT, FRAMES);
+        Counter offCounter = new Counter();
+        Counter balancedCounter = new Counter();
+        ReplayPipeline off = replay(recording, SignPrefilter.Target.OFF, offCounter);
+        ReplayPipeline balanced = replay(recording, SignPrefilter.Target.BALANCED, balancedCounter);
+
+        long checked = balanced.getMetrics().get(PipelineMetrics.Counter.SIGN_WINDOWS_CHECKED);
+        long rejected = balanced.getMetrics().get(PipelineMetrics.Counter.SIGN_WINDOWS_REJECTED);
+        assertTrue(off.getCandidateWindows() > 0);
+        assertTrue(off.getCandidateWindows() < checked);
+        // Every window without a candidate is rejected, none with one.
+        assertEquals(checked - off.getCandidateWindows(), rejected);
+        assertEquals(0, balanced.getMissedWindows());
+        assertEquals(off.getCandidateWindows(), balanced.getCandidateWindows());
+        assertEquals(offCounter.counts, balancedCounter.counts);
+    }
+}
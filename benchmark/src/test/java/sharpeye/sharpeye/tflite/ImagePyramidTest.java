@@ -0,0 +1,102 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the levels of the pyramid and the regions read from them, run with the RectF of android-all.
+ */
+public class ImagePyramidTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 640;
+    private static final int WINDOW_SIZE = 300;
+    private static final int RED = 0xFFC80000;
+    private static final int BLUE = 0xFF0000C8;
+
+    private static void fillFrame(ImagePyramid pyramid, int colour) {
+        int[] pixels = pyramid.getPixels();
+        for (int y = 0; y < HEIGHT; ++y) {
+            Arrays.fill(pixels, y * pyramid.getWidth(), y * pyramid.getWidth() + WIDTH, colour);
+        }
+    }
+
+    @Test
+    public void levels_stackedOnTheRightOfTheFrame() {
+        ImagePyramid pyramid = new ImagePyramid(WIDTH, HEIGHT, WINDOW_SIZE);
+
+        // 336x448 still holds a window, 235x314 does not.
+        assertArrayEquals(new float[] {1, ImagePyramid.SCALE_STEP}, pyramid.getScales(), 1e-6f);
+        assertEquals(WIDTH + 336, pyramid.getWidth());
+        assertEquals(HEIGHT, pyramid.getHeight());
+    }
+
+    @Test
+    public void build_resamplesTheFrame() {
+        ImagePyramid pyramid = new ImagePyramid(WIDTH, HEIGHT, WINDOW_SIZE);
+        int[] pixels = pyramid.getPixels();
+        int stride = pyramid.getWidth();
+        // Horizontal gradient of the red channel.
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                pixels[y * stride + x] = 0xFF000000 | (x * 255 / (WIDTH - 1)) << 16;
+            }
+        }
+
+        pyramid.build();
+        for (int x = 0; x < 336; x += 67) {
+            float sourceX = (x + 0.5f) * WIDTH / 336 - 0.5f;
+            int red = (pixels[200 * stride + WIDTH + x] >> 16) & 0xFF;
+            assertEquals(sourceX * 255 / (WIDTH - 1), red, 1.5);
+            assertEquals(0xFF000000, pixels[200 * stride + WIDTH + x] & 0xFF00FFFF);
+        }
+    }
+
+    @Test
+    public void toRegion_readsTheWindowFromItsLevel() {
+        ImagePyramid pyramid = new ImagePyramid(WIDTH, HEIGHT, WINDOW_SIZE);
+
+        assertEquals(new RectF(100, 200, 400, 500), pyramid.toRegion(new RectF(100, 200, 400, 500), WINDOW_SIZE, new RectF()));
+        assertEquals(new RectF(0, 0, 200, 200), pyramid.toRegion(new RectF(0, 0, 200, 200), WINDOW_SIZE, new RectF()));
+        // 429 * 0.7 = 300.3, the window of level 1.
+        assertEquals(new RectF(WIDTH, 0, WIDTH + WINDOW_SIZE, WINDOW_SIZE),
+                pyramid.toRegion(new RectF(0, 0, 429, 429), WINDOW_SIZE, new RectF()));
+    }
+
+    @Test
+    public void toRegion_clampsTheLastWindowToItsLevel() {
+        ImagePyramid pyramid = new ImagePyramid(WIDTH, HEIGHT, WINDOW_SIZE);
+
+        // 60 * 0.7 = 42 and 220 * 0.7 = 154, past the last window of level 1 at 36, 148.
+        RectF region = pyramid.toRegion(new RectF(60, 220, 480, 640), WINDOW_SIZE, new RectF());
+        assertEquals(new RectF(WIDTH + 36, 148, WIDTH + 336, 448), region);
+        assertEquals(new RectF(WIDTH, 0, WIDTH + 336, 448), pyramid.getBounds(region, new RectF()));
+        assertEquals(new RectF(0, 0, WIDTH, HEIGHT), pyramid.getBounds(new RectF(180, 340, 480, 640), new RectF()));
+    }
+
+    @Test
+    public void regionPastTheFrame_isBlackNotTheNextLevel() {
+        ImagePyramid pyramid = new ImagePyramid(WIDTH, HEIGHT, WINDOW_SIZE);
+        int[] pixels = pyramid.getPixels();
+        Arrays.fill(pixels, BLUE);
+        fillFrame(pyramid, RED);
+        ImagePreprocessor preprocessor = new ImagePreprocessor(WINDOW_SIZE, true, 128, 128);
+        ByteBuffer out = ByteBuffer.allocate(WINDOW_SIZE * WINDOW_SIZE * 3);
+
+        // A sign candidate spilling past the right border of the frame, on level 1.
+        preprocessor.writeRegion(pixels, pyramid.getWidth(), new RectF(0, 0, WIDTH, HEIGHT), 440, 100, 520, 180, out);
+        // Last column inside of the frame, its right neighbour is the frame border repeated.
+        assertEquals(200, out.get((150 * WINDOW_SIZE + 149) * 3) & 0xFF);
+        assertEquals(0, out.get((150 * WINDOW_SIZE + 149) * 3 + 2) & 0xFF);
+        for (int x = 151; x < WINDOW_SIZE; ++x) {
+            assertEquals(0, out.get((150 * WINDOW_SIZE + x) * 3) & 0xFF);
+            assertEquals(0, out.get((150 * WINDOW_SIZE + x) * 3 + 2) & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the colour and shape checks of the sign pre-filter on synthetic windows,
+ * run with the RectF of android-all.
+ */
+public class SignPrefilterTest {
+
+    private static final int SIZE = 300;
+    private static final RectF WINDOW = new RectF(0, 0, SIZE, SIZE);
+    private static final int RED = 0xFFD01010;
+    private static final int BLUE = 0xFF1040C0;
+    private static final int WHITE = 0xFFF0F0F0;
+    private static final int SKY = 0xFF87CEEB;
+    private static final int ASPHALT = 0xFF505050;
+
+    private static int[] plain(int colour) {
+        int[] pixels = new int[SIZE * SIZE];
+        Arrays.fill(pixels, colour);
+        return (pixels);
+    }
+
+    private static int[] disk(int colour, int radius) {
+        int[] pixels = plain(ASPHALT);
+        for (int y = 0; y < SIZE; ++y) {
+            for (int x = 0; x < SIZE; ++x) {
+                int dx = x - SIZE / 2;
+                int dy = y - SIZE / 2;
+                if (dx * dx + dy * dy <= radius * radius)
+                    pixels[y * SIZE + x] = colour;
+            }
+        }
+        return (pixels);
+    }
+
+    /** Red outline of a warning sign with a white inside, pointing up. */
+    private static int[] triangle() {
+        int[] pixels = plain(SKY);
+        for (int y = 0; y < SIZE; ++y) {
+            for (int x = 0; x < SIZE; ++x) {
+                int dx = Math.abs(x - SIZE / 2);
+                if (isInside(dx, y, 90, 210, 70))
+                    pixels[y * SIZE + x] = isInside(dx, y, 115, 198, 48) ? WHITE : RED;
+            }
+        }
+        return (pixels);
+    }
+
+    private static boolean isInside(int dx, int y, int top, int bottom, int halfBase) {
+        return (y >= top && y <= bottom && dx <= (float) (y - top) / (bottom - top) * halfBase);
+    }
+
+    @Test
+    public void classify_redBlueOrNeither() {
+        assertEquals(1, SignPrefilter.classify(RED));
+        assertEquals(2, SignPrefilter.classify(BLUE));
+        assertEquals(0, SignPrefilter.classify(SKY));
+        assertEquals(0, SignPrefilter.classify(ASPHALT));
+        assertEquals(0, SignPrefilter.classify(WHITE));
+        // Too dark to tell.
+        assertEquals(0, SignPrefilter.classify(0xFF300000));
+        // Orange and green.
+        assertEquals(0, SignPrefilter.classify(0xFFE08020));
+        assertEquals(0, SignPrefilter.classify(0xFF20C040));
+    }
+
+    @Test
+    public void accept_keepsTheDisks() {
+        for (SignPrefilter.Target target : SignPrefilter.Target.values()) {
+            SignPrefilter prefilter = new SignPrefilter(target, SIZE);
+            assertTrue(target.name(), prefilter.accept(disk(RED, 40), SIZE, WINDOW));
+            assertTrue(target.name(), prefilter.accept(disk(BLUE, 40), SIZE, WINDOW));
+        }
+    }
+
+    @Test
+    public void accept_keepsTheTriangles() {
+        for (SignPrefilter.Target target : SignPrefilter.Target.values()) {
+            SignPrefilter prefilter = new SignPrefilter(target, SIZE);
+            assertTrue(target.name(), prefilter.accept(triangle(), SIZE, WINDOW));
+        }
+    }
+
+    @Test
+    public void accept_rejectsThePlainSkyAndAsphalt() {
+        Random random = new Random(42);
+        int[] asphalt = plain(ASPHALT);
+        for (int i = 0; i < asphalt.length; ++i) {
+            int value = 0x40 + random.nextInt(0x30);
+            asphalt[i] = 0xFF000000 | value << 16 | value << 8 | value;
+        }
+
+        assertTrue(new SignPrefilter(SignPrefilter.Target.OFF, SIZE).accept(plain(SKY), SIZE, WINDOW));
+        for (SignPrefilter.Target target : SignPrefilter.Target.values()) {
+            if (target == SignPrefilter.Target.OFF)
+                continue;
+            SignPrefilter prefilter = new SignPrefilter(target, SIZE);
+            assertFalse(target.name(), prefilter.accept(plain(SKY), SIZE, WINDOW));
+            assertFalse(target.name(), prefilter.accept(asphalt, SIZE, WINDOW));
+        }
+    }
+
+    @Test
+    public void accept_checksTheShapeBeyondHighRecall() {
+        // A red wall filling the window, too large for a sign.
+        int[] wall = plain(RED);
+
+        assertTrue(new SignPrefilter(SignPrefilter.Target.HIGH_RECALL, SIZE).accept(wall, SIZE, WINDOW));
+        assertFalse(new SignPrefilter(SignPrefilter.Target.BALANCED, SIZE).accept(wall, SIZE, WINDOW));
+        assertFalse(new SignPrefilter(SignPrefilter.Target.AGGRESSIVE, SIZE).accept(wall, SIZE, WINDOW));
+    }
+
+    @Test
+    public void accept_readsTheWindowInALargerImage() {
+        SignPrefilter prefilter = new SignPrefilter(SignPrefilter.Target.BALANCED, SIZE);
+        int[] disk = disk(RED, 40);
+        int[] image = new int[2 * SIZE * SIZE];
+        Arrays.fill(image, ASPHALT);
+        for (int y = 0; y < SIZE; ++y) {
+            System.arraycopy(disk, y * SIZE, image, y * 2 * SIZE + SIZE, SIZE);
+        }
+
+        assertFalse(prefilter.accept(image, 2 * SIZE, WINDOW));
+        assertTrue(prefilter.accept(image, 2 * SIZE, new RectF(SIZE, 0, 2 * SIZE, SIZE)));
+    }
+}
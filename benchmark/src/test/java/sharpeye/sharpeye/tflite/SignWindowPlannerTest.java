@@ -0,0 +1,142 @@
+package sharpeye.sharpeye.tflite;
+
+import android.graphics.RectF;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the choice of the sign windows, run with the RectF of android-all.
+ */
+public class SignWindowPlannerTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 640;
+    private static final int WINDOW_SIZE = 300;
+    private static final int GREY = 0xFF808080;
+    private static final int RED = 0xFFD01010;
+
+    private static int[] greyFrame() {
+        int[] frame = new int[WIDTH * HEIGHT];
+        Arrays.fill(frame, GREY);
+        return (frame);
+    }
+
+    private static void fill(int[] frame, int left, int top, int right, int bottom, int colour) {
+        for (int y = top; y < bottom; ++y) {
+            Arrays.fill(frame, y * WIDTH + left, y * WIDTH + right, colour);
+        }
+    }
+
+    @Test
+    public void plan_putsTheRoadLast() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 6);
+
+        List<RectF> windows = planner.plan(greyFrame());
+        assertEquals(6, windows.size());
+        assertEquals(0, windows.get(0).top, 0);
+        assertEquals(HEIGHT - WINDOW_SIZE, windows.get(windows.size() - 1).top, 0);
+    }
+
+    @Test
+    public void plan_putsTheSignColoursFirst() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 1);
+        int[] frame = greyFrame();
+        // Only in the bottom left window, on the road.
+        fill(frame, 60, 560, 120, 620, RED);
+
+        List<RectF> windows = planner.plan(frame);
+        assertEquals(new RectF(0, HEIGHT - WINDOW_SIZE, WINDOW_SIZE, HEIGHT), windows.get(0));
+    }
+
+    @Test
+    public void plan_readsTheFrameWithTheStride() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 1);
+        int stride = WIDTH + 100;
+        int[] frame = new int[stride * HEIGHT];
+        Arrays.fill(frame, GREY);
+        for (int y = 560; y < 620; ++y) {
+            Arrays.fill(frame, y * stride + 60, y * stride + 120, RED);
+        }
+
+        List<RectF> windows = planner.plan(frame, stride);
+        assertEquals(new RectF(0, HEIGHT - WINDOW_SIZE, WINDOW_SIZE, HEIGHT), windows.get(0));
+    }
+
+    @Test
+    public void onCandidates_heatsTheWindowsHoldingTheCandidate() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 1);
+        int[] frame = greyFrame();
+        List<RectF> candidates = new ArrayList<>();
+
+        planner.plan(frame);
+        candidates.add(new RectF(385, 585, 415, 615));
+        planner.onCandidates(candidates);
+        List<RectF> windows = planner.plan(frame);
+        assertEquals(new RectF(WIDTH - WINDOW_SIZE, HEIGHT - WINDOW_SIZE, WIDTH, HEIGHT), windows.get(0));
+    }
+
+    @Test
+    public void onCandidates_ignoresTheCandidatesTooLargeForTheWindow() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 1);
+        int[] frame = greyFrame();
+        List<RectF> candidates = new ArrayList<>();
+
+        planner.plan(frame);
+        candidates.add(new RectF(300, 500, 480, 640));
+        planner.onCandidates(candidates);
+        // Nothing heated, the grey frame is skipped until the next exploration.
+        assertTrue(planner.plan(frame).isEmpty());
+    }
+
+    @Test
+    public void plan_skipsTheFramesWithoutSignColoursBetweenExplorations() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 1);
+        int[] frame = greyFrame();
+
+        RectF first = new RectF(planner.plan(frame).get(0));
+        for (int i = 1; i < SignWindowPlanner.EXPLORATION_INTERVAL; ++i) {
+            assertTrue(planner.plan(frame).isEmpty());
+        }
+        List<RectF> windows = planner.plan(frame);
+        assertEquals(1, windows.size());
+        assertNotEquals(first, windows.get(0));
+    }
+
+    @Test
+    public void plan_searchesTheSignColoursOnEveryFrame() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 2);
+        int[] frame = greyFrame();
+        fill(frame, 60, 560, 120, 620, RED);
+
+        planner.plan(frame);
+        for (int i = 1; i < SignWindowPlanner.EXPLORATION_INTERVAL; ++i) {
+            // Only the window holding the red, the grey ones wait for the next exploration.
+            List<RectF> windows = planner.plan(frame);
+            assertEquals(1, windows.size());
+            assertEquals(new RectF(0, HEIGHT - WINDOW_SIZE, WINDOW_SIZE, HEIGHT), windows.get(0));
+        }
+    }
+
+    @Test
+    public void plan_searchesTheHeatedWindowsBetweenExplorations() {
+        SignWindowPlanner planner = new SignWindowPlanner(WIDTH, HEIGHT, WINDOW_SIZE, 1);
+        int[] frame = greyFrame();
+        List<RectF> candidates = new ArrayList<>();
+
+        planner.plan(frame);
+        candidates.add(new RectF(385, 585, 415, 615));
+        planner.onCandidates(candidates);
+        for (int i = 1; i < SignWindowPlanner.EXPLORATION_INTERVAL; ++i) {
+            assertEquals(new RectF(WIDTH - WINDOW_SIZE, HEIGHT - WINDOW_SIZE, WIDTH, HEIGHT), planner.plan(frame).get(0));
+        }
+        // The exploration, then the heat has faded.
+        assertFalse(planner.plan(frame).isEmpty());
+        assertTrue(planner.plan(frame).isEmpty());
+    }
+}